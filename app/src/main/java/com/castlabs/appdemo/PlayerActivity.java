@@ -24,6 +24,7 @@ import com.castlabs.appdemo.appDemo.R;
 import com.castlabs.mediaplayer.tinysdk.AspectRatioSurfaceView;
 import com.castlabs.mediaplayer.tinysdk.Stream;
 import com.castlabs.mediaplayer.tinysdk.MediaPlayer;
+import com.castlabs.mediaplayer.tinysdk.MediaPlayerPool;
 import com.castlabs.mediaplayer.tinysdk.PlayerConfiguration;
 import com.castlabs.mediaplayer.tinysdk.TrackInfo;
 import com.getbase.floatingactionbutton.FloatingActionButton;
@@ -39,6 +40,10 @@ public class PlayerActivity extends Activity implements MediaPlayer.Listener {
   private static final int MENU_GROUP_ID_TRACKS = 1;
   private static final int TRACK_ID_OFFSET = 2;
 
+  // Players kept alive across pause/resume and configuration changes, released when finishing
+  private static final int PLAYER_POOL_SIZE = 2;
+  private static MediaPlayerPool playerPool;
+
   // UI declarations
   private MediaController mediaController;  // Trickplay control buttons
   private AspectRatioSurfaceView display;   // Surface to be rendered
@@ -124,15 +129,24 @@ public class PlayerActivity extends Activity implements MediaPlayer.Listener {
   public void onDestroy() {
     super.onDestroy();
     releasePlayer();
+    if (isFinishing() && playerPool != null) {
+      // Keep the pooled players across configuration changes only, not once the user leaves.
+      playerPool.clear();
+      playerPool = null;
+    }
   }
 
 // ------------------------ MediaPlayer setup ------------------------
 
   private void createPlayer() {
-      String applicationName = getResources().getString(R.string.app_name);
+      if (playerPool == null) {
+          String applicationName = getResources().getString(R.string.app_name);
+          PlayerConfiguration playerConfiguration =
+                  new PlayerConfiguration(getApplicationContext(), applicationName);
+          playerPool = new MediaPlayerPool(playerConfiguration, PLAYER_POOL_SIZE);
+      }
       Stream playable = new Stream(contentUri);
-      PlayerConfiguration playerConfiguration = new PlayerConfiguration(this, applicationName);
-      player = new MediaPlayer(playable, playerConfiguration);
+      player = playerPool.acquire(playable);
 
       // Add callbacks
       player.addListener(this);
@@ -161,8 +175,8 @@ public class PlayerActivity extends Activity implements MediaPlayer.Listener {
     if (player != null) {
       // Save previous position
       playerPosition = player.getCurrentPosition();
-      // Release player resources when app is paused or stopped
-      player.release();
+      // Hand the player back to the pool when app is paused or stopped
+      playerPool.release(player);
       player = null;
     }
   }
@@ -0,0 +1,34 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+/**
+ * Selects the adaptive bitrate algorithm used for video.
+ * <p>
+ * A new {@link FormatEvaluator} is created for every playback session. Strategies are set for all
+ * streams through {@link PlayerConfiguration#setAbrStrategy(AbrStrategy)} and can be overridden
+ * per stream through {@link Stream#setAbrStrategy(AbrStrategy)}.
+ */
+public interface AbrStrategy {
+
+  /**
+   * Selects formats from the bandwidth estimate only. This is ExoPlayer's {@link AdaptiveEvaluator}
+   * and the default strategy.
+   */
+  AbrStrategy THROUGHPUT = new AbrStrategy() {
+    @Override
+    public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+      return new AdaptiveEvaluator(bandwidthMeter);
+    }
+  };
+
+  /**
+   * Creates the evaluator for a playback session.
+   *
+   * @param bandwidthMeter Provides the bandwidth estimate of the session.
+   */
+  FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter);
+
+}
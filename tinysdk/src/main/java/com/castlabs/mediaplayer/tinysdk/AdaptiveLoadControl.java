@@ -0,0 +1,252 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.upstream.NetworkLock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A {@link LoadControl} that targets a buffered media duration rather than a number of bytes.
+ * <p>
+ * Loading is driven by the buffered duration watermarks only. The buffer sizes contributed by the
+ * registered loaders, capped by a share of the application heap, just bound the memory that may be
+ * allocated. That cap shrinks when the system reports memory pressure through
+ * {@link ComponentCallbacks2} and recovers gradually once the pressure is gone. Allocations that
+ * are no longer used are handed back to the system after seeks and under memory pressure, instead
+ * of being kept in the allocator pool.
+ */
+final class AdaptiveLoadControl implements LoadControl, ComponentCallbacks2 {
+
+  private static final int ABOVE_HIGH_WATERMARK = 0;
+  private static final int BETWEEN_WATERMARKS = 1;
+  private static final int BELOW_LOW_WATERMARK = 2;
+
+  private static final float HEAP_BUDGET_FRACTION = 0.4f;
+  private static final long SEEK_THRESHOLD_US = 2000000;
+  private static final long MEMORY_RECOVERY_INTERVAL_MS = 30000;
+  private static final float MEMORY_RECOVERY_STEP = 0.25f;
+
+  private final Context context;
+  private final Allocator allocator;
+  private final List<Object> loaders;
+  private final HashMap<Object, LoaderState> loaderStates;
+  private final long lowWatermarkUs;
+  private final long highWatermarkUs;
+  private final int heapBudget;
+
+  private int contributedBufferSize;
+  private volatile float memoryScale;
+  private volatile long lastMemoryPressureMs;
+  private long lastPlaybackPositionUs;
+  private long maxLoadStartPositionUs;
+  private boolean fillingBuffers;
+  private boolean streamingPrioritySet;
+
+  /**
+   * @param context Any context of the application, used to listen to memory pressure signals.
+   * @param allocator The {@link Allocator} shared by the loaders.
+   * @param lowWatermarkMs Buffered duration below which loading is resumed.
+   * @param highWatermarkMs Buffered duration above which loading is paused.
+   */
+  public AdaptiveLoadControl(Context context, Allocator allocator, int lowWatermarkMs,
+      int highWatermarkMs) {
+    this.context = context.getApplicationContext();
+    this.allocator = allocator;
+    loaders = new ArrayList<>();
+    loaderStates = new HashMap<>();
+    lowWatermarkUs = lowWatermarkMs * 1000L;
+    highWatermarkUs = highWatermarkMs * 1000L;
+    heapBudget = getHeapBudget(context);
+    memoryScale = 1f;
+    lastPlaybackPositionUs = -1;
+  }
+
+  @Override
+  public void register(Object loader, int bufferSizeContribution) {
+    if (loaders.isEmpty()) {
+      context.registerComponentCallbacks(this);
+    }
+    loaders.add(loader);
+    loaderStates.put(loader, new LoaderState(bufferSizeContribution));
+    contributedBufferSize += bufferSizeContribution;
+  }
+
+  @Override
+  public void unregister(Object loader) {
+    loaders.remove(loader);
+    LoaderState state = loaderStates.remove(loader);
+    contributedBufferSize -= state.bufferSizeContribution;
+    if (loaders.isEmpty()) {
+      context.unregisterComponentCallbacks(this);
+    }
+    updateControlState();
+  }
+
+  @Override
+  public void trimAllocator() {
+    allocator.trim(getTargetBufferSize());
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return allocator;
+  }
+
+  @Override
+  public boolean update(Object loader, long playbackPositionUs, long nextLoadPositionUs,
+      boolean loading) {
+    maybeRecoverMemoryScale();
+    if (lastPlaybackPositionUs != -1
+        && Math.abs(playbackPositionUs - lastPlaybackPositionUs) > SEEK_THRESHOLD_US) {
+      // The samples buffered for the old position have been discarded. Free them now rather than
+      // keeping them pooled until the buffer fills up again.
+      allocator.trim(0);
+    }
+    lastPlaybackPositionUs = playbackPositionUs;
+
+    int loaderBufferState = getLoaderBufferState(playbackPositionUs, nextLoadPositionUs);
+    LoaderState loaderState = loaderStates.get(loader);
+    boolean loaderStateChanged = loaderState.bufferState != loaderBufferState
+        || loaderState.nextLoadPositionUs != nextLoadPositionUs || loaderState.loading != loading;
+    if (loaderStateChanged) {
+      loaderState.bufferState = loaderBufferState;
+      loaderState.nextLoadPositionUs = nextLoadPositionUs;
+      loaderState.loading = loading;
+      updateControlState();
+    }
+
+    return allocator.getTotalBytesAllocated() < getTargetBufferSize() && nextLoadPositionUs != -1
+        && nextLoadPositionUs <= maxLoadStartPositionUs;
+  }
+
+  // ComponentCallbacks2 implementation.
+
+  @Override
+  public void onTrimMemory(int level) {
+    float scale;
+    if (level >= TRIM_MEMORY_RUNNING_CRITICAL && level != TRIM_MEMORY_UI_HIDDEN) {
+      // Covers the critical running level as well as every background level.
+      scale = 0.25f;
+    } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+      scale = 0.5f;
+    } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+      scale = 0.75f;
+    } else {
+      return;
+    }
+    onMemoryPressure(scale);
+  }
+
+  @Override
+  public void onLowMemory() {
+    onMemoryPressure(0.25f);
+  }
+
+  @Override
+  public void onConfigurationChanged(Configuration newConfig) {
+    // Do nothing.
+  }
+
+  private void onMemoryPressure(float scale) {
+    lastMemoryPressureMs = SystemClock.elapsedRealtime();
+    if (scale < memoryScale) {
+      memoryScale = scale;
+      allocator.trim(getTargetBufferSize());
+    }
+  }
+
+  private void maybeRecoverMemoryScale() {
+    long nowMs = SystemClock.elapsedRealtime();
+    if (memoryScale < 1f && nowMs - lastMemoryPressureMs > MEMORY_RECOVERY_INTERVAL_MS) {
+      memoryScale = Math.min(1f, memoryScale + MEMORY_RECOVERY_STEP);
+      lastMemoryPressureMs = nowMs;
+    }
+  }
+
+  private int getTargetBufferSize() {
+    return (int) (Math.min(contributedBufferSize, heapBudget) * memoryScale);
+  }
+
+  private int getLoaderBufferState(long playbackPositionUs, long nextLoadPositionUs) {
+    if (nextLoadPositionUs == -1) {
+      return ABOVE_HIGH_WATERMARK;
+    } else {
+      long timeUntilNextLoadPosition = nextLoadPositionUs - playbackPositionUs;
+      return timeUntilNextLoadPosition > highWatermarkUs ? ABOVE_HIGH_WATERMARK
+          : timeUntilNextLoadPosition < lowWatermarkUs ? BELOW_LOW_WATERMARK
+          : BETWEEN_WATERMARKS;
+    }
+  }
+
+  private void updateControlState() {
+    boolean loading = false;
+    boolean haveNextLoadPosition = false;
+    int highestState = ABOVE_HIGH_WATERMARK;
+    for (int i = 0; i < loaders.size(); i++) {
+      LoaderState loaderState = loaderStates.get(loaders.get(i));
+      loading |= loaderState.loading;
+      haveNextLoadPosition |= loaderState.nextLoadPositionUs != -1;
+      highestState = Math.max(highestState, loaderState.bufferState);
+    }
+
+    fillingBuffers = !loaders.isEmpty() && (loading || haveNextLoadPosition)
+        && (highestState == BELOW_LOW_WATERMARK
+        || (highestState == BETWEEN_WATERMARKS && fillingBuffers));
+    if (fillingBuffers && !streamingPrioritySet) {
+      NetworkLock.instance.add(NetworkLock.STREAMING_PRIORITY);
+      streamingPrioritySet = true;
+    } else if (!fillingBuffers && streamingPrioritySet && !loading) {
+      NetworkLock.instance.remove(NetworkLock.STREAMING_PRIORITY);
+      streamingPrioritySet = false;
+    }
+
+    maxLoadStartPositionUs = -1;
+    if (fillingBuffers) {
+      for (int i = 0; i < loaders.size(); i++) {
+        long loaderTime = loaderStates.get(loaders.get(i)).nextLoadPositionUs;
+        if (loaderTime != -1
+            && (maxLoadStartPositionUs == -1 || loaderTime < maxLoadStartPositionUs)) {
+          maxLoadStartPositionUs = loaderTime;
+        }
+      }
+    }
+  }
+
+  private static int getHeapBudget(Context context) {
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    boolean largeHeap =
+        (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+    int heapMb = largeHeap ? activityManager.getLargeMemoryClass()
+        : activityManager.getMemoryClass();
+    return (int) (heapMb * 1024L * 1024L * HEAP_BUDGET_FRACTION);
+  }
+
+  private static final class LoaderState {
+
+    public final int bufferSizeContribution;
+
+    public int bufferState;
+    public boolean loading;
+    public long nextLoadPositionUs;
+
+    public LoaderState(int bufferSizeContribution) {
+      this.bufferSizeContribution = bufferSizeContribution;
+      bufferState = ABOVE_HIGH_WATERMARK;
+      loading = false;
+      nextLoadPositionUs = -1;
+    }
+
+  }
+
+}
@@ -0,0 +1,240 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.telephony.TelephonyManager;
+
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer.util.Assertions;
+import com.google.android.exoplayer.util.SlidingPercentile;
+
+/**
+ * A {@link BandwidthMeter} that remembers its estimate across playback sessions.
+ * <p>
+ * Like {@link DefaultBandwidthMeter}, the estimate is a weighted percentile over a sliding window
+ * of transfer samples, each weighted by the square root of its size. In addition the estimate is
+ * persisted per network, identified by the Wi-Fi SSID or the mobile operator, and the next session
+ * on the same network starts from it instead of having no estimate at all. This lets the first
+ * segments be requested in a quality that matches the network rather than the lowest one.
+ * <p>
+ * The network is identified once, when the estimator is created, and the estimate is persisted at
+ * most every {@link #SAVE_INTERVAL_MS} and on {@link #release()}, so that transfers do not pay for
+ * system service calls or preference writes.
+ */
+public final class BandwidthEstimator implements BandwidthMeter {
+
+  public static final int DEFAULT_MAX_WEIGHT = 2000;
+  public static final float DEFAULT_PERCENTILE = 0.5f;
+
+  private static final String PREFERENCES_NAME = "com.castlabs.mediaplayer.tinysdk.bandwidth";
+  private static final String KEY_TIMESTAMP_SUFFIX = ".timestamp";
+
+  /**
+   * Persisted estimates older than this are ignored, as the network has most likely changed.
+   */
+  private static final long MAX_PERSISTED_ESTIMATE_AGE_MS = 24 * 60 * 60 * 1000L;
+
+  /**
+   * Fraction of the window given to the persisted estimate. Fresh samples quickly outweigh it.
+   */
+  private static final float SEED_WEIGHT_FRACTION = 0.25f;
+
+  /**
+   * Minimum time between two writes of the estimate.
+   */
+  private static final long SAVE_INTERVAL_MS = 10000;
+
+  private final Context context;
+  private final Handler eventHandler;
+  private final DefaultBandwidthMeter.EventListener eventListener;
+  private final SharedPreferences preferences;
+  private final String networkKey;
+  private final SlidingPercentile slidingPercentile;
+  private final float percentile;
+
+  private long bytesAccumulator;
+  private long startTimeMs;
+  private long bitrateEstimate;
+  private int streamCount;
+  private long lastSaveTimeMs;
+  private long savedEstimate;
+
+  public BandwidthEstimator(Context context, Handler eventHandler,
+      DefaultBandwidthMeter.EventListener eventListener) {
+    this(context, eventHandler, eventListener, DEFAULT_MAX_WEIGHT, DEFAULT_PERCENTILE);
+  }
+
+  /**
+   * @param context Any context of the application.
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param maxWeight The maximum total weight of the samples in the sliding window.
+   * @param percentile The percentile of the samples reported as the estimate, between 0 and 1.
+   */
+  public BandwidthEstimator(Context context, Handler eventHandler,
+      DefaultBandwidthMeter.EventListener eventListener, int maxWeight, float percentile) {
+    this.context = context.getApplicationContext();
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    this.percentile = percentile;
+    preferences = this.context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    slidingPercentile = new SlidingPercentile(maxWeight);
+    networkKey = getNetworkKey();
+    bitrateEstimate = loadEstimate();
+    savedEstimate = bitrateEstimate;
+    lastSaveTimeMs = SystemClock.elapsedRealtime();
+    if (bitrateEstimate != NO_ESTIMATE) {
+      slidingPercentile.addSample((int) (maxWeight * SEED_WEIGHT_FRACTION), bitrateEstimate);
+    }
+  }
+
+  @Override
+  public synchronized long getBitrateEstimate() {
+    return bitrateEstimate;
+  }
+
+  @Override
+  public synchronized void onTransferStart() {
+    if (streamCount == 0) {
+      startTimeMs = SystemClock.elapsedRealtime();
+    }
+    streamCount++;
+  }
+
+  @Override
+  public synchronized void onBytesTransferred(int bytes) {
+    bytesAccumulator += bytes;
+  }
+
+  @Override
+  public void onTransferEnd() {
+    long estimateToSave = NO_ESTIMATE;
+    synchronized (this) {
+      Assertions.checkState(streamCount > 0);
+      long nowMs = SystemClock.elapsedRealtime();
+      int elapsedMs = (int) (nowMs - startTimeMs);
+      if (elapsedMs > 0) {
+        float bitsPerSecond = (bytesAccumulator * 8000) / elapsedMs;
+        slidingPercentile.addSample((int) Math.sqrt(bytesAccumulator), bitsPerSecond);
+        float bandwidthEstimateFloat = slidingPercentile.getPercentile(percentile);
+        bitrateEstimate = Float.isNaN(bandwidthEstimateFloat) ? NO_ESTIMATE
+            : (long) bandwidthEstimateFloat;
+        notifyBandwidthSample(elapsedMs, bytesAccumulator, bitrateEstimate);
+        if (nowMs - lastSaveTimeMs >= SAVE_INTERVAL_MS) {
+          estimateToSave = takeUnsavedEstimate(nowMs);
+        }
+      }
+      streamCount--;
+      if (streamCount > 0) {
+        startTimeMs = nowMs;
+      }
+      bytesAccumulator = 0;
+    }
+    // Written outside the lock, so that getBitrateEstimate() does not wait for it.
+    saveEstimate(estimateToSave);
+  }
+
+  /**
+   * Persists the current estimate for the next session on the same network.
+   */
+  public void release() {
+    long estimateToSave;
+    synchronized (this) {
+      estimateToSave = takeUnsavedEstimate(SystemClock.elapsedRealtime());
+    }
+    saveEstimate(estimateToSave);
+  }
+
+  /**
+   * Returns the estimate if it changed since it was last saved, or {@link #NO_ESTIMATE}.
+   */
+  private long takeUnsavedEstimate(long nowMs) {
+    if (bitrateEstimate == NO_ESTIMATE || bitrateEstimate == savedEstimate) {
+      return NO_ESTIMATE;
+    }
+    lastSaveTimeMs = nowMs;
+    savedEstimate = bitrateEstimate;
+    return bitrateEstimate;
+  }
+
+  private void notifyBandwidthSample(final int elapsedMs, final long bytes, final long bitrate) {
+    if (eventHandler != null && eventListener != null) {
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onBandwidthSample(elapsedMs, bytes, bitrate);
+        }
+      });
+    }
+  }
+
+  private long loadEstimate() {
+    if (networkKey == null) {
+      return NO_ESTIMATE;
+    }
+    long timestampMs = preferences.getLong(networkKey + KEY_TIMESTAMP_SUFFIX, 0);
+    if (System.currentTimeMillis() - timestampMs > MAX_PERSISTED_ESTIMATE_AGE_MS) {
+      return NO_ESTIMATE;
+    }
+    return preferences.getLong(networkKey, NO_ESTIMATE);
+  }
+
+  private void saveEstimate(long estimate) {
+    if (networkKey == null || estimate == NO_ESTIMATE) {
+      return;
+    }
+    // apply() commits to memory immediately and writes to disk in the background.
+    preferences.edit()
+        .putLong(networkKey, estimate)
+        .putLong(networkKey + KEY_TIMESTAMP_SUFFIX, System.currentTimeMillis())
+        .apply();
+  }
+
+  /**
+   * Returns a key identifying the active network, or null if it cannot be determined. Network
+   * names are hashed so that they are not stored in clear text.
+   */
+  private String getNetworkKey() {
+    if (!hasPermission(android.Manifest.permission.ACCESS_NETWORK_STATE)) {
+      return null;
+    }
+    ConnectivityManager connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+    if (networkInfo == null || !networkInfo.isConnected()) {
+      return null;
+    }
+    String name = null;
+    switch (networkInfo.getType()) {
+      case ConnectivityManager.TYPE_WIFI:
+        if (hasPermission(android.Manifest.permission.ACCESS_WIFI_STATE)) {
+          WifiManager wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+          WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+          name = wifiInfo != null ? wifiInfo.getSSID() : null;
+        }
+        break;
+      case ConnectivityManager.TYPE_MOBILE:
+        TelephonyManager telephonyManager =
+            (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        // The subtype separates e.g. LTE from HSPA on the same operator.
+        name = telephonyManager.getNetworkOperator() + "/" + networkInfo.getSubtype();
+        break;
+      default:
+        break;
+    }
+    return networkInfo.getType() + ":" + (name == null ? "" : Integer.toHexString(name.hashCode()));
+  }
+
+  private boolean hasPermission(String permission) {
+    return context.checkCallingOrSelfPermission(permission) == PackageManager.PERMISSION_GRANTED;
+  }
+
+}
@@ -0,0 +1,128 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.app.UiModeManager;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.upstream.Allocator;
+import com.google.android.exoplayer.util.Util;
+
+/**
+ * Controls how much media the player buffers, and when playback starts or resumes.
+ * <p>
+ * Buffering is bounded both by duration, through the buffered duration watermarks, and by memory,
+ * through the per-track buffer sizes. Presets are provided for common device classes.
+ */
+public final class BufferPolicy {
+
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  /**
+   * The values used before buffer policies were configurable. Suitable for typical phones and
+   * tablets.
+   */
+  public static final BufferPolicy DEFAULT = new BufferPolicy(1000, 5000, 15000, 30000,
+      200 * SEGMENT_SIZE, 54 * SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+
+  /**
+   * A policy for devices with 1 GB of RAM or less, trading buffer depth for memory.
+   */
+  public static final BufferPolicy LOW_RAM = new BufferPolicy(1000, 5000, 10000, 20000,
+      80 * SEGMENT_SIZE, 24 * SEGMENT_SIZE, 2 * SEGMENT_SIZE);
+
+  /**
+   * A policy for set-top boxes and TVs, which have memory to spare and benefit from deep buffers.
+   */
+  public static final BufferPolicy SET_TOP_BOX = new BufferPolicy(2500, 5000, 30000, 60000,
+      512 * SEGMENT_SIZE, 96 * SEGMENT_SIZE, 4 * SEGMENT_SIZE);
+
+  private static final int LOW_RAM_MEMORY_CLASS_MB = 96;
+
+  private final int minBufferMs;
+  private final int minRebufferMs;
+  private final int minBufferedDurationMs;
+  private final int maxBufferedDurationMs;
+  private final int videoBufferSize;
+  private final int audioBufferSize;
+  private final int textBufferSize;
+
+  /**
+   * @param minBufferMs Media that must be buffered before playback starts or resumes after a seek.
+   * @param minRebufferMs Media that must be buffered before playback resumes after a rebuffer.
+   * @param minBufferedDurationMs Buffered duration below which loading is resumed.
+   * @param maxBufferedDurationMs Buffered duration above which loading is paused.
+   * @param videoBufferSize Maximum memory used for buffered video, in bytes.
+   * @param audioBufferSize Maximum memory used for buffered audio, in bytes.
+   * @param textBufferSize Maximum memory used for buffered text, in bytes.
+   */
+  public BufferPolicy(int minBufferMs, int minRebufferMs, int minBufferedDurationMs,
+      int maxBufferedDurationMs, int videoBufferSize, int audioBufferSize, int textBufferSize) {
+    this.minBufferMs = minBufferMs;
+    this.minRebufferMs = minRebufferMs;
+    this.minBufferedDurationMs = minBufferedDurationMs;
+    this.maxBufferedDurationMs = maxBufferedDurationMs;
+    this.videoBufferSize = videoBufferSize;
+    this.audioBufferSize = audioBufferSize;
+    this.textBufferSize = textBufferSize;
+  }
+
+  /**
+   * Picks the preset matching the class of the device.
+   *
+   * @param context Any context of the application.
+   * @return {@link #SET_TOP_BOX} on TVs, {@link #LOW_RAM} on low memory devices and
+   *     {@link #DEFAULT} otherwise.
+   */
+  public static BufferPolicy forDevice(Context context) {
+    UiModeManager uiModeManager = (UiModeManager) context.getSystemService(Context.UI_MODE_SERVICE);
+    if (uiModeManager != null
+        && uiModeManager.getCurrentModeType() == Configuration.UI_MODE_TYPE_TELEVISION) {
+      return SET_TOP_BOX;
+    }
+    ActivityManager activityManager =
+        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+    if (activityManager != null && (isLowRamDevice(activityManager)
+        || activityManager.getMemoryClass() < LOW_RAM_MEMORY_CLASS_MB)) {
+      return LOW_RAM;
+    }
+    return DEFAULT;
+  }
+
+  @TargetApi(19)
+  private static boolean isLowRamDevice(ActivityManager activityManager) {
+    return Util.SDK_INT >= 19 && activityManager.isLowRamDevice();
+  }
+
+  public int getMinBufferMs() { return minBufferMs; }
+
+  public int getMinRebufferMs() { return minRebufferMs; }
+
+  public int getMinBufferedDurationMs() { return minBufferedDurationMs; }
+
+  public int getMaxBufferedDurationMs() { return maxBufferedDurationMs; }
+
+  public int getVideoBufferSize() { return videoBufferSize; }
+
+  public int getAudioBufferSize() { return audioBufferSize; }
+
+  public int getTextBufferSize() { return textBufferSize; }
+
+  /**
+   * Memory for sources that carry audio and video in a single buffer, such as HLS and progressive
+   * streams.
+   */
+  public int getMuxedBufferSize() { return videoBufferSize + audioBufferSize; }
+
+  /**
+   * Creates a {@link LoadControl} that keeps the buffered duration between the watermarks of this
+   * policy, backing off under memory pressure.
+   */
+  LoadControl createLoadControl(Context context, Allocator allocator) {
+    return new AdaptiveLoadControl(context, allocator, minBufferedDurationMs,
+        maxBufferedDurationMs);
+  }
+
+}
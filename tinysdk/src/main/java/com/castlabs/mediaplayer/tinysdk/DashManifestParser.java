@@ -0,0 +1,200 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.ParserException;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.util.Util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link MediaPresentationDescriptionParser} that prepares multi-period manifests for playback
+ * through a single {@code DashChunkSource}.
+ * <p>
+ * The chunk source selects its tracks in the first period and refers to them by adaptation set
+ * index in the following ones. Packagers inserting ads or chapters do not necessarily keep the
+ * order of the adaptation sets, so the adaptation sets of every following period are reordered to
+ * match the first period by content type and language. Representations are still matched by id, so
+ * they must be repeated with the same ids in every period.
+ * <p>
+ * The grid layout of thumbnail representations, declared by the
+ * {@code http://dashif.org/thumbnail_tile} property that the underlying parser ignores, is passed
+ * on to {@link ThumbnailProvider}.
+ */
+class DashManifestParser extends MediaPresentationDescriptionParser {
+
+  private static final String THUMBNAIL_TILE_SCHEME = "http://dashif.org/thumbnail_tile";
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private List<AdaptationSet> firstPeriodAdaptationSets;
+
+  @Override
+  public MediaPresentationDescription parse(String connectionUrl, InputStream inputStream)
+      throws IOException {
+    firstPeriodAdaptationSets = null;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int bytesRead;
+    while ((bytesRead = inputStream.read(buffer)) != -1) {
+      output.write(buffer, 0, bytesRead);
+    }
+    byte[] data = output.toByteArray();
+    MediaPresentationDescription manifest =
+        super.parse(connectionUrl, new ByteArrayInputStream(data));
+    if (new String(data, "UTF-8").contains(THUMBNAIL_TILE_SCHEME)) {
+      registerTileLayouts(manifest, parseTileLayouts(data));
+    }
+    return manifest;
+  }
+
+  @Override
+  protected Period buildPeriod(String id, long startMs, List<AdaptationSet> adaptationSets) {
+    if (firstPeriodAdaptationSets == null) {
+      firstPeriodAdaptationSets = adaptationSets;
+    } else {
+      adaptationSets = alignAdaptationSets(adaptationSets);
+    }
+    return super.buildPeriod(id, startMs, adaptationSets);
+  }
+
+  private List<AdaptationSet> alignAdaptationSets(List<AdaptationSet> adaptationSets) {
+    List<AdaptationSet> remaining = new ArrayList<>(adaptationSets);
+    List<AdaptationSet> aligned = new ArrayList<>(adaptationSets.size());
+    for (int i = 0; i < firstPeriodAdaptationSets.size() && !remaining.isEmpty(); i++) {
+      AdaptationSet match = findMatch(remaining, firstPeriodAdaptationSets.get(i));
+      if (match == null) {
+        // The following indices can't be kept aligned anyway.
+        break;
+      }
+      remaining.remove(match);
+      aligned.add(match);
+    }
+    aligned.addAll(remaining);
+    return aligned;
+  }
+
+  private static AdaptationSet findMatch(List<AdaptationSet> candidates,
+      AdaptationSet reference) {
+    AdaptationSet typeMatch = null;
+    for (int i = 0; i < candidates.size(); i++) {
+      AdaptationSet candidate = candidates.get(i);
+      if (candidate.type != reference.type) {
+        continue;
+      }
+      if (Util.areEqual(getLanguage(candidate), getLanguage(reference))) {
+        return candidate;
+      }
+      if (typeMatch == null) {
+        typeMatch = candidate;
+      }
+    }
+    return typeMatch;
+  }
+
+  private static void registerTileLayouts(MediaPresentationDescription manifest,
+      List<Map<String, int[]>> periodTileLayouts) {
+    for (int i = 0; i < manifest.getPeriodCount() && i < periodTileLayouts.size(); i++) {
+      Map<String, int[]> tileLayouts = periodTileLayouts.get(i);
+      List<AdaptationSet> adaptationSets = manifest.getPeriod(i).adaptationSets;
+      for (int j = 0; j < adaptationSets.size(); j++) {
+        List<Representation> representations = adaptationSets.get(j).representations;
+        for (int k = 0; k < representations.size(); k++) {
+          Representation representation = representations.get(k);
+          int[] layout = tileLayouts.get(representation.format.id);
+          if (layout != null) {
+            ThumbnailProvider.setTileLayout(representation, layout[0], layout[1]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the thumbnail grid layouts of each period, keyed by representation id. A property on an
+   * adaptation set applies to all its representations.
+   */
+  private static List<Map<String, int[]>> parseTileLayouts(byte[] data) throws ParserException {
+    List<Map<String, int[]>> periodTileLayouts = new ArrayList<>();
+    try {
+      XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+      xpp.setInput(new ByteArrayInputStream(data), null);
+      Map<String, int[]> tileLayouts = null;
+      List<String> adaptationSetIds = new ArrayList<>();
+      int[] adaptationSetLayout = null;
+      String representationId = null;
+      while (xpp.next() != XmlPullParser.END_DOCUMENT) {
+        if (xpp.getEventType() == XmlPullParser.START_TAG) {
+          String name = xpp.getName();
+          if ("Period".equals(name)) {
+            tileLayouts = new HashMap<>();
+            periodTileLayouts.add(tileLayouts);
+          } else if ("AdaptationSet".equals(name)) {
+            adaptationSetIds.clear();
+            adaptationSetLayout = null;
+          } else if ("Representation".equals(name)) {
+            representationId = xpp.getAttributeValue(null, "id");
+            adaptationSetIds.add(representationId);
+          } else if (("EssentialProperty".equals(name) || "SupplementalProperty".equals(name))
+              && THUMBNAIL_TILE_SCHEME.equals(xpp.getAttributeValue(null, "schemeIdUri"))) {
+            int[] layout = parseTileLayout(xpp.getAttributeValue(null, "value"));
+            if (layout == null || tileLayouts == null) {
+              continue;
+            } else if (representationId != null) {
+              tileLayouts.put(representationId, layout);
+            } else {
+              adaptationSetLayout = layout;
+            }
+          }
+        } else if (xpp.getEventType() == XmlPullParser.END_TAG) {
+          String name = xpp.getName();
+          if ("Representation".equals(name)) {
+            representationId = null;
+          } else if ("AdaptationSet".equals(name) && adaptationSetLayout != null) {
+            for (int i = 0; i < adaptationSetIds.size(); i++) {
+              if (!tileLayouts.containsKey(adaptationSetIds.get(i))) {
+                tileLayouts.put(adaptationSetIds.get(i), adaptationSetLayout);
+              }
+            }
+          }
+        }
+      }
+    } catch (XmlPullParserException | IOException e) {
+      throw new ParserException(e);
+    }
+    return periodTileLayouts;
+  }
+
+  private static int[] parseTileLayout(String value) {
+    if (value == null) {
+      return null;
+    }
+    String[] dimensions = value.trim().split("x");
+    try {
+      int columns = Integer.parseInt(dimensions[0]);
+      int rows = dimensions.length > 1 ? Integer.parseInt(dimensions[1]) : 1;
+      return columns > 0 && rows > 0 ? new int[] {columns, rows} : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static String getLanguage(AdaptationSet adaptationSet) {
+    return adaptationSet.representations.isEmpty() ? null
+        : adaptationSet.representations.get(0).format.language;
+  }
+
+}
@@ -16,36 +16,34 @@
 package com.castlabs.mediaplayer.tinysdk;
 
 import android.content.Context;
-import android.media.MediaCodec;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
 
 import com.castlabs.mediaplayer.tinysdk.MediaPlayer.RendererBuilder;
-import com.google.android.exoplayer.DefaultLoadControl;
 import com.google.android.exoplayer.LoadControl;
-import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.ChunkSource;
-import com.google.android.exoplayer.chunk.FormatEvaluator.AdaptiveEvaluator;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
 import com.google.android.exoplayer.dash.DashChunkSource;
+import com.google.android.exoplayer.dash.DashTrackSelector;
 import com.google.android.exoplayer.dash.DefaultDashTrackSelector;
 import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
-import com.google.android.exoplayer.dash.mpd.MediaPresentationDescriptionParser;
 import com.google.android.exoplayer.dash.mpd.Period;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElement;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver;
 import com.google.android.exoplayer.dash.mpd.UtcTimingElementResolver.UtcTimingCallback;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
 import com.google.android.exoplayer.drm.UnsupportedDrmException;
 import com.google.android.exoplayer.text.TextTrackRenderer;
 import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
 import com.google.android.exoplayer.upstream.DefaultAllocator;
-import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 import com.google.android.exoplayer.upstream.UriDataSource;
 import com.google.android.exoplayer.util.ManifestFetcher;
@@ -61,33 +59,40 @@ public class DashRendererBuilder implements RendererBuilder {
   private static final String TAG = "DashRendererBuilder";
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-  private static final int VIDEO_BUFFER_SEGMENTS = 200;
-  private static final int AUDIO_BUFFER_SEGMENTS = 54;
-  private static final int TEXT_BUFFER_SEGMENTS = 2;
-  private static final int LIVE_EDGE_LATENCY_MS = 30000;
 
   private static final int SECURITY_LEVEL_UNKNOWN = -1;
   private static final int SECURITY_LEVEL_1 = 1;
   private static final int SECURITY_LEVEL_3 = 3;
 
-  private final Context context;
-  private final String userAgent;
+  private final PlayerConfiguration configuration;
   private final String url;
   private final MediaDrmCallback drmCallback;
+  private final AbrStrategy abrStrategy;
+  private final OfflineContent offlineContent;
 
   private AsyncRendererBuilder currentAsyncBuilder;
 
-   DashRendererBuilder(Context context, String userAgent, String url,
-      MediaDrmCallback drmCallback) {
-    this.context = context;
-    this.userAgent = userAgent;
+   DashRendererBuilder(PlayerConfiguration configuration, String url,
+      MediaDrmCallback drmCallback, AbrStrategy abrStrategy) {
+    this(configuration, url, drmCallback, abrStrategy, null);
+  }
+
+  /**
+   * @param offlineContent The downloaded content to play, or null to stream.
+   */
+  DashRendererBuilder(PlayerConfiguration configuration, String url,
+      MediaDrmCallback drmCallback, AbrStrategy abrStrategy, OfflineContent offlineContent) {
+    this.configuration = configuration;
     this.url = url;
     this.drmCallback = drmCallback;
+    this.abrStrategy = abrStrategy;
+    this.offlineContent = offlineContent;
   }
 
   @Override
   public void buildRenderers(MediaPlayer player) {
-    currentAsyncBuilder = new AsyncRendererBuilder(context, userAgent, url, drmCallback, player);
+    currentAsyncBuilder = new AsyncRendererBuilder(configuration, url, drmCallback, abrStrategy,
+        offlineContent, player);
     currentAsyncBuilder.init();
   }
 
@@ -105,26 +110,73 @@ public class DashRendererBuilder implements RendererBuilder {
     private final Context context;
     private final String userAgent;
     private final MediaDrmCallback drmCallback;
+    private final DrmLicenseManager drmLicenseManager;
+    private final SegmentCache segmentCache;
+    private final SegmentIndexCache segmentIndexCache;
+    private final ManifestCache manifestCache;
+    private final BufferPolicy bufferPolicy;
+    private final AbrStrategy abrStrategy;
+    private final int segmentPrefetchCount;
+    private final int liveEdgeLatencyMs;
+    private final boolean lowLatencyLive;
+    private final LowLatencyDashParser lowLatencyParser;
+    private final OfflineContent offlineContent;
+    private final String url;
     private final MediaPlayer player;
     private final ManifestFetcher<MediaPresentationDescription> manifestFetcher;
     private final UriDataSource manifestDataSource;
 
     private boolean canceled;
     private MediaPresentationDescription manifest;
+    private boolean manifestFromCache;
     private long elapsedRealtimeOffset;
+    private long chunkSourceElapsedRealtimeOffset;
 
-    public AsyncRendererBuilder(Context context, String userAgent, String url,
-        MediaDrmCallback drmCallback, MediaPlayer player) {
-      this.context = context;
-      this.userAgent = userAgent;
+    public AsyncRendererBuilder(PlayerConfiguration configuration, String url,
+        MediaDrmCallback drmCallback, AbrStrategy abrStrategy, OfflineContent offlineContent,
+        MediaPlayer player) {
+      this.context = configuration.getAppContext();
+      this.userAgent = configuration.getUserAgent();
       this.drmCallback = drmCallback;
+      this.drmLicenseManager = configuration.getDrmLicenseManager();
+      this.segmentCache = configuration.getSegmentCache();
+      this.segmentIndexCache = configuration.getSegmentIndexCache();
+      this.bufferPolicy = configuration.getBufferPolicy();
+      this.abrStrategy = abrStrategy;
+      this.segmentPrefetchCount = configuration.getSegmentPrefetchCount();
+      this.liveEdgeLatencyMs = configuration.getLiveTargetLatencyMs();
+      this.lowLatencyLive = configuration.isLowLatencyLive();
+      this.offlineContent = offlineContent;
+      this.url = url;
       this.player = player;
-      MediaPresentationDescriptionParser parser = new MediaPresentationDescriptionParser();
-      manifestDataSource = new DefaultUriDataSource(context, userAgent);
-      manifestFetcher = new ManifestFetcher<>(url, manifestDataSource, parser);
+      lowLatencyParser = lowLatencyLive ? new LowLatencyDashParser() : null;
+      DashManifestParser parser = lowLatencyParser != null ? lowLatencyParser
+          : new DashManifestParser();
+      // Downloaded manifests are read from local storage under their original URL.
+      manifestCache = url.startsWith("http") && offlineContent == null
+          ? configuration.getManifestCache() : null;
+      manifestDataSource = offlineContent != null
+          ? offlineContent.createDataSource(new DefaultUriDataSource(context, userAgent))
+          : new DefaultUriDataSource(context, userAgent);
+      // The UtcTiming element is resolved through manifestDataSource, so only the manifest
+      // requests go through the cache.
+      manifestFetcher = new ManifestFetcher<>(url, manifestCache != null
+          ? manifestCache.createDataSource(userAgent) : manifestDataSource, parser);
     }
 
     public void init() {
+      MediaPresentationDescription cachedManifest =
+          manifestCache != null ? manifestCache.getManifest(url) : null;
+      if (cachedManifest != null) {
+        // Static manifests do not need a fetcher for refreshes, so the cached one is used as is
+        // and checked for changes in the background for the benefit of the next prepare.
+        manifestCache.revalidate(url, userAgent);
+        manifest = cachedManifest;
+        manifestFromCache = true;
+        player.onStartupPhase(StartupTrace.PHASE_MANIFEST_LOADED);
+        buildRenderers();
+        return;
+      }
       manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
     }
 
@@ -139,6 +191,10 @@ public class DashRendererBuilder implements RendererBuilder {
       }
 
       this.manifest = manifest;
+      player.onStartupPhase(StartupTrace.PHASE_MANIFEST_LOADED);
+      if (manifestCache != null) {
+        manifestCache.putManifest(url, manifest);
+      }
       if (manifest.dynamic && manifest.utcTiming != null) {
         UtcTimingElementResolver.resolveTimingElement(manifestDataSource, manifest.utcTiming,
             manifestFetcher.getManifestLoadCompleteTimestamp(), this);
@@ -163,6 +219,7 @@ public class DashRendererBuilder implements RendererBuilder {
       }
 
       this.elapsedRealtimeOffset = elapsedRealtimeOffset;
+      player.onStartupPhase(StartupTrace.PHASE_CLOCK_SYNCHRONIZED);
       buildRenderers();
     }
 
@@ -179,31 +236,76 @@ public class DashRendererBuilder implements RendererBuilder {
 
     private void buildRenderers() {
       Period period = manifest.getPeriod(0);
+      DeviceCapabilities capabilities = DeviceCapabilities.getInstance(context);
       Handler mainHandler = player.getMainHandler();
-      LoadControl loadControl = new DefaultLoadControl(new DefaultAllocator(BUFFER_SEGMENT_SIZE));
-      DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(mainHandler, player);
+      LoadControl loadControl = bufferPolicy.createLoadControl(context,
+          new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+      final BandwidthEstimator bandwidthMeter =
+          new BandwidthEstimator(context, mainHandler, player);
+      // Live segments ahead of the edge do not exist yet, so only static manifests are prefetched.
+      SegmentPrefetcher segmentPrefetcher = null;
+      if (segmentPrefetchCount > 0 && !manifest.dynamic) {
+        segmentPrefetcher = new SegmentPrefetcher(manifest,
+            new SegmentPrefetcher.DataSourceFactory() {
+              @Override
+              public DataSource createDataSource() {
+                return buildSegmentDataSource(bandwidthMeter);
+              }
+            }, segmentPrefetchCount, bufferPolicy.getMaxBufferedDurationMs());
+        player.setSegmentPrefetcher(segmentPrefetcher);
+      }
 
-      boolean hasContentProtection = false;
-      //for (int i = 0; i < period.adaptationSets.size(); i++) {
-      //  AdaptationSet adaptationSet = period.adaptationSets.get(i);
-      //  if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN) {
-      //    hasContentProtection |= adaptationSet.hasContentProtection();
-      //  }
-     // }
+      chunkSourceElapsedRealtimeOffset = elapsedRealtimeOffset;
+      if (manifest.dynamic) {
+        // Without a UtcTiming element the chunk source falls back to the device's wall clock.
+        long clockOffsetMs = elapsedRealtimeOffset != 0 ? elapsedRealtimeOffset
+            : System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        long availabilityTimeOffsetMs =
+            lowLatencyParser != null ? lowLatencyParser.getAvailabilityTimeOffsetMs() : 0;
+        if (availabilityTimeOffsetMs > 0) {
+          // The chunk source only requests complete segments. Running its clock ahead by the
+          // availability time offset makes it request the segments being produced, whose samples
+          // are extracted as they arrive.
+          chunkSourceElapsedRealtimeOffset = clockOffsetMs + availabilityTimeOffsetMs;
+        }
+        player.setLiveLatencyController(new LiveLatencyController(manifest.availabilityStartTime,
+            clockOffsetMs, liveEdgeLatencyMs, lowLatencyLive));
+      }
+
+      player.setSegmentBoundaries(new SegmentBoundaries(manifest));
+      if (ThumbnailProvider.hasThumbnails(manifest)) {
+        player.setThumbnailProvider(new ThumbnailProvider(manifest,
+            new SegmentPrefetcher.DataSourceFactory() {
+              @Override
+              public DataSource createDataSource() {
+                return new DefaultUriDataSource(context, userAgent);
+              }
+            }, mainHandler));
+      }
+
+      boolean hasContentProtection = DrmLicenseManager.hasContentProtection(manifest);
 
       // Check drm support if necessary.
       boolean filterHdContent = false;
-      StreamingDrmSessionManager drmSessionManager = null;
+      DrmSessionManager drmSessionManager = null;
       if (hasContentProtection) {
-        if (Util.SDK_INT < 18) {
+        if (Util.SDK_INT < 18 || (drmLicenseManager == null && drmCallback == null)) {
           player.onRenderersError(
               new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
           return;
         }
         try {
-          drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
-              player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
-          filterHdContent = getWidevineSecurityLevel(drmSessionManager) != SECURITY_LEVEL_1;
+          if (drmLicenseManager != null) {
+            // The license request starts here if the manifest carries the PSSH, so it runs in
+            // parallel with the first segment downloads.
+            drmSessionManager = drmLicenseManager.createSessionManager(player,
+                DrmLicenseManager.getDrmInitData(manifest));
+          } else {
+            drmSessionManager = StreamingDrmSessionManager.newWidevineInstance(
+                player.getPlaybackLooper(), drmCallback, null, player.getMainHandler(), player);
+          }
+          filterHdContent = getWidevineSecurityLevel(capabilities.getWidevineSecurityLevel())
+              != SECURITY_LEVEL_1;
         } catch (UnsupportedDrmException e) {
           player.onRenderersError(e);
           return;
@@ -211,36 +313,37 @@ public class DashRendererBuilder implements RendererBuilder {
       }
 
       // Build the video renderer.
-      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource videoChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newVideoInstance(context, true, filterHdContent),
-          videoDataSource, new AdaptiveEvaluator(bandwidthMeter), LIVE_EDGE_LATENCY_MS,
-          elapsedRealtimeOffset, mainHandler, player);
+      DataSource videoDataSource = buildSegmentDataSource(bandwidthMeter, segmentPrefetcher,
+          bufferPolicy.getVideoBufferSize());
+      ChunkSource videoChunkSource = buildChunkSource(
+          buildTrackSelector(new VideoTrackSelector(capabilities, filterHdContent)),
+          videoDataSource, abrStrategy.createFormatEvaluator(bandwidthMeter));
       ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
-          VIDEO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+          bufferPolicy.getVideoBufferSize(), mainHandler, player,
           TrackInfo.TYPE_VIDEO);
-      TrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context, videoSampleSource,
-          MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000, drmSessionManager, true,
-          mainHandler, player, 50);
+      TrackRenderer videoRenderer = new InstrumentedVideoTrackRenderer(context, videoSampleSource,
+          drmSessionManager, mainHandler, player);
 
       // Build the audio renderer.
-      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource audioChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newAudioInstance(), audioDataSource, null, LIVE_EDGE_LATENCY_MS,
-          elapsedRealtimeOffset, mainHandler, player);
+      DataSource audioDataSource = buildSegmentDataSource(bandwidthMeter, segmentPrefetcher,
+          bufferPolicy.getAudioBufferSize());
+      ChunkSource audioChunkSource = buildChunkSource(
+          buildTrackSelector(DefaultDashTrackSelector.newAudioInstance()), audioDataSource, null);
       ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
-          AUDIO_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+          bufferPolicy.getAudioBufferSize(), mainHandler, player,
           TrackInfo.TYPE_AUDIO);
-      TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
+      // Periods are played by the same sample sources, so the renderers see period boundaries as
+      // format changes. The audio renderer keeps its decoder across them where possible, video
+      // decoders supporting adaptive playback do so already.
+      TrackRenderer audioRenderer = new SeamlessAudioTrackRenderer(audioSampleSource,
           drmSessionManager, true, mainHandler, player, AudioCapabilities.getCapabilities(context));
 
       // Build the text renderer.
-      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
-      ChunkSource textChunkSource = new DashChunkSource(manifestFetcher,
-          DefaultDashTrackSelector.newTextInstance(), textDataSource, null, LIVE_EDGE_LATENCY_MS,
-          elapsedRealtimeOffset, mainHandler, player);
+      DataSource textDataSource = buildSegmentDataSource(bandwidthMeter);
+      ChunkSource textChunkSource = buildChunkSource(
+          buildTrackSelector(DefaultDashTrackSelector.newTextInstance()), textDataSource, null);
       ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
-          TEXT_BUFFER_SEGMENTS * BUFFER_SEGMENT_SIZE, mainHandler, player,
+          bufferPolicy.getTextBufferSize(), mainHandler, player,
               TrackInfo.TYPE_TEXT);
       TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
           mainHandler.getLooper());
@@ -253,10 +356,89 @@ public class DashRendererBuilder implements RendererBuilder {
       player.onRenderers(renderers, bandwidthMeter);
     }
 
-    private static int getWidevineSecurityLevel(StreamingDrmSessionManager sessionManager) {
-      String securityLevelProperty = sessionManager.getPropertyString("securityLevel");
-      return securityLevelProperty.equals("L1") ? SECURITY_LEVEL_1 : securityLevelProperty
-          .equals("L3") ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+    private ChunkSource buildChunkSource(DashTrackSelector trackSelector, DataSource dataSource,
+        FormatEvaluator formatEvaluator) {
+      if (manifestFromCache) {
+        return new DashChunkSource(manifest, trackSelector, dataSource, formatEvaluator);
+      }
+      return new DashChunkSource(manifestFetcher, trackSelector, dataSource, formatEvaluator,
+          liveEdgeLatencyMs, chunkSourceElapsedRealtimeOffset, player.getMainHandler(), player);
+    }
+
+    private DashTrackSelector buildTrackSelector(DashTrackSelector trackSelector) {
+      return offlineContent != null ? offlineContent.createTrackSelector(trackSelector)
+          : trackSelector;
+    }
+
+    private DataSource buildSegmentDataSource(BandwidthEstimator bandwidthMeter,
+        SegmentPrefetcher segmentPrefetcher, int bufferSize) {
+      DataSource dataSource = buildSegmentDataSource(bandwidthMeter);
+      // Prefetched segments are held in memory next to the sample buffer, so they get a share of
+      // it rather than memory of their own.
+      return segmentPrefetcher != null
+          ? segmentPrefetcher.createDataSource(dataSource, bufferSize / 4) : dataSource;
+    }
+
+    private DataSource buildSegmentDataSource(BandwidthEstimator bandwidthMeter) {
+      DataSource networkDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      if (segmentCache != null && offlineContent == null) {
+        networkDataSource = segmentCache.createDataSource(networkDataSource);
+      }
+      // Local segments are read without the bandwidth meter, as their reads say nothing about the
+      // network. Even a local manifest may reference remote segments, so the choice is made for
+      // every request.
+      DataSource dataSource = new LocalFileRoutingDataSource(networkDataSource);
+      if (offlineContent != null) {
+        dataSource = offlineContent.createDataSource(dataSource);
+      }
+      return segmentIndexCache != null
+          ? segmentIndexCache.createDataSource(dataSource, manifest) : dataSource;
+    }
+
+    private static int getWidevineSecurityLevel(String securityLevelProperty) {
+      return "L1".equals(securityLevelProperty) ? SECURITY_LEVEL_1
+          : "L3".equals(securityLevelProperty) ? SECURITY_LEVEL_3 : SECURITY_LEVEL_UNKNOWN;
+    }
+
+  }
+
+  /**
+   * Reads local files through a {@link MappedFileDataSource} and everything else through another
+   * {@link DataSource}.
+   */
+  private static final class LocalFileRoutingDataSource implements DataSource {
+
+    private final MappedFileDataSource localDataSource;
+    private final DataSource networkDataSource;
+
+    private DataSource dataSource;
+
+    public LocalFileRoutingDataSource(DataSource networkDataSource) {
+      this.localDataSource = new MappedFileDataSource();
+      this.networkDataSource = networkDataSource;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      dataSource = MappedFileDataSource.isLocalFileUri(dataSpec.uri) ? localDataSource
+          : networkDataSource;
+      return dataSource.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      return dataSource.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (dataSource != null) {
+        try {
+          dataSource.close();
+        } finally {
+          dataSource = null;
+        }
+      }
     }
 
   }
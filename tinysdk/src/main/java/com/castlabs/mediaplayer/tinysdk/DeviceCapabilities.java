@@ -0,0 +1,495 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Point;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecInfo.CodecProfileLevel;
+import android.media.MediaCodecList;
+import android.media.MediaDrm;
+import android.os.Build;
+import android.util.Log;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.google.android.exoplayer.MediaCodecUtil;
+import com.google.android.exoplayer.MediaCodecUtil.DecoderQueryException;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatWrapper;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.util.MimeTypes;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the DRM and decoder capabilities of the device.
+ * <p>
+ * Probing the Widevine security level and the decoders takes tens to hundreds of milliseconds on
+ * low-end devices. The snapshot is taken once per process and persisted, keyed by the build
+ * fingerprint, so that it is only taken again after a system update. The renderer builders select
+ * video formats and check DRM and tunneling support against it rather than probing on every
+ * prepare.
+ */
+public final class DeviceCapabilities {
+
+  private static final String TAG = "DeviceCapabilities";
+
+  private static final String FILE_NAME = "device_capabilities";
+  private static final int VERSION = 1;
+
+  private static final String[] PROBED_MIME_TYPES = {MimeTypes.VIDEO_H264, MimeTypes.VIDEO_H265,
+      MimeTypes.VIDEO_VP9, MimeTypes.AUDIO_AAC, MimeTypes.AUDIO_AC3, MimeTypes.AUDIO_E_AC3};
+  // Decoders report their supported widths and heights independently, so the largest supported
+  // frame is found among common sizes.
+  private static final int[][] PROBED_SIZES = {{3840, 2160}, {2560, 1440}, {1920, 1080},
+      {1280, 720}, {854, 480}, {640, 360}};
+
+  private static final int HD_WIDTH = 1280;
+  private static final int HD_HEIGHT = 720;
+  // Formats at least this close to filling the display are large enough, larger ones are dropped.
+  private static final float FRACTION_TO_REMOVE_ABOVE = 0.98f;
+
+  private static DeviceCapabilities instance;
+  private static boolean preloading;
+
+  private final String widevineSecurityLevel;
+  private final Map<String, Decoder> decoders;
+  private final int displayWidth;
+  private final int displayHeight;
+
+  private DeviceCapabilities(String widevineSecurityLevel, Map<String, Decoder> decoders,
+      Point displaySize) {
+    this.widevineSecurityLevel = widevineSecurityLevel;
+    this.decoders = Collections.unmodifiableMap(decoders);
+    this.displayWidth = displaySize.x;
+    this.displayHeight = displaySize.y;
+  }
+
+  /**
+   * Returns the capabilities of the device, reading or taking the snapshot on the first call.
+   */
+  public static synchronized DeviceCapabilities getInstance(Context context) {
+    if (instance == null) {
+      Context appContext = context.getApplicationContext();
+      File file = new File(appContext.getCacheDir(), FILE_NAME);
+      Point displaySize = getDisplaySize(appContext);
+      instance = read(file, displaySize);
+      if (instance == null) {
+        instance = probe(displaySize);
+        write(file, instance);
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Reads or takes the snapshot on a background thread, so that the first prepare does not have
+   * to.
+   */
+  public static void preload(final Context context) {
+    synchronized (DeviceCapabilities.class) {
+      if (instance != null || preloading) {
+        return;
+      }
+      preloading = true;
+    }
+    new Thread("DeviceCapabilities:Preload") {
+      @Override
+      public void run() {
+        getInstance(context);
+      }
+    }.start();
+  }
+
+  /**
+   * Returns the Widevine security level, for example {@code L1} or {@code L3}, or null if
+   * Widevine is not supported.
+   */
+  public String getWidevineSecurityLevel() {
+    return widevineSecurityLevel;
+  }
+
+  /**
+   * Returns the default decoder for a mime type, or null if there is none or the mime type was
+   * not probed.
+   */
+  public Decoder getDecoder(String mimeType) {
+    return decoders.get(mimeType);
+  }
+
+  /**
+   * Returns whether the default decoder for a mime type supports tunneled playback.
+   */
+  public boolean isTunnelingSupported(String mimeType) {
+    Decoder decoder = decoders.get(mimeType);
+    return decoder != null && decoder.isTunnelingSupported();
+  }
+
+  /**
+   * Selects the video formats the device can decode, dropping those larger than needed to fill
+   * the display in either orientation.
+   *
+   * @param filterHdFormats Whether to drop formats of HD resolution and above.
+   * @return The indices of the selected formats.
+   */
+  int[] selectVideoFormats(List<? extends FormatWrapper> formatWrappers,
+      boolean filterHdFormats) {
+    List<Integer> selectedIndices = new ArrayList<>();
+    int maxVideoPixelsToRetain = Integer.MAX_VALUE;
+    for (int i = 0; i < formatWrappers.size(); i++) {
+      Format format = formatWrappers.get(i).getFormat();
+      if (!isFormatPlayable(format, filterHdFormats)) {
+        continue;
+      }
+      selectedIndices.add(i);
+      if (format.width > 0 && format.height > 0 && displayWidth > 0 && displayHeight > 0) {
+        Point maxVideoSize = getMaxVideoSizeInViewport(format.width, format.height);
+        int videoPixels = format.width * format.height;
+        if (format.width >= (int) (maxVideoSize.x * FRACTION_TO_REMOVE_ABOVE)
+            && format.height >= (int) (maxVideoSize.y * FRACTION_TO_REMOVE_ABOVE)
+            && videoPixels < maxVideoPixelsToRetain) {
+          maxVideoPixelsToRetain = videoPixels;
+        }
+      }
+    }
+    int[] selected = new int[selectedIndices.size()];
+    int selectedCount = 0;
+    for (int index : selectedIndices) {
+      Format format = formatWrappers.get(index).getFormat();
+      if (format.width <= 0 || format.height <= 0
+          || format.width * format.height <= maxVideoPixelsToRetain) {
+        selected[selectedCount++] = index;
+      }
+    }
+    int[] result = new int[selectedCount];
+    System.arraycopy(selected, 0, result, 0, selectedCount);
+    return result;
+  }
+
+  private boolean isFormatPlayable(Format format, boolean filterHdFormats) {
+    if (filterHdFormats && (format.width >= HD_WIDTH || format.height >= HD_HEIGHT)) {
+      return false;
+    }
+    if (format.width <= 0 || format.height <= 0 || decoders.isEmpty()) {
+      // Without a size or a successful probe, leave it to the decoder whether it can play it.
+      return true;
+    }
+    // Formats that do not declare their codec are most likely H.264.
+    String mimeType = getVideoMimeType(format.codecs);
+    Decoder decoder = decoders.get(mimeType != null ? mimeType : MimeTypes.VIDEO_H264);
+    return decoder != null && decoder.isSizeSupported(format.width, format.height);
+  }
+
+  private Point getMaxVideoSizeInViewport(int videoWidth, int videoHeight) {
+    int viewportWidth = displayWidth;
+    int viewportHeight = displayHeight;
+    if ((videoWidth > videoHeight) != (viewportWidth > viewportHeight)) {
+      // The device may be rotated to match the video.
+      viewportWidth = displayHeight;
+      viewportHeight = displayWidth;
+    }
+    if (videoWidth * viewportHeight >= videoHeight * viewportWidth) {
+      return new Point(viewportWidth, ceilDivide(viewportWidth * videoHeight, videoWidth));
+    } else {
+      return new Point(ceilDivide(viewportHeight * videoWidth, videoHeight), viewportHeight);
+    }
+  }
+
+  private static int ceilDivide(int numerator, int denominator) {
+    return (numerator + denominator - 1) / denominator;
+  }
+
+  private static String getVideoMimeType(String codecs) {
+    if (codecs == null) {
+      return null;
+    }
+    for (String codec : codecs.split(",")) {
+      codec = codec.trim();
+      if (codec.startsWith("avc1") || codec.startsWith("avc3")) {
+        return MimeTypes.VIDEO_H264;
+      } else if (codec.startsWith("hev1") || codec.startsWith("hvc1")) {
+        return MimeTypes.VIDEO_H265;
+      } else if (codec.startsWith("vp9") || codec.startsWith("vp09")) {
+        return MimeTypes.VIDEO_VP9;
+      }
+    }
+    return null;
+  }
+
+  private static DeviceCapabilities probe(Point displaySize) {
+    Map<String, Decoder> decoders = new HashMap<>();
+    if (Util.SDK_INT >= 16) {
+      for (String mimeType : PROBED_MIME_TYPES) {
+        Decoder decoder = probeDecoder(mimeType);
+        if (decoder != null) {
+          decoders.put(mimeType, decoder);
+        }
+      }
+    }
+    String widevineSecurityLevel = Util.SDK_INT >= 18 ? probeWidevineSecurityLevelV18() : null;
+    return new DeviceCapabilities(widevineSecurityLevel, decoders, displaySize);
+  }
+
+  @TargetApi(18)
+  private static String probeWidevineSecurityLevelV18() {
+    if (!MediaDrm.isCryptoSchemeSupported(StreamingDrmSessionManager.WIDEVINE_UUID)) {
+      return null;
+    }
+    MediaDrm mediaDrm = null;
+    try {
+      mediaDrm = new MediaDrm(StreamingDrmSessionManager.WIDEVINE_UUID);
+      return mediaDrm.getPropertyString("securityLevel");
+    } catch (Exception e) {
+      Log.w(TAG, "Failed to read the Widevine security level", e);
+      return null;
+    } finally {
+      if (mediaDrm != null) {
+        mediaDrm.release();
+      }
+    }
+  }
+
+  @TargetApi(21)
+  private static Decoder probeDecoder(String mimeType) {
+    for (int i = 0; i < MediaCodecList.getCodecCount(); i++) {
+      MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+      // Secure decoders are only used for protected content and picked by the renderers.
+      if (codecInfo.isEncoder() || codecInfo.getName().endsWith(".secure")
+          || !isTypeSupported(codecInfo, mimeType)) {
+        continue;
+      }
+      CodecCapabilities capabilities;
+      try {
+        capabilities = codecInfo.getCapabilitiesForType(mimeType);
+      } catch (IllegalArgumentException e) {
+        // Some devices list types they fail to report capabilities for.
+        continue;
+      }
+      int maxProfile = 0;
+      int maxLevel = 0;
+      for (CodecProfileLevel profileLevel : capabilities.profileLevels) {
+        maxProfile = Math.max(maxProfile, profileLevel.profile);
+        maxLevel = Math.max(maxLevel, profileLevel.level);
+      }
+      int maxWidth = Integer.MAX_VALUE;
+      int maxHeight = Integer.MAX_VALUE;
+      int maxPixels = Integer.MAX_VALUE;
+      if (Util.SDK_INT >= 21 && capabilities.getVideoCapabilities() != null) {
+        MediaCodecInfo.VideoCapabilities videoCapabilities = capabilities.getVideoCapabilities();
+        maxWidth = videoCapabilities.getSupportedWidths().getUpper();
+        maxHeight = videoCapabilities.getSupportedHeights().getUpper();
+        maxPixels = getMaxPixelsV21(videoCapabilities);
+      } else if (MimeTypes.VIDEO_H264.equals(mimeType)) {
+        try {
+          maxPixels = MediaCodecUtil.maxH264DecodableFrameSize();
+        } catch (DecoderQueryException e) {
+          Log.w(TAG, "Failed to query the maximum H.264 frame size", e);
+        }
+      }
+      boolean adaptive = Util.SDK_INT >= 19 && capabilities.isFeatureSupported(
+          CodecCapabilities.FEATURE_AdaptivePlayback);
+      boolean tunneling = Util.SDK_INT >= 21 && capabilities.isFeatureSupported(
+          CodecCapabilities.FEATURE_TunneledPlayback);
+      return new Decoder(codecInfo.getName(), maxWidth, maxHeight, maxPixels, maxProfile,
+          maxLevel, adaptive, tunneling);
+    }
+    return null;
+  }
+
+  @TargetApi(16)
+  private static boolean isTypeSupported(MediaCodecInfo codecInfo, String mimeType) {
+    for (String type : codecInfo.getSupportedTypes()) {
+      if (type.equalsIgnoreCase(mimeType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @TargetApi(21)
+  private static int getMaxPixelsV21(MediaCodecInfo.VideoCapabilities videoCapabilities) {
+    for (int[] size : PROBED_SIZES) {
+      if (videoCapabilities.isSizeSupported(size[0], size[1])) {
+        return size[0] * size[1];
+      }
+    }
+    return videoCapabilities.getSupportedWidths().getLower()
+        * videoCapabilities.getSupportedHeights().getLower();
+  }
+
+  @SuppressWarnings("deprecation")
+  @TargetApi(17)
+  private static Point getDisplaySize(Context context) {
+    WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+    Display display = windowManager.getDefaultDisplay();
+    Point displaySize = new Point();
+    if (Util.SDK_INT >= 17) {
+      display.getRealSize(displaySize);
+    } else {
+      display.getSize(displaySize);
+    }
+    return displaySize;
+  }
+
+  private static DeviceCapabilities read(File file, Point displaySize) {
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new FileInputStream(file));
+      if (input.readInt() != VERSION || !Build.FINGERPRINT.equals(input.readUTF())) {
+        return null;
+      }
+      String widevineSecurityLevel = input.readBoolean() ? input.readUTF() : null;
+      Map<String, Decoder> decoders = new HashMap<>();
+      int decoderCount = input.readInt();
+      for (int i = 0; i < decoderCount; i++) {
+        String mimeType = input.readUTF();
+        decoders.put(mimeType, new Decoder(input.readUTF(), input.readInt(), input.readInt(),
+            input.readInt(), input.readInt(), input.readInt(), input.readBoolean(),
+            input.readBoolean()));
+      }
+      return new DeviceCapabilities(widevineSecurityLevel, decoders, displaySize);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read device capabilities", e);
+      return null;
+    } finally {
+      closeQuietly(input);
+    }
+  }
+
+  private static void write(File file, DeviceCapabilities capabilities) {
+    DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(new FileOutputStream(file));
+      output.writeInt(VERSION);
+      output.writeUTF(Build.FINGERPRINT);
+      output.writeBoolean(capabilities.widevineSecurityLevel != null);
+      if (capabilities.widevineSecurityLevel != null) {
+        output.writeUTF(capabilities.widevineSecurityLevel);
+      }
+      output.writeInt(capabilities.decoders.size());
+      for (Map.Entry<String, Decoder> entry : capabilities.decoders.entrySet()) {
+        Decoder decoder = entry.getValue();
+        output.writeUTF(entry.getKey());
+        output.writeUTF(decoder.name);
+        output.writeInt(decoder.maxWidth);
+        output.writeInt(decoder.maxHeight);
+        output.writeInt(decoder.maxPixels);
+        output.writeInt(decoder.maxProfile);
+        output.writeInt(decoder.maxLevel);
+        output.writeBoolean(decoder.adaptive);
+        output.writeBoolean(decoder.tunneling);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write device capabilities", e);
+      file.delete();
+    } finally {
+      closeQuietly(output);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+    }
+  }
+
+  /**
+   * The capabilities of the default decoder for a mime type.
+   */
+  public static final class Decoder {
+
+    private final String name;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final int maxPixels;
+    private final int maxProfile;
+    private final int maxLevel;
+    private final boolean adaptive;
+    private final boolean tunneling;
+
+    private Decoder(String name, int maxWidth, int maxHeight, int maxPixels, int maxProfile,
+        int maxLevel, boolean adaptive, boolean tunneling) {
+      this.name = name;
+      this.maxWidth = maxWidth;
+      this.maxHeight = maxHeight;
+      this.maxPixels = maxPixels;
+      this.maxProfile = maxProfile;
+      this.maxLevel = maxLevel;
+      this.adaptive = adaptive;
+      this.tunneling = tunneling;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the largest supported width, or {@link Integer#MAX_VALUE} if unknown.
+     */
+    public int getMaxWidth() {
+      return maxWidth;
+    }
+
+    /**
+     * Returns the largest supported height, or {@link Integer#MAX_VALUE} if unknown.
+     */
+    public int getMaxHeight() {
+      return maxHeight;
+    }
+
+    /**
+     * Returns the largest supported frame size in pixels, or {@link Integer#MAX_VALUE} if unknown.
+     */
+    public int getMaxPixels() {
+      return maxPixels;
+    }
+
+    /**
+     * Returns the highest supported profile, as a {@link CodecProfileLevel} constant.
+     */
+    public int getMaxProfile() {
+      return maxProfile;
+    }
+
+    /**
+     * Returns the highest supported level, as a {@link CodecProfileLevel} constant.
+     */
+    public int getMaxLevel() {
+      return maxLevel;
+    }
+
+    public boolean isAdaptive() {
+      return adaptive;
+    }
+
+    public boolean isTunnelingSupported() {
+      return tunneling;
+    }
+
+    public boolean isSizeSupported(int width, int height) {
+      return width <= maxWidth && height <= maxHeight && (long) width * height <= maxPixels;
+    }
+
+  }
+
+}
@@ -0,0 +1,553 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads DASH streams for offline playback.
+ * <p>
+ * The manifest and every segment of the selected representations are stored in a directory per
+ * download. Segments are downloaded by a worker pool shared by all downloads, so the number of
+ * parallel requests is bounded no matter how many downloads run. Each segment is written to a
+ * temporary file that is renamed once complete, and a download that was interrupted, for example
+ * by the process being killed, continues with a range request where its files end when it is
+ * resumed through {@link #resume(String)}. Downloaded streams are played through
+ * {@link #createStream(String)}. Only one instance may exist per download directory, and it
+ * should be released once no longer needed.
+ */
+public final class DownloadManager {
+
+  /**
+   * A listener for the progress of downloads. Invoked on the main thread.
+   */
+  public interface Listener {
+
+    void onDownloadProgress(String id, int downloadedSegmentCount, int segmentCount);
+
+    void onDownloadCompleted(String id);
+
+    void onDownloadError(String id, IOException e);
+
+  }
+
+  private static final String TAG = "DownloadManager";
+
+  private static final String METADATA_FILE_NAME = "metadata";
+  private static final String COMPLETED_FILE_NAME = "completed";
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final int READ_BUFFER_SIZE = 32 * 1024;
+
+  private final File downloadDir;
+  private final String userAgent;
+  private final ExecutorService executor;
+  private final Handler mainHandler;
+  private final Map<String, Download> activeDownloads;
+  private final Map<String, Download> lastDownloads;
+
+  private Listener listener;
+
+  /**
+   * @param downloadDir Directory where the downloads are stored. It is dedicated to them.
+   * @param userAgent The user agent of the requests.
+   * @param maxParallelDownloads Maximum number of segments downloaded at the same time.
+   */
+  public DownloadManager(File downloadDir, String userAgent, int maxParallelDownloads) {
+    this.downloadDir = downloadDir;
+    this.userAgent = userAgent;
+    executor = Executors.newFixedThreadPool(maxParallelDownloads);
+    mainHandler = new Handler(Looper.getMainLooper());
+    activeDownloads = new HashMap<>();
+    lastDownloads = new HashMap<>();
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Starts downloading a DASH stream.
+   *
+   * @param id Identifies the download in the other methods.
+   * @param stream The stream to download. Must be of type {@link Stream.SourceType#MPEG_DASH}.
+   * @param tracks The tracks to download, as reported by {@link MediaPlayer#getTrack}.
+   *     Adaptive tracks are ignored. If no video or audio track is given, the one with the highest
+   *     bitrate is downloaded.
+   */
+  public void download(String id, Stream stream, List<TrackInfo> tracks) {
+    if (stream.getType() != Stream.SourceType.MPEG_DASH) {
+      throw new IllegalArgumentException("Only DASH streams can be downloaded: " + stream);
+    }
+    Set<String> representationIds = new HashSet<>();
+    for (int i = 0; i < tracks.size(); i++) {
+      if (!tracks.get(i).isAdaptive() && tracks.get(i).getId() != null) {
+        representationIds.add(tracks.get(i).getId());
+      }
+    }
+    pause(id);
+    start(id, stream.toString(), representationIds, true);
+  }
+
+  /**
+   * Continues an interrupted or paused download. Does nothing if it is running or complete.
+   *
+   * @throws IOException If there is no such download.
+   */
+  public void resume(String id) throws IOException {
+    if (activeDownloads.containsKey(id) || isCompleted(id)) {
+      return;
+    }
+    Metadata metadata = readMetadata(getDirectory(id), id);
+    start(id, metadata.url, metadata.representationIds, false);
+  }
+
+  /**
+   * Stops a download, keeping what was downloaded so far.
+   */
+  public void pause(String id) {
+    Download download = activeDownloads.remove(id);
+    if (download != null) {
+      download.canceled = true;
+    }
+  }
+
+  /**
+   * Stops a download and deletes its files.
+   */
+  public void remove(String id) {
+    pause(id);
+    final Download previous = lastDownloads.get(id);
+    final File directory = getDirectory(id);
+    // Segment tasks of the last run may still be writing, so the files are deleted once they are
+    // done. The deletion is tracked as a canceled run, so that a new run of the same id is queued
+    // after it in turn.
+    Download removal = new Download(id, directory);
+    removal.canceled = true;
+    lastDownloads.put(id, removal);
+    removal.tasks.executeAfter(previous != null ? previous.tasks : null, new Runnable() {
+      @Override
+      public void run() {
+        deleteRecursively(directory);
+      }
+    });
+  }
+
+  /**
+   * Stops all downloads and the worker pool. Downloads can be resumed by a new instance.
+   */
+  public void release() {
+    for (Download download : activeDownloads.values()) {
+      download.canceled = true;
+    }
+    activeDownloads.clear();
+    lastDownloads.clear();
+    listener = null;
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the ids of all stored downloads, complete or not.
+   */
+  public List<String> getDownloadIds() {
+    List<String> ids = new ArrayList<>();
+    File[] directories = downloadDir.listFiles();
+    if (directories == null) {
+      return ids;
+    }
+    for (File directory : directories) {
+      File metadataFile = new File(directory, METADATA_FILE_NAME);
+      if (!metadataFile.exists()) {
+        continue;
+      }
+      DataInputStream input = null;
+      try {
+        input = new DataInputStream(new FileInputStream(metadataFile));
+        ids.add(input.readUTF());
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read download " + directory, e);
+      } finally {
+        closeQuietly(input);
+      }
+    }
+    return ids;
+  }
+
+  public boolean isCompleted(String id) {
+    return new File(getDirectory(id), COMPLETED_FILE_NAME).exists();
+  }
+
+  /**
+   * Creates a {@link Stream} playing a complete download from local storage.
+   *
+   * @throws IOException If the download does not exist or is not complete.
+   */
+  public Stream createStream(String id) throws IOException {
+    if (!isCompleted(id)) {
+      throw new IOException("Download not completed: " + id);
+    }
+    File directory = getDirectory(id);
+    Metadata metadata = readMetadata(directory, id);
+    Stream stream = new Stream(Uri.parse(metadata.url), Stream.SourceType.MPEG_DASH);
+    stream.setOfflineContent(
+        new OfflineContent(directory, metadata.url, metadata.representationIds));
+    return stream;
+  }
+
+  /**
+   * Starts a run of a download once the tasks of its previous run are done. The run is queued
+   * rather than waited for on the executor, which would deadlock once every worker waits.
+   *
+   * @param restart Whether the files of previous runs are deleted first.
+   */
+  private void start(final String id, final String url, final Set<String> representationIds,
+      final boolean restart) {
+    final Download previous = lastDownloads.get(id);
+    final Download download = new Download(id, getDirectory(id));
+    activeDownloads.put(id, download);
+    lastDownloads.put(id, download);
+    download.tasks.executeAfter(previous != null ? previous.tasks : null, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (restart) {
+            deleteRecursively(download.directory);
+            download.directory.mkdirs();
+            writeMetadata(download.directory, id, url, representationIds);
+          }
+          List<DataSpec> requests = loadRequests(download.directory, url, representationIds);
+          download.start(requests);
+        } catch (IOException e) {
+          download.onError(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Loads the manifest, unless it was stored already, and enumerates the requests to download.
+   * Runs on the executor.
+   */
+  private List<DataSpec> loadRequests(File directory, String url, Set<String> representationIds)
+      throws IOException {
+    File manifestFile = OfflineContent.getManifestFile(directory);
+    if (!manifestFile.exists()) {
+      File tempFile = new File(directory, manifestFile.getName() + TEMP_FILE_SUFFIX);
+      tempFile.delete();
+      downloadRequest(new DataSpec(Uri.parse(url)), tempFile, null);
+      if (!tempFile.renameTo(manifestFile)) {
+        throw new IOException("Failed to rename " + tempFile);
+      }
+    }
+    byte[] data = readFully(manifestFile);
+    MediaPresentationDescription manifest =
+        new DashManifestParser().parse(url, new ByteArrayInputStream(data));
+    if (manifest.dynamic) {
+      throw new IOException("Live streams can't be downloaded: " + url);
+    }
+    return OfflineContent.getRequests(manifest,
+        OfflineContent.resolveRepresentationIds(manifest, representationIds));
+  }
+
+  /**
+   * Appends a request to a file, continuing where the file ends.
+   */
+  private void downloadRequest(DataSpec request, File file, Download download)
+      throws IOException {
+    long bytesDownloaded = file.length();
+    long length = request.length == C.LENGTH_UNBOUNDED ? C.LENGTH_UNBOUNDED
+        : request.length - bytesDownloaded;
+    if (length == 0) {
+      return;
+    }
+    DataSpec dataSpec = new DataSpec(request.uri, request.absoluteStreamPosition + bytesDownloaded,
+        length, null);
+    HttpDataSource dataSource = new DefaultHttpDataSource(userAgent, null);
+    FileOutputStream output = null;
+    try {
+      try {
+        dataSource.open(dataSpec);
+      } catch (HttpDataSource.InvalidResponseCodeException e) {
+        // A file of unknown length that was completed before being renamed.
+        if (e.responseCode == 416 && bytesDownloaded > 0 && length == C.LENGTH_UNBOUNDED) {
+          return;
+        }
+        throw e;
+      }
+      output = new FileOutputStream(file, true);
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int bytesRead;
+      while ((bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+        if (download != null && download.canceled) {
+          return;
+        }
+        output.write(buffer, 0, bytesRead);
+      }
+    } finally {
+      closeQuietly(output);
+      dataSource.close();
+    }
+  }
+
+  /**
+   * Returns the directory of a download, named after the hex encoding of the id's UTF-8 bytes so
+   * that distinct ids never share one.
+   */
+  private File getDirectory(String id) {
+    byte[] bytes;
+    try {
+      bytes = id.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+    StringBuilder name = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return new File(downloadDir, name.toString());
+  }
+
+  private static void writeMetadata(File directory, String id, String url,
+      Set<String> representationIds) throws IOException {
+    DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(
+          new FileOutputStream(new File(directory, METADATA_FILE_NAME)));
+      output.writeUTF(id);
+      output.writeUTF(url);
+      output.writeInt(representationIds.size());
+      for (String representationId : representationIds) {
+        output.writeUTF(representationId);
+      }
+    } finally {
+      closeQuietly(output);
+    }
+  }
+
+  private static Metadata readMetadata(File directory, String id) throws IOException {
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(
+          new FileInputStream(new File(directory, METADATA_FILE_NAME)));
+      if (!id.equals(input.readUTF())) {
+        throw new IOException("Unknown download: " + id);
+      }
+      String url = input.readUTF();
+      int representationCount = input.readInt();
+      Set<String> representationIds = new HashSet<>();
+      for (int i = 0; i < representationCount; i++) {
+        representationIds.add(input.readUTF());
+      }
+      return new Metadata(url, representationIds);
+    } finally {
+      closeQuietly(input);
+    }
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    FileInputStream input = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[READ_BUFFER_SIZE];
+      int bytesRead;
+      while ((bytesRead = input.read(buffer)) != -1) {
+        output.write(buffer, 0, bytesRead);
+      }
+      return output.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+    }
+  }
+
+  private static final class Metadata {
+
+    public final String url;
+    public final Set<String> representationIds;
+
+    public Metadata(String url, Set<String> representationIds) {
+      this.url = url;
+      this.representationIds = representationIds;
+    }
+
+  }
+
+  /**
+   * The state of a running download. Its segments are queued on the executor as one task each.
+   */
+  private final class Download {
+
+    public final String id;
+    public final File directory;
+    public final TaskGroup tasks;
+
+    public volatile boolean canceled;
+
+    private final AtomicInteger downloadedCount;
+    private int requestCount;
+
+    public Download(String id, File directory) {
+      this.id = id;
+      this.directory = directory;
+      tasks = new TaskGroup(executor);
+      downloadedCount = new AtomicInteger();
+    }
+
+    public void start(List<DataSpec> requests) {
+      if (canceled) {
+        return;
+      }
+      requestCount = requests.size();
+      List<Integer> pending = new ArrayList<>();
+      for (int i = 0; i < requests.size(); i++) {
+        if (OfflineContent.getEntryFile(directory, i).exists()) {
+          downloadedCount.incrementAndGet();
+        } else {
+          pending.add(i);
+        }
+      }
+      if (pending.isEmpty()) {
+        onCompleted();
+        return;
+      }
+      for (int i = 0; i < pending.size(); i++) {
+        final int index = pending.get(i);
+        final DataSpec request = requests.get(index);
+        tasks.execute(new Runnable() {
+          @Override
+          public void run() {
+            downloadSegment(index, request);
+          }
+        });
+      }
+    }
+
+    private void downloadSegment(int index, DataSpec request) {
+      if (canceled) {
+        return;
+      }
+      File file = OfflineContent.getEntryFile(directory, index);
+      File tempFile = new File(directory, file.getName() + TEMP_FILE_SUFFIX);
+      try {
+        downloadRequest(request, tempFile, this);
+        if (canceled) {
+          return;
+        }
+        if (!tempFile.renameTo(file)) {
+          throw new IOException("Failed to rename " + tempFile);
+        }
+      } catch (IOException e) {
+        onError(e);
+        return;
+      }
+      int count = downloadedCount.incrementAndGet();
+      notifyProgress(count);
+      if (count == requestCount) {
+        onCompleted();
+      }
+    }
+
+    private void notifyProgress(final int count) {
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (!canceled && listener != null) {
+            listener.onDownloadProgress(id, count, requestCount);
+          }
+        }
+      });
+    }
+
+    private void onCompleted() {
+      try {
+        new File(directory, COMPLETED_FILE_NAME).createNewFile();
+      } catch (IOException e) {
+        onError(e);
+        return;
+      }
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (activeDownloads.get(id) == Download.this) {
+            activeDownloads.remove(id);
+          }
+          if (listener != null) {
+            listener.onDownloadCompleted(id);
+          }
+        }
+      });
+    }
+
+    /**
+     * Stops the download on its first error. The remaining queued segments are skipped and can be
+     * downloaded by resuming.
+     */
+    private void onError(final IOException e) {
+      synchronized (this) {
+        if (canceled) {
+          return;
+        }
+        canceled = true;
+      }
+      Log.w(TAG, "Download " + id + " failed", e);
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          if (activeDownloads.get(id) == Download.this) {
+            activeDownloads.remove(id);
+          }
+          if (listener != null) {
+            listener.onDownloadError(id, e);
+          }
+        }
+      });
+    }
+
+  }
+
+}
@@ -0,0 +1,354 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.annotation.TargetApi;
+import android.media.MediaDrm;
+import android.media.NotProvisionedException;
+
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.ContentProtection;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.UnsupportedDrmException;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Acquires the Widevine licenses of protected DASH streams.
+ * <p>
+ * When the manifest carries the PSSH of a stream, the license is requested as soon as the
+ * manifest is parsed, in parallel with the first segment downloads, rather than after the
+ * renderers read it from an initialization segment. Offline licenses acquired through
+ * {@link #acquireOfflineLicense} are persisted by key id and used instead of a license request
+ * until they expire.
+ * <p>
+ * Set an instance through {@link PlayerConfiguration#setDrmLicenseManager}.
+ */
+@TargetApi(18)
+public final class DrmLicenseManager {
+
+  public static final int DEFAULT_MAX_OFFLINE_LICENSES = 100;
+
+  private static final int PSSH_TYPE = 0x70737368;
+  private static final int PSSH_HEADER_SIZE = 32;
+  private static final int KEY_ID_SIZE = 16;
+  private static final int WIDEVINE_KEY_ID_FIELD = 2;
+  private static final String LICENSE_DURATION_REMAINING = "LicenseDurationRemaining";
+
+  private final MediaDrmCallback callback;
+  private final OfflineLicenseCache licenseCache;
+
+  /**
+   * @param callback Performs the license and provisioning requests.
+   * @param cacheDir The directory to persist offline licenses in.
+   */
+  public DrmLicenseManager(MediaDrmCallback callback, File cacheDir) {
+    this(callback, cacheDir, DEFAULT_MAX_OFFLINE_LICENSES);
+  }
+
+  /**
+   * @param callback Performs the license and provisioning requests.
+   * @param cacheDir The directory to persist offline licenses in.
+   * @param maxOfflineLicenses The number of key ids to keep offline licenses for.
+   */
+  public DrmLicenseManager(MediaDrmCallback callback, File cacheDir, int maxOfflineLicenses) {
+    this.callback = callback;
+    licenseCache = new OfflineLicenseCache(cacheDir, maxOfflineLicenses);
+  }
+
+  /**
+   * Returns the callback performing the license and provisioning requests.
+   */
+  MediaDrmCallback getCallback() {
+    return callback;
+  }
+
+  /**
+   * Returns whether any adaptation set of any period of a manifest is protected.
+   */
+  static boolean hasContentProtection(MediaPresentationDescription manifest) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      for (int j = 0; j < period.adaptationSets.size(); j++) {
+        AdaptationSet adaptationSet = period.adaptationSets.get(j);
+        if (adaptationSet.type != AdaptationSet.TYPE_UNKNOWN
+            && adaptationSet.hasContentProtection()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the first Widevine initialization data of the manifest, or null if no period carries
+   * a Widevine PSSH. Clear periods, such as a pre-roll ad, are skipped.
+   */
+  static DrmInitData getDrmInitData(MediaPresentationDescription manifest) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      for (int j = 0; j < period.adaptationSets.size(); j++) {
+        for (ContentProtection contentProtection
+            : period.adaptationSets.get(j).contentProtections) {
+          if (StreamingDrmSessionManager.WIDEVINE_UUID.equals(contentProtection.uuid)
+              && contentProtection.data != null) {
+            DrmInitData.Mapped drmInitData = new DrmInitData.Mapped();
+            drmInitData.put(contentProtection.uuid, contentProtection.data);
+            return drmInitData;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Creates the session manager for a stream. A persisted offline license for one of its key ids
+   * is restored, otherwise the license request is started right away if the PSSH is known.
+   *
+   * @param drmInitData The initialization data from {@link #getDrmInitData}, or null.
+   */
+  DrmSessionManager createSessionManager(MediaPlayer player, DrmInitData drmInitData)
+      throws UnsupportedDrmException {
+    byte[] keySetId = drmInitData != null ? getOfflineKeySetId(drmInitData) : null;
+    if (keySetId != null) {
+      return new OfflineDrmSessionManager(keySetId, player.getMainHandler(), player);
+    }
+    PrefetchingDrmSessionManager sessionManager = new PrefetchingDrmSessionManager(
+        StreamingDrmSessionManager.newWidevineInstance(player.getPlaybackLooper(), callback, null,
+            player.getMainHandler(), player));
+    if (drmInitData != null) {
+      sessionManager.prefetch(drmInitData);
+      player.setDrmSessionPrefetch(sessionManager);
+    }
+    return sessionManager;
+  }
+
+  /**
+   * Requests an offline license for a manifest and persists it for its key ids. Blocks, so must
+   * not be called on the main thread.
+   *
+   * @throws IOException If the manifest has no Widevine PSSH with key ids, or if the license
+   *     could not be acquired.
+   */
+  public void acquireOfflineLicense(MediaPresentationDescription manifest) throws IOException {
+    DrmInitData.SchemeInitData schemeInitData = getSchemeInitData(manifest);
+    List<String> keyIds = new ArrayList<>();
+    byte[] psshData = parsePssh(schemeInitData.data, keyIds);
+    if (keyIds.isEmpty()) {
+      throw new IOException("No key ids in PSSH");
+    }
+    // Prior to L the Widevine CDM requires the data of the PSSH box rather than the box.
+    byte[] initData = Util.SDK_INT < 21 ? psshData : schemeInitData.data;
+    MediaDrm mediaDrm = null;
+    byte[] sessionId = null;
+    try {
+      mediaDrm = newMediaDrm();
+      try {
+        sessionId = mediaDrm.openSession();
+      } catch (NotProvisionedException e) {
+        provision(mediaDrm);
+        sessionId = mediaDrm.openSession();
+      }
+      MediaDrm.KeyRequest keyRequest = mediaDrm.getKeyRequest(sessionId, initData,
+          schemeInitData.mimeType, MediaDrm.KEY_TYPE_OFFLINE, null);
+      byte[] response = callback.executeKeyRequest(StreamingDrmSessionManager.WIDEVINE_UUID,
+          keyRequest);
+      byte[] keySetId = mediaDrm.provideKeyResponse(sessionId, response);
+      licenseCache.put(keyIds, keySetId,
+          getExpiryTimeMs(mediaDrm.queryKeyStatus(sessionId)));
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      if (sessionId != null) {
+        mediaDrm.closeSession(sessionId);
+      }
+      if (mediaDrm != null) {
+        mediaDrm.release();
+      }
+    }
+  }
+
+  /**
+   * Returns whether an unexpired offline license is persisted for a manifest.
+   */
+  public boolean hasOfflineLicense(MediaPresentationDescription manifest) {
+    DrmInitData drmInitData = getDrmInitData(manifest);
+    return drmInitData != null && getOfflineKeySetId(drmInitData) != null;
+  }
+
+  /**
+   * Removes the persisted offline license of a manifest.
+   */
+  public void removeOfflineLicense(MediaPresentationDescription manifest) {
+    DrmInitData drmInitData = getDrmInitData(manifest);
+    if (drmInitData == null) {
+      return;
+    }
+    List<String> keyIds = new ArrayList<>();
+    parsePssh(drmInitData.get(StreamingDrmSessionManager.WIDEVINE_UUID).data, keyIds);
+    for (String keyId : keyIds) {
+      licenseCache.remove(keyId);
+    }
+  }
+
+  private byte[] getOfflineKeySetId(DrmInitData drmInitData) {
+    List<String> keyIds = new ArrayList<>();
+    parsePssh(drmInitData.get(StreamingDrmSessionManager.WIDEVINE_UUID).data, keyIds);
+    for (String keyId : keyIds) {
+      byte[] keySetId = licenseCache.get(keyId);
+      if (keySetId != null) {
+        return keySetId;
+      }
+    }
+    return null;
+  }
+
+  private void provision(MediaDrm mediaDrm) throws Exception {
+    byte[] response = callback.executeProvisionRequest(StreamingDrmSessionManager.WIDEVINE_UUID,
+        mediaDrm.getProvisionRequest());
+    mediaDrm.provideProvisionResponse(response);
+  }
+
+  private static DrmInitData.SchemeInitData getSchemeInitData(
+      MediaPresentationDescription manifest) throws IOException {
+    DrmInitData drmInitData = getDrmInitData(manifest);
+    if (drmInitData == null) {
+      throw new IOException("No Widevine PSSH in manifest");
+    }
+    return drmInitData.get(StreamingDrmSessionManager.WIDEVINE_UUID);
+  }
+
+  private static MediaDrm newMediaDrm() throws UnsupportedDrmException {
+    try {
+      return new MediaDrm(StreamingDrmSessionManager.WIDEVINE_UUID);
+    } catch (Exception e) {
+      throw new UnsupportedDrmException(UnsupportedDrmException.REASON_INSTANTIATION_ERROR, e);
+    }
+  }
+
+  private static long getExpiryTimeMs(Map<String, String> keyStatus) {
+    String durationRemaining = keyStatus != null ? keyStatus.get(LICENSE_DURATION_REMAINING)
+        : null;
+    if (durationRemaining == null) {
+      return Long.MAX_VALUE;
+    }
+    try {
+      long durationRemainingSec = Long.parseLong(durationRemaining);
+      return durationRemainingSec >= (Long.MAX_VALUE - System.currentTimeMillis()) / 1000
+          ? Long.MAX_VALUE : System.currentTimeMillis() + durationRemainingSec * 1000;
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * Parses a PSSH box, adding the key ids it lists to {@code keyIds} as hex strings. Key ids are
+   * taken from the header of version 1 boxes, or from the Widevine data of version 0 boxes.
+   *
+   * @return The data of the box, or null if it is malformed.
+   */
+  static byte[] parsePssh(byte[] pssh, List<String> keyIds) {
+    if (pssh.length < PSSH_HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(pssh);
+    try {
+      if (buffer.getInt() != pssh.length || buffer.getInt() != PSSH_TYPE) {
+        return null;
+      }
+      int version = buffer.getInt() >>> 24;
+      // Skip the system id.
+      buffer.position(buffer.position() + 16);
+      if (version == 1) {
+        int keyIdCount = buffer.getInt();
+        for (int i = 0; i < keyIdCount; i++) {
+          byte[] keyId = new byte[KEY_ID_SIZE];
+          buffer.get(keyId);
+          keyIds.add(toHexString(keyId));
+        }
+      }
+      byte[] data = new byte[buffer.getInt()];
+      buffer.get(data);
+      if (keyIds.isEmpty()) {
+        parseWidevineKeyIds(data, keyIds);
+      }
+      return data;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Adds the key ids of a WidevineCencHeader protobuf message to {@code keyIds}.
+   */
+  private static void parseWidevineKeyIds(byte[] data, List<String> keyIds) {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    try {
+      while (buffer.hasRemaining()) {
+        long tag = readVarint(buffer);
+        switch ((int) (tag & 0x7)) {
+          case 0:
+            readVarint(buffer);
+            break;
+          case 1:
+            buffer.position(buffer.position() + 8);
+            break;
+          case 2:
+            long length = readVarint(buffer);
+            if (length < 0 || length > buffer.remaining()) {
+              return;
+            }
+            byte[] value = new byte[(int) length];
+            buffer.get(value);
+            if (tag >>> 3 == WIDEVINE_KEY_ID_FIELD) {
+              keyIds.add(toHexString(value));
+            }
+            break;
+          case 5:
+            buffer.position(buffer.position() + 4);
+            break;
+          default:
+            // Groups are not used by the message, so the data is malformed.
+            return;
+        }
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      // Keep the key ids parsed before the malformed field.
+    }
+  }
+
+  private static long readVarint(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  private static String toHexString(byte[] bytes) {
+    StringBuilder builder = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+          .append(Character.forDigit(b & 0xF, 16));
+    }
+    return builder.toString();
+  }
+
+}
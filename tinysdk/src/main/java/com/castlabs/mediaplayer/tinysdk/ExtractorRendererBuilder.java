@@ -16,11 +16,9 @@
 package com.castlabs.mediaplayer.tinysdk;
 
 import android.content.Context;
-import android.media.MediaCodec;
 import android.net.Uri;
 
 import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
-import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
 import com.google.android.exoplayer.TrackRenderer;
 import com.google.android.exoplayer.audio.AudioCapabilities;
 import com.google.android.exoplayer.extractor.Extractor;
@@ -38,15 +36,16 @@ import com.google.android.exoplayer.upstream.DefaultUriDataSource;
 public class ExtractorRendererBuilder implements MediaPlayer.RendererBuilder {
 
   private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
-  private static final int BUFFER_SEGMENT_COUNT = 256;
 
   private final Context context;
   private final String userAgent;
+  private final BufferPolicy bufferPolicy;
   private final Uri uri;
 
-  public ExtractorRendererBuilder(Context context, String userAgent, Uri uri) {
-    this.context = context;
-    this.userAgent = userAgent;
+  public ExtractorRendererBuilder(PlayerConfiguration configuration, Uri uri) {
+    this.context = configuration.getAppContext();
+    this.userAgent = configuration.getUserAgent();
+    this.bufferPolicy = configuration.getBufferPolicy();
     this.uri = uri;
   }
 
@@ -56,14 +55,15 @@ public class ExtractorRendererBuilder implements MediaPlayer.RendererBuilder {
 
     // Build the video and audio renderers.
     DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(player.getMainHandler(), null);
-    DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+    DataSource dataSource = MappedFileDataSource.isLocalFileUri(uri)
+        ? new MappedFileDataSource(bandwidthMeter)
+        : new DefaultUriDataSource(context, bandwidthMeter, userAgent);
 
     ExtractorSampleSource sampleSource = new ExtractorSampleSource(uri, dataSource, allocator,
-        BUFFER_SEGMENT_COUNT * BUFFER_SEGMENT_SIZE);
+        bufferPolicy.getMuxedBufferSize());
 
-    MediaCodecVideoTrackRenderer videoRenderer = new MediaCodecVideoTrackRenderer(context,
-        sampleSource, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000, player.getMainHandler(),
-        player, 50);
+    TrackRenderer videoRenderer = new InstrumentedVideoTrackRenderer(context, sampleSource, null,
+        player.getMainHandler(), player);
 
     MediaCodecAudioTrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource,
         null, true, player.getMainHandler(), player, AudioCapabilities.getCapabilities(context));
@@ -1,26 +1,152 @@
 package com.castlabs.mediaplayer.tinysdk;
 
 import android.content.Context;
+import android.os.Handler;
 
-import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.castlabs.mediaplayer.tinysdk.MediaPlayer.RendererBuilder;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.hls.HlsChunkSource;
+import com.google.android.exoplayer.hls.HlsMasterPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylist;
+import com.google.android.exoplayer.hls.HlsPlaylistParser;
+import com.google.android.exoplayer.hls.HlsSampleSource;
+import com.google.android.exoplayer.metadata.Id3Parser;
+import com.google.android.exoplayer.metadata.MetadataTrackRenderer;
+import com.google.android.exoplayer.text.eia608.Eia608TrackRenderer;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.util.ManifestFetcher;
+import com.google.android.exoplayer.util.ManifestFetcher.ManifestCallback;
+
+import java.io.IOException;
+import java.util.Map;
 
 /**
- * A {@link MediaPlayer.RendererBuilder} for HLS.
+ * A {@link RendererBuilder} for HLS.
  */
-public class HLSRendererBuilder implements MediaPlayer.RendererBuilder {
+public class HLSRendererBuilder implements RendererBuilder {
+
+  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+
+  private final PlayerConfiguration configuration;
+  private final String url;
+
+  private AsyncRendererBuilder currentAsyncBuilder;
+
+  // HLS sample-AES is not supported by the underlying ExoPlayer version, hence there is no DRM
+  // callback.
+  HLSRendererBuilder(PlayerConfiguration configuration, String url) {
+    this.configuration = configuration;
+    this.url = url;
+  }
+
+  @Override
+  public void buildRenderers(MediaPlayer player) {
+    currentAsyncBuilder = new AsyncRendererBuilder(configuration, url, player);
+    currentAsyncBuilder.init();
+  }
 
-     HLSRendererBuilder(Context context, String userAgent, String url,
-                               MediaDrmCallback drmCallback) {
+  @Override
+  public void cancel() {
+    if (currentAsyncBuilder != null) {
+      currentAsyncBuilder.cancel();
+      currentAsyncBuilder = null;
+    }
+  }
+
+  private static final class AsyncRendererBuilder implements ManifestCallback<HlsPlaylist> {
+
+    private final Context context;
+    private final String userAgent;
+    private final BufferPolicy bufferPolicy;
+    private final String url;
+    private final MediaPlayer player;
+    private final ManifestFetcher<HlsPlaylist> playlistFetcher;
+
+    private boolean canceled;
+
+    public AsyncRendererBuilder(PlayerConfiguration configuration, String url,
+        MediaPlayer player) {
+      this.context = configuration.getAppContext();
+      this.userAgent = configuration.getUserAgent();
+      this.bufferPolicy = configuration.getBufferPolicy();
+      this.url = url;
+      this.player = player;
+      playlistFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
+          new HlsPlaylistParser());
+    }
+
+    public void init() {
+      // The playlist is loaded on the fetcher's own loader thread. Only the callback is delivered
+      // on the main looper.
+      playlistFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+    }
+
+    public void cancel() {
+      canceled = true;
     }
 
     @Override
-    public void buildRenderers(MediaPlayer player) {
+    public void onSingleManifestError(IOException e) {
+      if (canceled) {
+        return;
+      }
+
+      player.onRenderersError(e);
     }
 
     @Override
-    public void cancel() {
+    public void onSingleManifest(HlsPlaylist manifest) {
+      if (canceled) {
+        return;
+      }
 
+      player.onStartupPhase(StartupTrace.PHASE_MANIFEST_LOADED);
+      int[] variantIndices = null;
+      if (manifest instanceof HlsMasterPlaylist) {
+        HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) manifest;
+        variantIndices = DeviceCapabilities.getInstance(context).selectVideoFormats(
+            masterPlaylist.variants, false);
+        if (variantIndices.length == 0) {
+          player.onRenderersError(new IllegalStateException("No variants selected."));
+          return;
+        }
+      }
+
+      Handler mainHandler = player.getMainHandler();
+      LoadControl loadControl = bufferPolicy.createLoadControl(context,
+          new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+      BandwidthEstimator bandwidthMeter = new BandwidthEstimator(context, mainHandler, player);
+
+      // Video, audio, ID3 and closed captions are all muxed in the same transport stream, so a
+      // single sample source feeds every renderer.
+      DataSource dataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      HlsChunkSource chunkSource = new HlsChunkSource(dataSource, url, manifest, bandwidthMeter,
+          variantIndices, HlsChunkSource.ADAPTIVE_MODE_SPLICE);
+      HlsSampleSource sampleSource = new HlsSampleSource(chunkSource, loadControl,
+          bufferPolicy.getMuxedBufferSize(), mainHandler, player, TrackInfo.TYPE_VIDEO);
+      TrackRenderer videoRenderer = new InstrumentedVideoTrackRenderer(context, sampleSource, null,
+          mainHandler, player);
+      TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(sampleSource, null, true,
+          mainHandler, player, AudioCapabilities.getCapabilities(context));
+      TrackRenderer textRenderer = new Eia608TrackRenderer(sampleSource, player,
+          mainHandler.getLooper());
+      TrackRenderer id3Renderer = new MetadataTrackRenderer<Map<String, Object>>(sampleSource,
+          new Id3Parser(), player, mainHandler.getLooper());
+
+      // Invoke the callback.
+      TrackRenderer[] renderers = new TrackRenderer[MediaPlayer.RENDERER_COUNT];
+      renderers[TrackInfo.TYPE_VIDEO] = videoRenderer;
+      renderers[TrackInfo.TYPE_AUDIO] = audioRenderer;
+      renderers[TrackInfo.TYPE_TEXT] = textRenderer;
+      renderers[TrackInfo.TYPE_METADATA] = id3Renderer;
+      player.onRenderers(renderers, bandwidthMeter);
     }
 
-}
+  }
 
+}
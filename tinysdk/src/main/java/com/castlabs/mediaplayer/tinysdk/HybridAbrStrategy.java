@@ -0,0 +1,181 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator;
+import com.google.android.exoplayer.chunk.MediaChunk;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import java.util.List;
+
+/**
+ * An {@link AbrStrategy} combining the bandwidth estimate with the buffer occupancy.
+ * <p>
+ * Until the buffer first reaches the fast ramp duration, formats are chosen from the bandwidth
+ * estimate alone and quality may increase immediately. Afterwards quality only increases when
+ * both the bandwidth estimate and the BOLA utility function for the buffered duration allow it,
+ * and the buffered duration exceeds a minimum. Quality decreases when the bandwidth estimate drops,
+ * unless the buffered duration is large enough to ride it out. Together this keeps the quality
+ * from oscillating around a bandwidth boundary.
+ */
+public final class HybridAbrStrategy implements AbrStrategy {
+
+  public static final int DEFAULT_MAX_INITIAL_BITRATE = 800000;
+  public static final int DEFAULT_FAST_RAMP_BUFFER_MS = 8000;
+  public static final int DEFAULT_TARGET_BUFFER_MS = 30000;
+  public static final int DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS = 10000;
+  public static final int DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS = 25000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+  private final int maxInitialBitrate;
+  private final long fastRampBufferUs;
+  private final long targetBufferUs;
+  private final long minDurationForQualityIncreaseUs;
+  private final long maxDurationForQualityDecreaseUs;
+  private final float bandwidthFraction;
+
+  public HybridAbrStrategy() {
+    this(DEFAULT_MAX_INITIAL_BITRATE, DEFAULT_FAST_RAMP_BUFFER_MS, DEFAULT_TARGET_BUFFER_MS,
+        DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS, DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+        DEFAULT_BANDWIDTH_FRACTION);
+  }
+
+  /**
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when
+   *     the bandwidth meter has no estimate yet.
+   * @param fastRampBufferMs Buffered duration up to which formats follow the bandwidth estimate
+   *     without hysteresis.
+   * @param targetBufferMs Buffered duration over which the BOLA utility function spreads the
+   *     formats. The highest format is allowed before it is reached.
+   * @param minDurationForQualityIncreaseMs The minimum duration of buffered data required to
+   *     switch to a higher quality format.
+   * @param maxDurationForQualityDecreaseMs The maximum duration of buffered data at which a switch
+   *     to a lower quality format is allowed.
+   * @param bandwidthFraction The fraction of the bandwidth estimate considered available.
+   */
+  public HybridAbrStrategy(int maxInitialBitrate, int fastRampBufferMs, int targetBufferMs,
+      int minDurationForQualityIncreaseMs, int maxDurationForQualityDecreaseMs,
+      float bandwidthFraction) {
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.fastRampBufferUs = fastRampBufferMs * 1000L;
+    this.targetBufferUs = targetBufferMs * 1000L;
+    this.minDurationForQualityIncreaseUs = minDurationForQualityIncreaseMs * 1000L;
+    this.maxDurationForQualityDecreaseUs = maxDurationForQualityDecreaseMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+  }
+
+  @Override
+  public FormatEvaluator createFormatEvaluator(BandwidthMeter bandwidthMeter) {
+    return new HybridEvaluator(bandwidthMeter);
+  }
+
+  final class HybridEvaluator implements FormatEvaluator {
+
+    private final BandwidthMeter bandwidthMeter;
+
+    private boolean rampingUp;
+
+    public HybridEvaluator(BandwidthMeter bandwidthMeter) {
+      this.bandwidthMeter = bandwidthMeter;
+    }
+
+    @Override
+    public void enable() {
+      rampingUp = true;
+    }
+
+    @Override
+    public void disable() {
+      // Do nothing.
+    }
+
+    @Override
+    public void evaluate(List<? extends MediaChunk> queue, long playbackPositionUs,
+        Format[] formats, Evaluation evaluation) {
+      long bufferedDurationUs = queue.isEmpty() ? 0
+          : queue.get(queue.size() - 1).endTimeUs - playbackPositionUs;
+      evaluate(bufferedDurationUs, formats, evaluation);
+    }
+
+    /**
+     * Chooses a format for the buffered duration. Formats are sorted by decreasing bitrate.
+     */
+    void evaluate(long bufferedDurationUs, Format[] formats, Evaluation evaluation) {
+      Format current = evaluation.format;
+      Format throughputFormat = determineThroughputFormat(formats);
+      Format ideal;
+      if (rampingUp) {
+        ideal = throughputFormat;
+        boolean switchingDown = current != null && ideal.bitrate < current.bitrate;
+        rampingUp = bufferedDurationUs < fastRampBufferUs && !switchingDown;
+      } else {
+        Format bufferFormat = determineBufferFormat(formats, bufferedDurationUs);
+        Format increaseFormat =
+            bufferFormat.bitrate > throughputFormat.bitrate ? throughputFormat : bufferFormat;
+        if (current == null) {
+          ideal = increaseFormat;
+        } else if (increaseFormat.bitrate > current.bitrate) {
+          // Only switch up once the buffer is large enough to absorb a wrong decision.
+          ideal = bufferedDurationUs >= minDurationForQualityIncreaseUs ? increaseFormat : current;
+        } else if (throughputFormat.bitrate < current.bitrate) {
+          // Only switch down if the buffer is too small to ride out the drop in bandwidth.
+          ideal = bufferedDurationUs < maxDurationForQualityDecreaseUs ? throughputFormat : current;
+        } else {
+          ideal = current;
+        }
+      }
+      if (current != null && ideal != current) {
+        evaluation.trigger = Chunk.TRIGGER_ADAPTIVE;
+      }
+      evaluation.format = ideal;
+    }
+
+    /**
+     * Returns the highest format that fits the bandwidth estimate. Formats are sorted by
+     * decreasing bitrate.
+     */
+    private Format determineThroughputFormat(Format[] formats) {
+      long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+      long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+          ? maxInitialBitrate : (long) (bitrateEstimate * bandwidthFraction);
+      for (int i = 0; i < formats.length; i++) {
+        if (formats[i].bitrate <= effectiveBitrate) {
+          return formats[i];
+        }
+      }
+      return formats[formats.length - 1];
+    }
+
+    /**
+     * Returns the format maximizing the BOLA objective for the buffered duration. The control
+     * parameter spreads the utility range of the formats over the durations between the fast ramp
+     * and the target duration, and the rebuffer penalty centres the switches around the fast ramp
+     * duration, so the highest format is allowed well before the target duration. For a ladder
+     * doubling from 500 kbps to 4 Mbps, the defaults step up at about 0.7, 8 and 15.3 seconds.
+     */
+    Format determineBufferFormat(Format[] formats, long bufferedDurationUs) {
+      double minBitrate = Math.max(1, formats[formats.length - 1].bitrate);
+      double maxUtility = Math.log(formats[0].bitrate / minBitrate);
+      if (maxUtility <= 0) {
+        return formats[0];
+      }
+      double control = ((targetBufferUs - fastRampBufferUs) / 1000000d) / maxUtility;
+      double rebufferPenalty = (fastRampBufferUs / 1000000d) / control;
+      double bufferedDurationS = bufferedDurationUs / 1000000d;
+      Format bestFormat = formats[formats.length - 1];
+      double bestScore = -Double.MAX_VALUE;
+      for (int i = 0; i < formats.length; i++) {
+        double utility = Math.log(Math.max(1, formats[i].bitrate) / minBitrate);
+        double score = (control * (utility + rebufferPenalty) - bufferedDurationS)
+            / Math.max(1, formats[i].bitrate);
+        if (score > bestScore) {
+          bestScore = score;
+          bestFormat = formats[i];
+        }
+      }
+      return bestFormat;
+    }
+
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.content.Context;
+import android.media.MediaCodec;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaCodecVideoTrackRenderer;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link MediaCodecVideoTrackRenderer} that reports how late every output buffer it renders or
+ * drops is to a {@link RenderStatsSampler}.
+ */
+class InstrumentedVideoTrackRenderer extends MediaCodecVideoTrackRenderer {
+
+  private volatile RenderStatsSampler renderStatsSampler;
+
+  /**
+   * @param drmSessionManager The session manager of a protected stream, or null.
+   */
+  public InstrumentedVideoTrackRenderer(Context context, SampleSource source,
+      DrmSessionManager drmSessionManager, Handler eventHandler, EventListener eventListener) {
+    super(context, source, MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT, 5000, drmSessionManager,
+        true, eventHandler, eventListener, 50);
+  }
+
+  void setRenderStatsSampler(RenderStatsSampler renderStatsSampler) {
+    this.renderStatsSampler = renderStatsSampler;
+  }
+
+  @Override
+  protected boolean processOutputBuffer(long positionUs, long elapsedRealtimeUs, MediaCodec codec,
+      ByteBuffer buffer, MediaCodec.BufferInfo bufferInfo, int bufferIndex, boolean shouldSkip) {
+    // Measured the same way as the base renderer decides whether to render the buffer.
+    long elapsedSinceStartOfLoopUs = SystemClock.elapsedRealtime() * 1000 - elapsedRealtimeUs;
+    long earlyUs = bufferInfo.presentationTimeUs - positionUs - elapsedSinceStartOfLoopUs;
+    boolean processed = super.processOutputBuffer(positionUs, elapsedRealtimeUs, codec, buffer,
+        bufferInfo, bufferIndex, shouldSkip);
+    RenderStatsSampler sampler = renderStatsSampler;
+    if (processed && !shouldSkip && sampler != null) {
+      sampler.onOutputBufferReleased(Math.max(0, -earlyUs));
+    }
+    return processed;
+  }
+
+}
@@ -0,0 +1,77 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+/**
+ * Records non-negative values into log-linear buckets, in the manner of HdrHistogram.
+ * <p>
+ * Values below 16 have a bucket each. Above, every power of two is split into 16 buckets, so that
+ * a recorded value is known to within 6.25% whatever its magnitude, using a fixed array of a few
+ * hundred counts. Values larger than {@link #MAX_VALUE} are recorded as {@link #MAX_VALUE}.
+ */
+final class LatencyHistogram {
+
+  /**
+   * The largest value kept apart, about 16.7 seconds in microseconds.
+   */
+  public static final long MAX_VALUE = (1 << 24) - 1;
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+  private final long[] counts;
+
+  private long count;
+  private long sum;
+  private long max;
+
+  public LatencyHistogram() {
+    counts = new long[BUCKET_COUNT];
+  }
+
+  public synchronized void record(long value) {
+    value = Math.min(Math.max(value, 0), MAX_VALUE);
+    counts[getIndex(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public synchronized void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    max = 0;
+  }
+
+  /**
+   * Returns an immutable copy of the recorded distribution.
+   */
+  public synchronized RenderStatsSampler.Distribution snapshot() {
+    return new RenderStatsSampler.Distribution(counts.clone(), count, sum, max);
+  }
+
+  static int getIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >> shift) - SUB_BUCKET_COUNT;
+    return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /**
+   * Returns the largest value recorded into the bucket at an index.
+   */
+  static long getHighestValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+    int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+
+}
@@ -0,0 +1,117 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Measures how far playback of a live DASH stream is behind real time and, if catching up is
+ * enabled, nudges the playback speed to hold a target latency.
+ * <p>
+ * The speed deviates from normal by at most {@link #MAX_SPEED_DEVIATION}, in proportion to the
+ * distance from the target, which is barely noticeable. Playback is only sped up while enough
+ * media is buffered to do so without running into a rebuffer.
+ */
+final class LiveLatencyController implements Runnable {
+
+  public static final long UNKNOWN_LATENCY = -1;
+
+  private static final int UPDATE_INTERVAL_MS = 500;
+  private static final long LATENCY_TOLERANCE_MS = 500;
+  private static final float MAX_SPEED_DEVIATION = 0.05f;
+  /**
+   * Latency error, in milliseconds, per unit of speed deviation. A second off the target gives
+   * the maximum deviation.
+   */
+  private static final float LATENCY_ERROR_PER_SPEED_MS = 20000f;
+  private static final long MIN_BUFFERED_DURATION_FOR_CATCH_UP_MS = 1000;
+
+  private final long availabilityStartTimeMs;
+  private final long clockOffsetMs;
+  private final long targetLatencyMs;
+  private final boolean catchUpEnabled;
+
+  private MediaPlayer player;
+  private Handler handler;
+  private float playbackSpeed;
+  private volatile long latencyMs;
+
+  /**
+   * @param availabilityStartTimeMs The manifest's availability start time, as a wall clock time.
+   * @param clockOffsetMs The offset to add to {@link SystemClock#elapsedRealtime()} to obtain the
+   *     wall clock time of the server.
+   * @param targetLatencyMs The latency to hold.
+   * @param catchUpEnabled Whether the playback speed is adjusted. If false the latency is only
+   *     measured.
+   */
+  public LiveLatencyController(long availabilityStartTimeMs, long clockOffsetMs,
+      long targetLatencyMs, boolean catchUpEnabled) {
+    this.availabilityStartTimeMs = availabilityStartTimeMs;
+    this.clockOffsetMs = clockOffsetMs;
+    this.targetLatencyMs = targetLatencyMs;
+    this.catchUpEnabled = catchUpEnabled;
+    playbackSpeed = 1f;
+    latencyMs = UNKNOWN_LATENCY;
+  }
+
+  public void start(MediaPlayer player, Handler handler) {
+    this.player = player;
+    this.handler = handler;
+    handler.post(this);
+  }
+
+  public void stop() {
+    if (handler == null) {
+      return;
+    }
+    handler.removeCallbacks(this);
+    setPlaybackSpeed(1f);
+    latencyMs = UNKNOWN_LATENCY;
+    player = null;
+    handler = null;
+  }
+
+  /**
+   * Returns the current latency in milliseconds, or {@link #UNKNOWN_LATENCY}.
+   */
+  public long getLatencyMs() {
+    return latencyMs;
+  }
+
+  @Override
+  public void run() {
+    boolean playing = player.getPlaybackState() == MediaPlayer.STATE_READY
+        && player.getPlayWhenReady();
+    if (playing) {
+      long nowMs = SystemClock.elapsedRealtime() + clockOffsetMs;
+      long positionMs = player.getCurrentPosition();
+      latencyMs = nowMs - (availabilityStartTimeMs + positionMs);
+      if (catchUpEnabled) {
+        long bufferedDurationMs = player.getBufferedPosition() - positionMs;
+        setPlaybackSpeed(getTargetPlaybackSpeed(latencyMs - targetLatencyMs, bufferedDurationMs));
+      }
+    } else {
+      // A rebuffer or pause must not be mistaken for latency to catch up on afterwards.
+      setPlaybackSpeed(1f);
+    }
+    handler.postDelayed(this, UPDATE_INTERVAL_MS);
+  }
+
+  private static float getTargetPlaybackSpeed(long latencyErrorMs, long bufferedDurationMs) {
+    if (Math.abs(latencyErrorMs) <= LATENCY_TOLERANCE_MS
+        || (latencyErrorMs > 0 && bufferedDurationMs < MIN_BUFFERED_DURATION_FOR_CATCH_UP_MS)) {
+      return 1f;
+    }
+    float deviation = latencyErrorMs / LATENCY_ERROR_PER_SPEED_MS;
+    deviation = Math.max(-MAX_SPEED_DEVIATION, Math.min(MAX_SPEED_DEVIATION, deviation));
+    // Rounding to percent steps avoids reconfiguring the audio track on every update.
+    return Math.round((1f + deviation) * 100) / 100f;
+  }
+
+  private void setPlaybackSpeed(float speed) {
+    if (speed != playbackSpeed) {
+      playbackSpeed = speed;
+      player.setPlaybackSpeed(speed);
+    }
+  }
+
+}
@@ -0,0 +1,64 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DashManifestParser} that also reads the {@code availabilityTimeOffset} attribute, which
+ * the underlying parser ignores.
+ * <p>
+ * Low latency live streams announce with it that segments can be requested before they are
+ * complete. The server then sends them with chunked transfer encoding while they are produced.
+ */
+final class LowLatencyDashParser extends DashManifestParser {
+
+  private static final Pattern AVAILABILITY_TIME_OFFSET =
+      Pattern.compile("availabilityTimeOffset\\s*=\\s*\"([0-9.]+)\"");
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private volatile long availabilityTimeOffsetMs;
+
+  @Override
+  public MediaPresentationDescription parse(String connectionUrl, InputStream inputStream)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int bytesRead;
+    while ((bytesRead = inputStream.read(buffer)) != -1) {
+      output.write(buffer, 0, bytesRead);
+    }
+    byte[] data = output.toByteArray();
+    availabilityTimeOffsetMs = findAvailabilityTimeOffsetMs(new String(data, "UTF-8"));
+    return super.parse(connectionUrl, new ByteArrayInputStream(data));
+  }
+
+  /**
+   * Returns the offset by which segments of the last parsed manifest become available before they
+   * are complete, in milliseconds, or 0 if the manifest does not declare one.
+   */
+  public long getAvailabilityTimeOffsetMs() {
+    return availabilityTimeOffsetMs;
+  }
+
+  private static long findAvailabilityTimeOffsetMs(String manifest) {
+    // Adaptation sets may be chunked differently. Using the smallest offset never requests a
+    // segment of any of them too early.
+    long offsetMs = Long.MAX_VALUE;
+    Matcher matcher = AVAILABILITY_TIME_OFFSET.matcher(manifest);
+    while (matcher.find()) {
+      try {
+        offsetMs = Math.min(offsetMs, (long) (Double.parseDouble(matcher.group(1)) * 1000));
+      } catch (NumberFormatException e) {
+        // Ignore the malformed value.
+      }
+    }
+    return offsetMs == Long.MAX_VALUE ? 0 : offsetMs;
+  }
+
+}
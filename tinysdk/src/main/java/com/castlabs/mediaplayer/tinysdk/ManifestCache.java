@@ -0,0 +1,353 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource.InvalidResponseCodeException;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-memory and on-disk cache for DASH manifests, keyed by URL.
+ * <p>
+ * The raw manifest is stored together with its ETag and Last-Modified validators so that requests
+ * for it become conditional and a 304 response is served from the cache. Parsed static manifests
+ * are additionally kept in memory and handed out without any request; they are revalidated in the
+ * background and replaced for the next prepare if they changed. Only static manifests are written
+ * to disk, live ones are kept in memory for the conditional requests of their refreshes. Only one
+ * instance may exist per cache directory.
+ */
+public final class ManifestCache {
+
+  private static final String TAG = "ManifestCache";
+
+  private static final long REVALIDATION_INTERVAL_MS = 60000;
+  private static final int READ_BUFFER_SIZE = 4096;
+
+  private final File cacheDir;
+  private final LruCache<String, Entry> entries;
+  // Revalidates manifests and writes them to disk.
+  private final ExecutorService executor;
+
+  /**
+   * @param cacheDir Directory where the manifests are stored. It is dedicated to the cache.
+   * @param maxEntries Maximum number of manifests kept in memory.
+   */
+  public ManifestCache(File cacheDir, int maxEntries) {
+    this.cacheDir = cacheDir;
+    entries = new LruCache<>(maxEntries);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  /**
+   * Returns the parsed static manifest for a URL, if it is cached in memory.
+   */
+  MediaPresentationDescription getManifest(String url) {
+    Entry entry = entries.get(url);
+    return entry != null ? entry.manifest : null;
+  }
+
+  /**
+   * Attaches a parsed manifest to the cached raw manifest it was parsed from, and writes the raw
+   * manifest to disk in the background. Dynamic manifests change with every refresh and a stale
+   * one is never usable, so they are ignored and their raw manifests only kept in memory.
+   */
+  void putManifest(final String url, MediaPresentationDescription manifest) {
+    final Entry entry = entries.get(url);
+    if (entry == null || manifest.dynamic) {
+      return;
+    }
+    entry.manifest = manifest;
+    if (!entry.persisted && !executor.isShutdown()) {
+      entry.persisted = true;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          writeEntry(url, entry);
+        }
+      });
+    }
+  }
+
+  /**
+   * Creates a {@link UriDataSource} for manifest requests that makes them conditional on the
+   * cached validators and stores complete responses in the cache.
+   */
+  UriDataSource createDataSource(String userAgent) {
+    return new CacheUriDataSource(new DefaultHttpDataSource(userAgent, null));
+  }
+
+  /**
+   * Checks in the background whether the cached manifest for a URL is still current, replacing
+   * it if not. Does nothing if it was validated recently.
+   */
+  void revalidate(final String url, final String userAgent) {
+    Entry entry = entries.get(url);
+    if (entry == null || executor.isShutdown()
+        || SystemClock.elapsedRealtime() - entry.validatedTimestamp < REVALIDATION_INTERVAL_MS) {
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        CacheUriDataSource dataSource = (CacheUriDataSource) createDataSource(userAgent);
+        byte[] data;
+        try {
+          dataSource.open(new DataSpec(Uri.parse(url)));
+          if (dataSource.notModified) {
+            return;
+          }
+          data = readFully(dataSource);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to revalidate manifest [" + url + "]", e);
+          return;
+        } finally {
+          dataSource.close();
+        }
+        // The changed manifest has been stored in memory when the data source was opened. Attach
+        // the parsed version so the next prepare can skip the request. This also persists it.
+        try {
+          putManifest(url, new DashManifestParser().parse(url,
+              new ByteArrayInputStream(data)));
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to parse revalidated manifest [" + url + "]", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops background revalidation and writes. Cached manifests stay on disk for a new instance.
+   * Must be called once no player uses the cache anymore.
+   */
+  public void release() {
+    executor.shutdownNow();
+    entries.evictAll();
+  }
+
+  private Entry getEntry(String url) {
+    Entry entry = entries.get(url);
+    if (entry == null) {
+      entry = readEntry(url);
+      if (entry != null) {
+        entries.put(url, entry);
+      }
+    }
+    return entry;
+  }
+
+  private Entry readEntry(String url) {
+    File file = getEntryFile(url);
+    if (!file.exists()) {
+      return null;
+    }
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new FileInputStream(file));
+      if (!url.equals(input.readUTF())) {
+        // Hash collision with another URL.
+        return null;
+      }
+      String etag = input.readUTF();
+      String lastModified = input.readUTF();
+      byte[] data = new byte[input.readInt()];
+      input.readFully(data);
+      Entry entry = new Entry(data, etag.isEmpty() ? null : etag,
+          lastModified.isEmpty() ? null : lastModified);
+      entry.persisted = true;
+      return entry;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read cached manifest [" + url + "]", e);
+      return null;
+    } finally {
+      closeQuietly(input);
+    }
+  }
+
+  private void writeEntry(String url, Entry entry) {
+    File file = getEntryFile(url);
+    File tempFile = new File(cacheDir, file.getName() + ".tmp");
+    DataOutputStream output = null;
+    try {
+      cacheDir.mkdirs();
+      output = new DataOutputStream(new FileOutputStream(tempFile));
+      output.writeUTF(url);
+      output.writeUTF(entry.etag != null ? entry.etag : "");
+      output.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+      output.writeInt(entry.data.length);
+      output.write(entry.data);
+      output.close();
+      output = null;
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tempFile);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write cached manifest [" + url + "]", e);
+      tempFile.delete();
+    } finally {
+      closeQuietly(output);
+    }
+  }
+
+  private File getEntryFile(String url) {
+    return new File(cacheDir, Integer.toHexString(url.hashCode()) + ".mpd");
+  }
+
+  private static byte[] readFully(UriDataSource dataSource) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int bytesRead;
+    while ((bytesRead = dataSource.read(buffer, 0, buffer.length)) != C.RESULT_END_OF_INPUT) {
+      output.write(buffer, 0, bytesRead);
+    }
+    return output.toByteArray();
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    public final byte[] data;
+    public final String etag;
+    public final String lastModified;
+
+    public volatile MediaPresentationDescription manifest;
+    public volatile long validatedTimestamp;
+    public volatile boolean persisted;
+
+    public Entry(byte[] data, String etag, String lastModified) {
+      this.data = data;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+
+  }
+
+  /**
+   * Issues conditional requests for cached manifests, serving the cached bytes on a 304. Otherwise
+   * the whole response is read when the data source is opened and stored before it is served, so
+   * that it is cached however much of it the parser reads.
+   */
+  private final class CacheUriDataSource implements UriDataSource {
+
+    private final HttpDataSource upstream;
+
+    private String url;
+    private String uri;
+    private byte[] data;
+    private int readPosition;
+    private boolean notModified;
+
+    public CacheUriDataSource(HttpDataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      url = dataSpec.uri.toString();
+      uri = url;
+      data = null;
+      readPosition = 0;
+      notModified = false;
+      Entry cachedEntry = getEntry(url);
+      if (cachedEntry != null) {
+        if (cachedEntry.etag != null) {
+          upstream.setRequestProperty("If-None-Match", cachedEntry.etag);
+        }
+        if (cachedEntry.lastModified != null) {
+          upstream.setRequestProperty("If-Modified-Since", cachedEntry.lastModified);
+        }
+      }
+      try {
+        upstream.open(dataSpec);
+      } catch (InvalidResponseCodeException e) {
+        if (e.responseCode == 304 && cachedEntry != null) {
+          notModified = true;
+          cachedEntry.validatedTimestamp = SystemClock.elapsedRealtime();
+          data = cachedEntry.data;
+          return data.length;
+        }
+        throw e;
+      } finally {
+        upstream.clearAllRequestProperties();
+      }
+      try {
+        byte[] responseData = readFully(upstream);
+        uri = upstream.getUri();
+        Entry entry = new Entry(responseData, getHeader("ETag"), getHeader("Last-Modified"));
+        entry.validatedTimestamp = SystemClock.elapsedRealtime();
+        entries.put(url, entry);
+        data = responseData;
+      } finally {
+        upstream.close();
+      }
+      return data.length;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int remaining = data.length - readPosition;
+      if (remaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = Math.min(remaining, readLength);
+      System.arraycopy(data, readPosition, buffer, offset, bytesRead);
+      readPosition += bytesRead;
+      return bytesRead;
+    }
+
+    @Override
+    public void close() {
+      data = null;
+    }
+
+    @Override
+    public String getUri() {
+      return uri;
+    }
+
+    private String getHeader(String name) {
+      Map<String, List<String>> headers = upstream.getResponseHeaders();
+      if (headers == null) {
+        return null;
+      }
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+            && !header.getValue().isEmpty()) {
+          return header.getValue().get(0);
+        }
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,177 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.FileDataSource;
+import com.google.android.exoplayer.upstream.TransferListener;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link UriDataSource} for local files that maps them into memory.
+ * <p>
+ * Each read is a copy from the page cache into the caller's buffer, without the system call and
+ * intermediate copy of a {@link RandomAccessFile} read. Only the requested range is mapped, in
+ * windows of at most {@link #MAP_WINDOW_SIZE} bytes, and a window is reused by later reads and
+ * opens of the same file that fall into it. Mappings are only released when garbage collected,
+ * which is driven by heap and not address space pressure, so if a file can't be mapped the source
+ * falls back to plain file reads.
+ */
+public final class MappedFileDataSource implements UriDataSource {
+
+  private static final String TAG = "MappedFileDataSource";
+
+  private static final long MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final TransferListener listener;
+
+  private RandomAccessFile file;
+  private FileChannel channel;
+  private FileDataSource fallbackDataSource;
+  private MappedByteBuffer window;
+  private String windowPath;
+  private long windowPosition;
+  private String path;
+  private long position;
+  private long bytesRemaining;
+  private String uriString;
+  private boolean opened;
+
+  public MappedFileDataSource() {
+    this(null);
+  }
+
+  /**
+   * @param listener An optional listener.
+   */
+  public MappedFileDataSource(TransferListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns whether a URI refers to a local file this class can read.
+   */
+  public static boolean isLocalFileUri(Uri uri) {
+    String scheme = uri.getScheme();
+    return scheme == null || "file".equals(scheme);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    uriString = dataSpec.uri.toString();
+    path = dataSpec.uri.getPath();
+    file = new RandomAccessFile(new File(path), "r");
+    channel = file.getChannel();
+    long fileLength = channel.size();
+    position = dataSpec.position;
+    if (position > fileLength) {
+      throw new EOFException();
+    }
+    bytesRemaining = dataSpec.length == C.LENGTH_UNBOUNDED ? fileLength - position
+        : dataSpec.length;
+    if (position + bytesRemaining > fileLength) {
+      throw new EOFException();
+    }
+    if (!path.equals(windowPath)) {
+      window = null;
+      windowPath = null;
+    }
+    opened = true;
+    if (listener != null) {
+      listener.onTransferStart();
+    }
+    return bytesRemaining;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (bytesRemaining == 0) {
+      return C.RESULT_END_OF_INPUT;
+    }
+    int bytesRead;
+    if (fallbackDataSource == null && (window == null || position < windowPosition
+        || position >= windowPosition + window.capacity())) {
+      mapWindow();
+    }
+    if (fallbackDataSource != null) {
+      bytesRead = fallbackDataSource.read(buffer, offset, (int) Math.min(readLength,
+          bytesRemaining));
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        throw new EOFException();
+      }
+    } else {
+      bytesRead = (int) Math.min(Math.min(readLength, bytesRemaining),
+          windowPosition + window.capacity() - position);
+      window.position((int) (position - windowPosition));
+      window.get(buffer, offset, bytesRead);
+    }
+    position += bytesRead;
+    bytesRemaining -= bytesRead;
+    if (listener != null) {
+      listener.onBytesTransferred(bytesRead);
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public String getUri() {
+    return uriString;
+  }
+
+  @Override
+  public void close() throws IOException {
+    uriString = null;
+    // The window stays valid after the file is closed, and is kept for the next open.
+    channel = null;
+    try {
+      if (fallbackDataSource != null) {
+        fallbackDataSource.close();
+      }
+    } finally {
+      fallbackDataSource = null;
+      if (file != null) {
+        try {
+          file.close();
+        } finally {
+          file = null;
+          if (opened) {
+            opened = false;
+            if (listener != null) {
+              listener.onTransferEnd();
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Maps the window starting at the read position, or switches to plain file reads if the
+   * mapping fails, for example because the address space is exhausted.
+   */
+  private void mapWindow() throws IOException {
+    window = null;
+    windowPath = null;
+    try {
+      window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+          Math.min(MAP_WINDOW_SIZE, bytesRemaining));
+      windowPath = path;
+      windowPosition = position;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to map " + path + ", reading it instead", e);
+      fallbackDataSource = new FileDataSource();
+      fallbackDataSource.open(new DataSpec(Uri.fromFile(new File(path)), position,
+          bytesRemaining, null));
+    }
+  }
+
+}
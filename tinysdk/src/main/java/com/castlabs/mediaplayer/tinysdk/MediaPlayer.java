@@ -1,8 +1,11 @@
 package com.castlabs.mediaplayer.tinysdk;
 
+import android.annotation.TargetApi;
 import android.media.MediaCodec.CryptoException;
+import android.media.PlaybackParams;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
@@ -22,6 +25,7 @@ import com.google.android.exoplayer.chunk.ChunkSampleSource;
 import com.google.android.exoplayer.chunk.Format;
 import com.google.android.exoplayer.dash.DashChunkSource;
 import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.hls.HlsSampleSource;
 import com.google.android.exoplayer.metadata.MetadataTrackRenderer.MetadataRenderer;
 import com.google.android.exoplayer.text.Cue;
 import com.google.android.exoplayer.text.TextRenderer;
@@ -29,8 +33,11 @@ import com.google.android.exoplayer.upstream.BandwidthMeter;
 import com.google.android.exoplayer.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer.util.DebugTextViewHelper;
 import com.google.android.exoplayer.util.PlayerControl;
+import com.google.android.exoplayer.util.Util;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +49,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * SmoothStreaming and so on).
  */
 public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventListener,
+    HlsSampleSource.EventListener,
     DefaultBandwidthMeter.EventListener, MediaCodecVideoTrackRenderer.EventListener, MediaCodecAudioTrackRenderer.EventListener,
     StreamingDrmSessionManager.EventListener, DashChunkSource.EventListener, TextRenderer,
     MetadataRenderer<Map<String, Object>>, DebugTextViewHelper.Provider, SurfaceHolder.Callback {
@@ -84,7 +92,7 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
    * error if the player fails to recover. If this happens, {@link Listener#onError(Exception)}
    * will be invoked.
    */
-  private interface InternalErrorListener {
+  public interface InternalErrorListener {
     void onRendererInitializationError(Exception e);
     void onAudioTrackInitializationError(AudioTrack.InitializationException e);
     void onAudioTrackWriteError(AudioTrack.WriteException e);
@@ -126,6 +134,40 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     void onId3Metadata(Map<String, Object> metadata);
   }
 
+  /**
+   * A listener for seek performance.
+   */
+  public interface SeekListener {
+    /**
+     * Invoked when playback is ready at the position of a seek, or when a newer seek replaces it.
+     *
+     * @param positionMs The position seeked to, after snapping in {@link #SEEK_MODE_FAST}.
+     * @param seekLatencyMs The time from the seek request until playback was ready, or until it
+     *     was replaced.
+     */
+    void onSeekCompleted(long positionMs, long seekLatencyMs);
+  }
+
+  /**
+   * A listener for the timeline of each startup.
+   */
+  public interface StartupTraceListener {
+    /**
+     * Invoked when startup finished, failed or was abandoned.
+     */
+    void onStartupTrace(StartupTrace trace);
+  }
+
+  /**
+   * Seeks go to the exact position requested.
+   */
+  public static final int SEEK_MODE_EXACT = 0;
+  /**
+   * Seeks go to the segment boundary closest to the position requested, where they do not need to
+   * decode frames that are not shown. Only supported for DASH, other streams seek exactly.
+   */
+  public static final int SEEK_MODE_FAST = 1;
+
   // Constants pulled into this class for convenience.
   public static final int STATE_IDLE = ExoPlayer.STATE_IDLE;
   public static final int STATE_PREPARING = ExoPlayer.STATE_PREPARING;
@@ -142,14 +184,25 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
   private static final int RENDERER_BUILDING_STATE_BUILDING = 2;
   private static final int RENDERER_BUILDING_STATE_BUILT = 3;
 
-  private final RendererBuilder rendererBuilder;          // Concrete renderer for a playback session. HLS, SS or DASH.
+  private static final long NO_PENDING_SEEK = -1;
+  private static final int MAX_STARTUP_TRACES = 10;
+
+  private final PlayerConfiguration configuration;
   private final ExoPlayer player;                         // ExoPlayer does the actual work
   private final PlayerControl playerControl;              // Playback control: pause, resume, fast forward, rewind.
   private final Handler mainHandler;
   private final CopyOnWriteArrayList<Listener> listeners; // Objects subscribed to MediaPlayer events.
+  private final SegmentCache segmentCache;                // Disk cache for DASH segments, may be null.
+  private final PlaybackMetricsCollector metricsCollector; // QoE metrics of the current session.
+  private final RenderStatsSampler renderStatsSampler;     // Frame rates and latencies of the video decoder.
+  private final ArrayDeque<StartupTrace> startupTraces;    // Finished traces, oldest first.
+
+  private Stream stream;                                  // Stream currently assigned to the player.
+  private RendererBuilder rendererBuilder;                // Concrete renderer for a playback session. HLS, SS or DASH.
 
   // For internal player state management purposes
   private int rendererBuildingState;
+  private boolean prewarmed;
   private int lastReportedPlaybackState;
   private boolean lastReportedPlayWhenReady;
 
@@ -158,16 +211,25 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   // Information recovered from the manifest
   private TrackRenderer videoRenderer;
+  private TrackRenderer audioRenderer;
   private CodecCounters codecCounters;
   private Format videoFormat;
   private int videoTrackToRestore;
   private BandwidthMeter bandwidthMeter;
+  private LiveLatencyController liveLatencyController;
+  private SegmentBoundaries segmentBoundaries;
+  private ThumbnailProvider thumbnailProvider;
+  private SegmentPrefetcher segmentPrefetcher;
+  private PrefetchingDrmSessionManager drmSessionPrefetch;
+
+  private int seekMode;
+  private long pendingSeekPositionMs;
+  private long seekStartTimeMs;
+  private boolean seekBuffering;
+  private StartupTrace startupTrace;
 
   // Exoplayer callbacks
-  private CaptionListener captionListener;             // Subtitles events.
-  private Id3MetadataListener id3MetadataListener;     // For HLS & MPEG TS id3 information on audio tracks.
-  private InternalErrorListener internalErrorListener; // Error message from ExoPlayer
-  private InfoListener infoListener;                   // Notify format,
+  private final PlayerEventBus eventBus;               // Info, error, caption, metadata, seek and startup subscribers.
 
   /**
    * Main constructor {@link MediaPlayer}.
@@ -176,14 +238,31 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
    * @param configuration Provides a set of values required to start the playback session such as userAgent or the application context.
    */
   public MediaPlayer(Stream playable, PlayerConfiguration configuration) {
+    this.configuration = configuration;
+    this.stream = playable;
     this.rendererBuilder = RendererBuilderFactory.createRendererBuilder(playable, configuration);
-    player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, 1000, 5000);
+    segmentCache = configuration.getSegmentCache();
+    BufferPolicy bufferPolicy = configuration.getBufferPolicy();
+    player = ExoPlayer.Factory.newInstance(RENDERER_COUNT, bufferPolicy.getMinBufferMs(),
+        bufferPolicy.getMinRebufferMs());
     player.addListener(this);
-    playerControl = new PlayerControl(player);
+    playerControl = new PlayerControl(player) {
+      @Override
+      public void seekTo(int timeMillis) {
+        // Route seeks from media controllers through the seek mode and latency tracking.
+        MediaPlayer.this.seekTo(timeMillis);
+      }
+    };
     mainHandler = new Handler();
     listeners = new CopyOnWriteArrayList<>();
+    metricsCollector = new PlaybackMetricsCollector(mainHandler);
+    renderStatsSampler = new RenderStatsSampler(player);
+    startupTraces = new ArrayDeque<>();
+    eventBus = new PlayerEventBus();
     lastReportedPlaybackState = STATE_IDLE;
     rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+    seekMode = SEEK_MODE_EXACT;
+    pendingSeekPositionMs = NO_PENDING_SEEK;
     // Disable text initially.
     player.setSelectedTrack(TrackInfo.TYPE_TEXT, TRACK_DISABLED);
   }
@@ -205,20 +284,12 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     listeners.remove(listener);
   }
 
-  public void setInternalErrorListener(InternalErrorListener listener) {
-    internalErrorListener = listener;
-  }
-
-  public void setInfoListener(InfoListener listener) {
-    infoListener = listener;
-  }
-
-  public void setCaptionListener(CaptionListener listener) {
-    captionListener = listener;
-  }
-
-  public void setMetadataListener(Id3MetadataListener listener) {
-    id3MetadataListener = listener;
+  /**
+   * Subscribers for info, internal error, caption, metadata, seek and startup events. Any number of
+   * subscribers can be added per event type.
+   */
+  public PlayerEventBus getEventBus() {
+    return eventBus;
   }
 
 // ------------------------ MediaPlayer surface management ------------------------
@@ -304,21 +375,59 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   public void setSelectedTrack(int type, int index) {
     player.setSelectedTrack(type, index);
-    if (type == TrackInfo.TYPE_TEXT && index < 0 && captionListener != null) {
-      captionListener.onCues(Collections.<Cue>emptyList());
+    if (type == TrackInfo.TYPE_TEXT && index < 0) {
+      eventBus.dispatchCues(Collections.<Cue>emptyList());
     }
   }
 
 // ------------------------ MediaPlayer core methods ------------------------
 
   public void prepare() {
+    if (prewarmed) {
+      prewarmed = false;
+      if (rendererBuildingState != RENDERER_BUILDING_STATE_IDLE) {
+        // Renderers have been or are being built by prewarm(), keep what has been buffered.
+        metricsCollector.onPlayRequested();
+        if (startupTrace != null && !startupTrace.isFinished()) {
+          startupTrace.rebase(SystemClock.elapsedRealtime());
+          maybeFinishStartupTrace();
+        }
+        player.setPlayWhenReady(true);
+        return;
+      }
+    }
+    prepareInternal(true);
+  }
+
+  /**
+   * Starts fetching the manifest, setting up DRM and buffering without starting playback. A
+   * following call to {@link #prepare()} only starts playback.
+   */
+  void prewarm() {
+    prewarmed = true;
+    prepareInternal(false);
+  }
+
+  private void prepareInternal(boolean playWhenReady) {
     if (rendererBuildingState == RENDERER_BUILDING_STATE_BUILT) {
       player.stop();
     }
-    player.setPlayWhenReady(true);
+    player.setPlayWhenReady(playWhenReady);
     rendererBuilder.cancel();
+    stopLiveLatencyController();
+    releaseThumbnailProvider();
+    releaseSegmentPrefetcher();
+    releaseBandwidthMeter();
+    cancelDrmSessionPrefetch();
+    metricsCollector.onPrepare();
+    renderStatsSampler.reset();
+    finishStartupTrace(true);
+    startupTrace = new StartupTrace(stream.toString(), SystemClock.elapsedRealtime());
+    segmentBoundaries = null;
+    pendingSeekPositionMs = NO_PENDING_SEEK;
     videoFormat = null;
     videoRenderer = null;
+    audioRenderer = null;
     rendererBuildingState = RENDERER_BUILDING_STATE_BUILDING;
     maybeReportPlayerState();
     rendererBuilder.buildRenderers(this);
@@ -326,11 +435,67 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   public void release() {
     rendererBuilder.cancel();
+    stopLiveLatencyController();
+    releaseThumbnailProvider();
+    releaseSegmentPrefetcher();
+    releaseBandwidthMeter();
+    cancelDrmSessionPrefetch();
+    metricsCollector.release();
+    renderStatsSampler.stop();
+    eventBus.release();
     rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
     surface = null;
     player.release();
   }
 
+  /**
+   * Stops playback and drops all session state and listeners, keeping the underlying
+   * {@link ExoPlayer} and its playback thread alive so that the instance can be reused through
+   * {@link #setStream(Stream)}.
+   */
+  void recycle() {
+    rendererBuilder.cancel();
+    stopLiveLatencyController();
+    releaseThumbnailProvider();
+    releaseSegmentPrefetcher();
+    releaseBandwidthMeter();
+    cancelDrmSessionPrefetch();
+    metricsCollector.release();
+    renderStatsSampler.stop();
+    renderStatsSampler.reset();
+    player.stop();
+    player.seekTo(0);
+    player.setSelectedTrack(TrackInfo.TYPE_TEXT, TRACK_DISABLED);
+    rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+    prewarmed = false;
+    lastReportedPlaybackState = STATE_IDLE;
+    lastReportedPlayWhenReady = false;
+    listeners.clear();
+    eventBus.clear();
+    startupTrace = null;
+    seekMode = SEEK_MODE_EXACT;
+    segmentBoundaries = null;
+    pendingSeekPositionMs = NO_PENDING_SEEK;
+    surface = null;
+    surfaceView = null;
+    videoRenderer = null;
+    audioRenderer = null;
+    codecCounters = null;
+    videoFormat = null;
+  }
+
+  /**
+   * Assigns the stream played by the next {@link #prepare()}. Only valid on an idle player.
+   */
+  void setStream(Stream stream) {
+    this.stream = stream;
+    rendererBuilder = RendererBuilderFactory.createRendererBuilder(stream, configuration);
+  }
+
+  Stream getStream() {
+    return stream;
+  }
+
   public int getPlaybackState() {
     if (rendererBuildingState == RENDERER_BUILDING_STATE_BUILDING) {
         return STATE_PREPARING;
@@ -371,14 +536,122 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     }
     // Complete preparation.
     this.videoRenderer = renderers[TrackInfo.TYPE_VIDEO];
+    this.audioRenderer = renderers[TrackInfo.TYPE_AUDIO];
     this.codecCounters = videoRenderer instanceof MediaCodecTrackRenderer
         ? ((MediaCodecTrackRenderer) videoRenderer).codecCounters
         : renderers[TrackInfo.TYPE_AUDIO] instanceof MediaCodecTrackRenderer
         ? ((MediaCodecTrackRenderer) renderers[TrackInfo.TYPE_AUDIO]).codecCounters : null;
+    if (videoRenderer instanceof InstrumentedVideoTrackRenderer) {
+      ((InstrumentedVideoTrackRenderer) videoRenderer).setRenderStatsSampler(renderStatsSampler);
+    }
+    renderStatsSampler.onSessionStarted(videoRenderer instanceof MediaCodecTrackRenderer
+        ? ((MediaCodecTrackRenderer) videoRenderer).codecCounters : null);
     this.bandwidthMeter = bandwidthMeter;
+    onStartupPhase(StartupTrace.PHASE_RENDERERS_BUILT);
     pushSurface(false);
     player.prepare(renderers);
     rendererBuildingState = RENDERER_BUILDING_STATE_BUILT;
+    if (liveLatencyController != null) {
+      liveLatencyController.start(this, mainHandler);
+    }
+  }
+
+  /**
+   * Invoked by a {@link RendererBuilder} of a live stream, before {@link #onRenderers}.
+   */
+  void setLiveLatencyController(LiveLatencyController liveLatencyController) {
+    this.liveLatencyController = liveLatencyController;
+  }
+
+  /**
+   * Invoked by a {@link RendererBuilder} that knows the segment boundaries of the stream, before
+   * {@link #onRenderers}. Enables {@link #SEEK_MODE_FAST}.
+   */
+  void setSegmentBoundaries(SegmentBoundaries segmentBoundaries) {
+    this.segmentBoundaries = segmentBoundaries;
+  }
+
+  /**
+   * Invoked by a {@link RendererBuilder} of a stream with thumbnails, before {@link #onRenderers}.
+   */
+  void setThumbnailProvider(ThumbnailProvider thumbnailProvider) {
+    releaseThumbnailProvider();
+    this.thumbnailProvider = thumbnailProvider;
+  }
+
+  /**
+   * Returns the provider of the preview thumbnails of the current stream, or null if the stream
+   * has none. The provider is released when the player is prepared again or released.
+   */
+  public ThumbnailProvider getThumbnailProvider() {
+    return thumbnailProvider;
+  }
+
+  /**
+   * Invoked by a {@link RendererBuilder} that requested a license ahead of the renderers, before
+   * {@link #onRenderers}.
+   */
+  void setDrmSessionPrefetch(PrefetchingDrmSessionManager drmSessionPrefetch) {
+    cancelDrmSessionPrefetch();
+    this.drmSessionPrefetch = drmSessionPrefetch;
+  }
+
+  private void cancelDrmSessionPrefetch() {
+    if (drmSessionPrefetch != null) {
+      // A no-op if the renderers took over the session.
+      drmSessionPrefetch.cancelPrefetch();
+      drmSessionPrefetch = null;
+    }
+  }
+
+  /**
+   * Invoked by a {@link RendererBuilder} that prefetches segments, before {@link #onRenderers}.
+   * The prefetcher is released when the session ends.
+   */
+  void setSegmentPrefetcher(SegmentPrefetcher segmentPrefetcher) {
+    releaseSegmentPrefetcher();
+    this.segmentPrefetcher = segmentPrefetcher;
+  }
+
+  private void releaseSegmentPrefetcher() {
+    if (segmentPrefetcher != null) {
+      segmentPrefetcher.release();
+      segmentPrefetcher = null;
+    }
+  }
+
+  private void releaseThumbnailProvider() {
+    if (thumbnailProvider != null) {
+      thumbnailProvider.release();
+      thumbnailProvider = null;
+    }
+  }
+
+  private void releaseBandwidthMeter() {
+    if (bandwidthMeter instanceof BandwidthEstimator) {
+      // Persists the estimate of the session for the next one.
+      ((BandwidthEstimator) bandwidthMeter).release();
+    }
+    bandwidthMeter = null;
+  }
+
+  private void stopLiveLatencyController() {
+    if (liveLatencyController != null) {
+      liveLatencyController.stop();
+      liveLatencyController = null;
+    }
+  }
+
+  /**
+   * Changes the playback speed, keeping the pitch. Only supported from API level 23, ignored
+   * before.
+   */
+  @TargetApi(23)
+  void setPlaybackSpeed(float speed) {
+    if (Util.SDK_INT >= 23 && audioRenderer instanceof MediaCodecAudioTrackRenderer) {
+      player.sendMessage(audioRenderer, MediaCodecAudioTrackRenderer.MSG_SET_PLAYBACK_PARAMS,
+          new PlaybackParams().setSpeed(speed));
+    }
   }
 
   /**
@@ -387,34 +660,151 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
    * @param e Describes the error.
    */
   void onRenderersError(Exception e) {
-    if (internalErrorListener != null) {
-      internalErrorListener.onRendererInitializationError(e);
-    }
+    metricsCollector.onRendererInitializationError(e);
+    eventBus.dispatchRendererInitializationError(e);
     for (Listener listener : listeners) {
       listener.onError(e);
     }
     rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+    finishStartupTrace(true);
     maybeReportPlayerState();
   }
 
+  /**
+   * Records a startup phase of the current session. Phases after startup are ignored.
+   *
+   * @param phase One of the {@code PHASE_*} constants of {@link StartupTrace}.
+   */
+  void onStartupPhase(int phase) {
+    if (startupTrace != null && startupTrace.mark(phase, SystemClock.elapsedRealtime())) {
+      maybeFinishStartupTrace();
+    }
+  }
+
+  /**
+   * Finishes the startup trace once the first frame is rendered, or once ready for streams without
+   * video. A prewarmed player may render it while paused, so its trace is only finished once
+   * {@link #prepare()} starts playback.
+   */
+  private void maybeFinishStartupTrace() {
+    if (prewarmed) {
+      return;
+    }
+    if (startupTrace.getTimestampMs(StartupTrace.PHASE_FIRST_FRAME) != StartupTrace.NOT_REACHED
+        || (startupTrace.getTimestampMs(StartupTrace.PHASE_READY) != StartupTrace.NOT_REACHED
+        && player.getTrackCount(TrackInfo.TYPE_VIDEO) == 0)) {
+      finishStartupTrace(false);
+    }
+  }
+
+  /**
+   * Returns the startup timelines of the last sessions of this player, oldest first.
+   */
+  public List<StartupTrace> getStartupTraces() {
+    return new ArrayList<>(startupTraces);
+  }
+
+  private void finishStartupTrace(boolean failed) {
+    if (startupTrace == null || startupTrace.isFinished()) {
+      return;
+    }
+    startupTrace.finish(failed);
+    if (startupTraces.size() == MAX_STARTUP_TRACES) {
+      startupTraces.removeFirst();
+    }
+    startupTraces.addLast(startupTrace);
+    eventBus.dispatchStartupTrace(startupTrace);
+  }
+
+  /**
+   * Sets how {@link #seekTo(long)} and the {@link PlayerControl} pick the position to seek to.
+   *
+   * @param seekMode {@link #SEEK_MODE_EXACT}, the default, or {@link #SEEK_MODE_FAST}.
+   */
+  public void setSeekMode(int seekMode) {
+    this.seekMode = seekMode;
+  }
+
   public void seekTo(long positionMs) {
+    if (seekMode == SEEK_MODE_FAST && segmentBoundaries != null) {
+      positionMs = segmentBoundaries.getNearestBoundaryMs(positionMs);
+    }
+    long nowMs = SystemClock.elapsedRealtime();
+    if (pendingSeekPositionMs != NO_PENDING_SEEK) {
+      // The replaced seek completes now, so every seek is reported once.
+      eventBus.dispatchSeekCompleted(pendingSeekPositionMs, nowMs - seekStartTimeMs);
+    }
+    pendingSeekPositionMs = positionMs;
+    metricsCollector.onSeek();
+    seekStartTimeMs = nowMs;
+    // A player that is already buffering does not report the state again.
+    seekBuffering = player.getPlaybackState() == STATE_BUFFERING;
     player.seekTo(positionMs);
   }
 
+  private void maybeReportSeekCompleted(int playbackState) {
+    if (pendingSeekPositionMs == NO_PENDING_SEEK) {
+      return;
+    }
+    if (playbackState == STATE_BUFFERING) {
+      // Ready states reported before the seek was processed must not complete it.
+      seekBuffering = true;
+    } else if ((playbackState == STATE_READY && seekBuffering) || playbackState == STATE_ENDED
+        || playbackState == STATE_IDLE) {
+      long seekPositionMs = pendingSeekPositionMs;
+      pendingSeekPositionMs = NO_PENDING_SEEK;
+      if (playbackState != STATE_IDLE) {
+        eventBus.dispatchSeekCompleted(seekPositionMs,
+            SystemClock.elapsedRealtime() - seekStartTimeMs);
+      }
+    }
+  }
+
 // ------------------------ MediaPlayer metadata information ------------------------
 
   public Format getFormat() {
     return videoFormat;
   }
 
+  /**
+   * Bandwidth estimate of the current session. For adaptive streams this is a
+   * {@link BandwidthEstimator}, which starts from the estimate of the previous session on the same
+   * network.
+   */
   public BandwidthMeter getBandwidthMeter() {
     return bandwidthMeter;
   }
 
+  /**
+   * Quality of experience metrics of the current session, collected whether or not listeners are
+   * set.
+   */
+  public PlaybackMetricsCollector getMetricsCollector() {
+    return metricsCollector;
+  }
+
   public CodecCounters getCodecCounters() {
     return codecCounters;
   }
 
+  /**
+   * Render statistics of the video decoder in the current session. Frame rates and buffer levels
+   * are only sampled once {@link RenderStatsSampler#start()} is called.
+   */
+  public RenderStatsSampler getRenderStatsSampler() {
+    return renderStatsSampler;
+  }
+
+  /**
+   * Segment cache configured through {@link PlayerConfiguration#setSegmentCache}. Its hit, miss
+   * and eviction counters are shared by every player using the same cache.
+   *
+   * @return The cache, or null if segment caching is disabled.
+   */
+  public SegmentCache getSegmentCache() {
+    return segmentCache;
+  }
+
   public long getCurrentPosition() {
     return player.getCurrentPosition();
   }
@@ -423,6 +813,20 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
     return player.getDuration();
   }
 
+  public long getBufferedPosition() {
+    return player.getBufferedPosition();
+  }
+
+  /**
+   * How far playback of a live DASH stream is behind real time.
+   *
+   * @return The latency in milliseconds, or -1 if the stream is not live or not playing.
+   */
+  public long getLiveLatencyMs() {
+    return liveLatencyController != null ? liveLatencyController.getLatencyMs()
+        : LiveLatencyController.UNKNOWN_LATENCY;
+  }
+
   public int getBufferedPercentage() {
       return player.getBufferedPercentage();
   }
@@ -443,12 +847,18 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   @Override
   public void onPlayerStateChanged(boolean playWhenReady, int state) {
+    metricsCollector.onStateChanged(playWhenReady, state);
+    if (state == STATE_READY) {
+      onStartupPhase(StartupTrace.PHASE_READY);
+    }
+    maybeReportSeekCompleted(state);
     maybeReportPlayerState();
   }
 
   @Override
   public void onPlayerError(ExoPlaybackException exception) {
     rendererBuildingState = RENDERER_BUILDING_STATE_IDLE;
+    finishStartupTrace(true);
     for (Listener listener : listeners) {
       listener.onError(exception);
     }
@@ -464,113 +874,93 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   @Override
   public void onDroppedFrames(int count, long elapsed) {
-    if (infoListener != null) {
-        infoListener.onDroppedFrames(count, elapsed);
-    }
+    metricsCollector.onDroppedFrames(count, elapsed);
+    eventBus.dispatchDroppedFrames(count, elapsed);
   }
 
   @Override
   public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
-    if (infoListener != null) {
-       infoListener.onBandwidthSample(elapsedMs, bytes, bitrateEstimate);
-    }
+    eventBus.dispatchBandwidthSample(elapsedMs, bytes, bitrateEstimate);
   }
 
   @Override
   public void onDownstreamFormatChanged(int sourceId, Format format, int trigger,
       long mediaTimeMs) {
-    if (infoListener == null) {
-      return;
-    }
     if (sourceId == TrackInfo.TYPE_VIDEO) {
       videoFormat = format;
-      infoListener.onVideoFormatEnabled(format, trigger, mediaTimeMs);
+      metricsCollector.onVideoFormatEnabled(format, trigger, mediaTimeMs);
+      eventBus.dispatchVideoFormatEnabled(format, trigger, mediaTimeMs);
     } else if (sourceId == TrackInfo.TYPE_AUDIO) {
-      infoListener.onAudioFormatEnabled(format, trigger, mediaTimeMs);
+      eventBus.dispatchAudioFormatEnabled(format, trigger, mediaTimeMs);
     }
   }
 
   @Override
   public void onDrmKeysLoaded() {
-    // Do nothing.
+    onStartupPhase(StartupTrace.PHASE_DRM_KEYS_LOADED);
   }
 
   @Override
   public void onDrmSessionManagerError(Exception e) {
-    if (internalErrorListener != null) {
-      internalErrorListener.onDrmSessionManagerError(e);
-    }
+    eventBus.dispatchDrmSessionManagerError(e);
   }
 
   @Override
   public void onDecoderInitializationError(DecoderInitializationException e) {
-    if (internalErrorListener != null) {
-      internalErrorListener.onDecoderInitializationError(e);
-    }
+    eventBus.dispatchDecoderInitializationError(e);
   }
 
   @Override
   public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
-    if (internalErrorListener != null) {
-      internalErrorListener.onAudioTrackInitializationError(e);
-    }
+    eventBus.dispatchAudioTrackInitializationError(e);
   }
 
   @Override
   public void onAudioTrackWriteError(AudioTrack.WriteException e) {
-    if (internalErrorListener != null) {
-      internalErrorListener.onAudioTrackWriteError(e);
-    }
+    eventBus.dispatchAudioTrackWriteError(e);
   }
 
   @Override
   public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs, long elapsedSinceLastFeedMs) {
-    if (internalErrorListener != null) {
-        internalErrorListener.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
-    }
+    metricsCollector.onAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+    eventBus.dispatchAudioTrackUnderrun(bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
   }
 
   @Override
   public void onCryptoError(CryptoException e) {
-    if (internalErrorListener != null) {
-        internalErrorListener.onCryptoError(e);
-    }
+    eventBus.dispatchCryptoError(e);
   }
 
   @Override
   public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
       long initializationDurationMs) {
-      if (infoListener != null) {
-          infoListener.onDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
-    }
+    onStartupPhase(StartupTrace.PHASE_DECODER_INITIALIZED);
+    eventBus.dispatchDecoderInitialized(decoderName, elapsedRealtimeMs, initializationDurationMs);
   }
 
   @Override
   public void onLoadError(int sourceId, IOException e) {
-    if (internalErrorListener != null) {
-        internalErrorListener.onLoadError(sourceId, e);
-    }
+    metricsCollector.onLoadError(sourceId, e);
+    eventBus.dispatchLoadError(sourceId, e);
   }
 
   @Override
   public void onCues(List<Cue> cues) {
-    if (captionListener != null && getSelectedTrack(TrackInfo.TYPE_TEXT) != TRACK_DISABLED) {
-      captionListener.onCues(cues);
+    if (getSelectedTrack(TrackInfo.TYPE_TEXT) != TRACK_DISABLED) {
+      eventBus.dispatchCues(cues);
     }
   }
 
   @Override
   public void onMetadata(Map<String, Object> metadata) {
-    if (id3MetadataListener != null && getSelectedTrack(TrackInfo.TYPE_METADATA) != TRACK_DISABLED) {
-        id3MetadataListener.onId3Metadata(metadata);
+    if (getSelectedTrack(TrackInfo.TYPE_METADATA) != TRACK_DISABLED) {
+      eventBus.dispatchId3Metadata(metadata);
     }
   }
 
   @Override
   public void onAvailableRangeChanged(TimeRange availableRange) {
-      if (infoListener != null) {
-      infoListener.onAvailableRangeChanged(availableRange);
-    }
+    eventBus.dispatchAvailableRangeChanged(availableRange);
   }
 
   @Override
@@ -580,25 +970,23 @@ public class MediaPlayer implements ExoPlayer.Listener, ChunkSampleSource.EventL
 
   @Override
   public void onDrawnToSurface(Surface surface) {
-    // Do nothing.
+    onStartupPhase(StartupTrace.PHASE_FIRST_FRAME);
   }
 
   @Override
   public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
     long mediaStartTimeMs, long mediaEndTimeMs) {
-    if (infoListener != null) {
-        infoListener.onLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
-                mediaEndTimeMs);
-    }
+    eventBus.dispatchLoadStarted(sourceId, length, type, trigger, format, mediaStartTimeMs,
+        mediaEndTimeMs);
   }
 
   @Override
   public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger, Format format,
     long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs, long loadDurationMs) {
-    if (infoListener != null) {
-      infoListener.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
-               mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
-    }
+    metricsCollector.onLoadCompleted(sourceId, bytesLoaded, type, trigger, format,
+        mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
+    eventBus.dispatchLoadCompleted(sourceId, bytesLoaded, type, trigger, format, mediaStartTimeMs,
+        mediaEndTimeMs, elapsedRealtimeMs, loadDurationMs);
   }
 
   @Override
@@ -0,0 +1,112 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps a small number of {@link MediaPlayer} instances alive between playback sessions, and can
+ * prepare the next likely stream ahead of time.
+ * <p>
+ * Players obtained from {@link #acquire(Stream)} are used like freshly constructed ones and handed
+ * back through {@link #release(MediaPlayer)} instead of {@link MediaPlayer#release()}. The pool
+ * must be accessed from the thread the players were created on, usually the main thread.
+ */
+public final class MediaPlayerPool {
+
+  private final PlayerConfiguration configuration;
+  private final int maxSize;
+  private final ArrayDeque<MediaPlayer> idlePlayers;
+  private final LinkedHashMap<String, MediaPlayer> prewarmedPlayers;
+
+  /**
+   * @param configuration Configuration used for every player of the pool.
+   * @param maxSize Maximum number of idle and prewarmed players kept by the pool.
+   */
+  public MediaPlayerPool(PlayerConfiguration configuration, int maxSize) {
+    this.configuration = configuration;
+    this.maxSize = maxSize;
+    idlePlayers = new ArrayDeque<>();
+    prewarmedPlayers = new LinkedHashMap<>();
+  }
+
+  /**
+   * Returns a player for a stream. A player prewarmed for the same stream is returned with the
+   * data it has buffered, otherwise an idle player is reused or a new one created.
+   *
+   * @param stream Stream to be played.
+   */
+  public MediaPlayer acquire(Stream stream) {
+    MediaPlayer player = prewarmedPlayers.remove(stream.toString());
+    if (player != null) {
+      return player;
+    }
+    return obtainPlayer(stream);
+  }
+
+  /**
+   * Starts fetching the manifest, setting up DRM and downloading the first segments of a stream
+   * that is likely to be played next. Once the pool is full the oldest prewarmed stream is dropped.
+   *
+   * @param stream Stream to be prewarmed.
+   */
+  public void prewarm(Stream stream) {
+    String key = stream.toString();
+    if (prewarmedPlayers.containsKey(key)) {
+      return;
+    }
+    if (prewarmedPlayers.size() >= maxSize) {
+      Iterator<Map.Entry<String, MediaPlayer>> iterator = prewarmedPlayers.entrySet().iterator();
+      MediaPlayer eldest = iterator.next().getValue();
+      iterator.remove();
+      recycle(eldest);
+    }
+    MediaPlayer player = obtainPlayer(stream);
+    player.prewarm();
+    prewarmedPlayers.put(key, player);
+  }
+
+  /**
+   * Returns a player to the pool. It is stopped and kept for reuse if there is room, or released
+   * otherwise. The player must not be used by the caller afterwards.
+   *
+   * @param player Player obtained from {@link #acquire(Stream)}.
+   */
+  public void release(MediaPlayer player) {
+    recycle(player);
+  }
+
+  /**
+   * Releases every player held by the pool.
+   */
+  public void clear() {
+    for (MediaPlayer player : prewarmedPlayers.values()) {
+      player.release();
+    }
+    prewarmedPlayers.clear();
+    for (MediaPlayer player : idlePlayers) {
+      player.release();
+    }
+    idlePlayers.clear();
+  }
+
+  private MediaPlayer obtainPlayer(Stream stream) {
+    MediaPlayer player = idlePlayers.poll();
+    if (player == null) {
+      return new MediaPlayer(stream, configuration);
+    }
+    player.setStream(stream);
+    return player;
+  }
+
+  private void recycle(MediaPlayer player) {
+    if (idlePlayers.size() + prewarmedPlayers.size() < maxSize) {
+      player.recycle();
+      idlePlayers.add(player);
+    } else {
+      player.release();
+    }
+  }
+
+}
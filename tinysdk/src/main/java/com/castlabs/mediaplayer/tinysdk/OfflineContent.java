@@ -0,0 +1,345 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.net.Uri;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.dash.mpd.Representation.SingleSegmentRepresentation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.UriDataSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A DASH stream stored by {@link DownloadManager}, played back from local storage.
+ * <p>
+ * Requests are served from the downloaded files by matching them against the requests the manifest
+ * declares, so the manifest is parsed with its original URL and segment URLs are left untouched.
+ * Representations that were not downloaded are hidden from the track selectors.
+ */
+final class OfflineContent {
+
+  private static final String MANIFEST_FILE_NAME = "manifest";
+
+  private final File directory;
+  private final String url;
+  private final Set<String> requestedRepresentationIds;
+
+  private volatile Map<String, File> files;
+  private Set<String> representationIds;
+
+  public OfflineContent(File directory, String url, Set<String> requestedRepresentationIds) {
+    this.directory = directory;
+    this.url = url;
+    this.requestedRepresentationIds = requestedRepresentationIds;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Wraps a {@link DataSource} so that downloaded requests, including the manifest, are read from
+   * local storage. Other requests go to {@code upstream}.
+   */
+  public UriDataSource createDataSource(DataSource upstream) {
+    return new OfflineDataSource(upstream);
+  }
+
+  /**
+   * Wraps a {@link DashTrackSelector} so that it only selects downloaded representations.
+   */
+  public DashTrackSelector createTrackSelector(final DashTrackSelector trackSelector) {
+    return new DashTrackSelector() {
+      @Override
+      public void selectTracks(MediaPresentationDescription manifest, int periodIndex,
+          Output output) throws IOException {
+        trackSelector.selectTracks(manifest, periodIndex, new DownloadedTrackOutput(output));
+      }
+    };
+  }
+
+  static File getManifestFile(File directory) {
+    return new File(directory, MANIFEST_FILE_NAME);
+  }
+
+  static File getEntryFile(File directory, int entryIndex) {
+    return new File(directory, Integer.toString(entryIndex));
+  }
+
+  /**
+   * Returns the ids of the representations to download. Representations of adaptation sets without
+   * a requested one are not downloaded, unless no video or audio representation was requested at
+   * all, in which case the one with the highest bitrate is.
+   */
+  static Set<String> resolveRepresentationIds(MediaPresentationDescription manifest,
+      Set<String> requestedIds) {
+    Set<String> ids = new HashSet<>();
+    boolean videoRequested = false;
+    boolean audioRequested = false;
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      List<AdaptationSet> adaptationSets = manifest.getPeriod(i).adaptationSets;
+      for (int j = 0; j < adaptationSets.size(); j++) {
+        AdaptationSet adaptationSet = adaptationSets.get(j);
+        for (int k = 0; k < adaptationSet.representations.size(); k++) {
+          if (requestedIds.contains(adaptationSet.representations.get(k).format.id)) {
+            ids.add(adaptationSet.representations.get(k).format.id);
+            videoRequested |= adaptationSet.type == AdaptationSet.TYPE_VIDEO;
+            audioRequested |= adaptationSet.type == AdaptationSet.TYPE_AUDIO;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      List<AdaptationSet> adaptationSets = manifest.getPeriod(i).adaptationSets;
+      for (int j = 0; j < adaptationSets.size(); j++) {
+        AdaptationSet adaptationSet = adaptationSets.get(j);
+        if ((adaptationSet.type == AdaptationSet.TYPE_VIDEO && !videoRequested)
+            || (adaptationSet.type == AdaptationSet.TYPE_AUDIO && !audioRequested)) {
+          Representation highest = null;
+          for (int k = 0; k < adaptationSet.representations.size(); k++) {
+            Representation representation = adaptationSet.representations.get(k);
+            if (highest == null || representation.format.bitrate > highest.format.bitrate) {
+              highest = representation;
+            }
+          }
+          if (highest != null) {
+            ids.add(highest.format.id);
+          }
+        }
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the requests the chunk source makes for a set of representations, in a stable order.
+   * The position of a request in the list is the name of the file it is stored in.
+   */
+  static List<DataSpec> getRequests(MediaPresentationDescription manifest,
+      Set<String> representationIds) {
+    Map<String, DataSpec> requests = new LinkedHashMap<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      long periodDurationMs = manifest.getPeriodDuration(i);
+      long periodDurationUs = periodDurationMs == -1 ? C.UNKNOWN_TIME_US : periodDurationMs * 1000;
+      for (int j = 0; j < period.adaptationSets.size(); j++) {
+        List<Representation> representations = period.adaptationSets.get(j).representations;
+        for (int k = 0; k < representations.size(); k++) {
+          Representation representation = representations.get(k);
+          if (representationIds.contains(representation.format.id)) {
+            addRequests(requests, representation, periodDurationUs);
+          }
+        }
+      }
+    }
+    return new ArrayList<>(requests.values());
+  }
+
+  private static void addRequests(Map<String, DataSpec> requests, Representation representation,
+      long periodDurationUs) {
+    RangedUri initializationUri = representation.getInitializationUri();
+    RangedUri indexUri = representation.getIndexUri();
+    addRequest(requests, initializationUri);
+    addRequest(requests, indexUri);
+    // The chunk source requests both at once if they are adjacent.
+    if (initializationUri != null && indexUri != null) {
+      addRequest(requests, initializationUri.attemptMerge(indexUri));
+    }
+    DashSegmentIndex index = representation.getIndex();
+    if (index == null) {
+      // Segments are only known once the index is parsed. The whole file is stored instead and
+      // segment requests are served from it by range.
+      if (representation instanceof SingleSegmentRepresentation) {
+        Uri uri = ((SingleSegmentRepresentation) representation).uri;
+        requests.put(getKey(uri, 0, C.LENGTH_UNBOUNDED), new DataSpec(uri));
+      }
+      return;
+    }
+    int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+    if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED) {
+      return;
+    }
+    for (int i = index.getFirstSegmentNum(); i <= lastSegmentNum; i++) {
+      addRequest(requests, index.getSegmentUrl(i));
+    }
+  }
+
+  private static void addRequest(Map<String, DataSpec> requests, RangedUri rangedUri) {
+    if (rangedUri != null) {
+      Uri uri = rangedUri.getUri();
+      requests.put(getKey(uri, rangedUri.start, rangedUri.length),
+          new DataSpec(uri, rangedUri.start, rangedUri.length, null));
+    }
+  }
+
+  static String getKey(Uri uri, long position, long length) {
+    return uri + "@" + position + "+" + length;
+  }
+
+  /**
+   * Parses the stored manifest on first use and maps the downloaded requests to their files.
+   */
+  private synchronized void maybeLoad() throws IOException {
+    if (files != null) {
+      return;
+    }
+    MediaPresentationDescription manifest;
+    FileInputStream inputStream = new FileInputStream(getManifestFile(directory));
+    try {
+      manifest = new DashManifestParser().parse(url, inputStream);
+    } finally {
+      inputStream.close();
+    }
+    representationIds = resolveRepresentationIds(manifest, requestedRepresentationIds);
+    List<DataSpec> requests = getRequests(manifest, representationIds);
+    Map<String, File> files = new HashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      DataSpec request = requests.get(i);
+      File file = getEntryFile(directory, i);
+      if (file.exists()) {
+        files.put(getKey(request.uri, request.absoluteStreamPosition, request.length), file);
+      }
+    }
+    this.files = files;
+  }
+
+  private synchronized Set<String> getRepresentationIds() throws IOException {
+    maybeLoad();
+    return representationIds;
+  }
+
+  /**
+   * Passes on the selections of a track selector restricted to downloaded representations.
+   */
+  private final class DownloadedTrackOutput implements DashTrackSelector.Output {
+
+    private final DashTrackSelector.Output output;
+
+    public DownloadedTrackOutput(DashTrackSelector.Output output) {
+      this.output = output;
+    }
+
+    @Override
+    public void adaptiveTrack(MediaPresentationDescription manifest, int periodIndex,
+        int adaptationSetIndex, int[] representationIndices) {
+      List<Representation> representations =
+          manifest.getPeriod(periodIndex).adaptationSets.get(adaptationSetIndex).representations;
+      int[] downloadedIndices = new int[representationIndices.length];
+      int downloadedCount = 0;
+      for (int i = 0; i < representationIndices.length; i++) {
+        if (isDownloaded(representations.get(representationIndices[i]))) {
+          downloadedIndices[downloadedCount++] = representationIndices[i];
+        }
+      }
+      if (downloadedCount == 1) {
+        output.fixedTrack(manifest, periodIndex, adaptationSetIndex, downloadedIndices[0]);
+      } else if (downloadedCount > 1) {
+        int[] indices = new int[downloadedCount];
+        System.arraycopy(downloadedIndices, 0, indices, 0, downloadedCount);
+        output.adaptiveTrack(manifest, periodIndex, adaptationSetIndex, indices);
+      }
+    }
+
+    @Override
+    public void fixedTrack(MediaPresentationDescription manifest, int periodIndex,
+        int adaptationSetIndex, int representationIndex) {
+      Representation representation = manifest.getPeriod(periodIndex).adaptationSets
+          .get(adaptationSetIndex).representations.get(representationIndex);
+      if (isDownloaded(representation)) {
+        output.fixedTrack(manifest, periodIndex, adaptationSetIndex, representationIndex);
+      }
+    }
+
+    private boolean isDownloaded(Representation representation) {
+      try {
+        return getRepresentationIds().contains(representation.format.id);
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+  }
+
+  /**
+   * Reads downloaded requests from their files and forwards all others.
+   */
+  private final class OfflineDataSource implements UriDataSource {
+
+    private final DataSource upstream;
+    private final MappedFileDataSource fileDataSource;
+
+    private DataSource openedDataSource;
+    private String uri;
+
+    public OfflineDataSource(DataSource upstream) {
+      this.upstream = upstream;
+      fileDataSource = new MappedFileDataSource();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      uri = dataSpec.uri.toString();
+      if (url.equals(uri) && dataSpec.absoluteStreamPosition == 0) {
+        return openFile(getManifestFile(directory), 0, dataSpec.length);
+      }
+      maybeLoad();
+      File file = files.get(getKey(dataSpec.uri, dataSpec.absoluteStreamPosition,
+          dataSpec.length));
+      if (file != null) {
+        return openFile(file, 0, dataSpec.length);
+      }
+      // Segments of representations indexed in-band are ranges of the stored file.
+      file = files.get(getKey(dataSpec.uri, 0, C.LENGTH_UNBOUNDED));
+      if (file != null) {
+        return openFile(file, dataSpec.absoluteStreamPosition, dataSpec.length);
+      }
+      openedDataSource = upstream;
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      return openedDataSource.read(buffer, offset, readLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (openedDataSource != null) {
+        try {
+          openedDataSource.close();
+        } finally {
+          openedDataSource = null;
+        }
+      }
+    }
+
+    @Override
+    public String getUri() {
+      return uri;
+    }
+
+    private long openFile(File file, long position, long length) throws IOException {
+      openedDataSource = fileDataSource;
+      return fileDataSource.open(new DataSpec(Uri.fromFile(file), position, length, null));
+    }
+
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.annotation.TargetApi;
+import android.media.MediaCrypto;
+import android.media.MediaDrm;
+import android.os.Handler;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+
+/**
+ * A {@link DrmSessionManager} that restores the keys of a persisted offline license instead of
+ * requesting a license.
+ */
+@TargetApi(18)
+final class OfflineDrmSessionManager implements DrmSessionManager {
+
+  private final byte[] keySetId;
+  private final Handler eventHandler;
+  private final StreamingDrmSessionManager.EventListener eventListener;
+
+  private int openCount;
+  private int state;
+  private MediaDrm mediaDrm;
+  private byte[] sessionId;
+  private MediaCrypto mediaCrypto;
+  private Exception error;
+
+  public OfflineDrmSessionManager(byte[] keySetId, Handler eventHandler,
+      StreamingDrmSessionManager.EventListener eventListener) {
+    this.keySetId = keySetId;
+    this.eventHandler = eventHandler;
+    this.eventListener = eventListener;
+    state = STATE_CLOSED;
+  }
+
+  @Override
+  public synchronized void open(DrmInitData drmInitData) {
+    if (++openCount != 1) {
+      return;
+    }
+    try {
+      mediaDrm = new MediaDrm(StreamingDrmSessionManager.WIDEVINE_UUID);
+      sessionId = mediaDrm.openSession();
+      mediaDrm.restoreKeys(sessionId, keySetId);
+      mediaCrypto = new MediaCrypto(StreamingDrmSessionManager.WIDEVINE_UUID, sessionId);
+      state = STATE_OPENED_WITH_KEYS;
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onDrmKeysLoaded();
+        }
+      });
+    } catch (final Exception e) {
+      error = e;
+      state = STATE_ERROR;
+      eventHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          eventListener.onDrmSessionManagerError(e);
+        }
+      });
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (--openCount != 0) {
+      return;
+    }
+    state = STATE_CLOSED;
+    error = null;
+    if (mediaCrypto != null) {
+      mediaCrypto.release();
+      mediaCrypto = null;
+    }
+    if (sessionId != null) {
+      mediaDrm.closeSession(sessionId);
+      sessionId = null;
+    }
+    if (mediaDrm != null) {
+      mediaDrm.release();
+      mediaDrm = null;
+    }
+  }
+
+  @Override
+  public int getState() {
+    return state;
+  }
+
+  @Override
+  public MediaCrypto getMediaCrypto() {
+    return mediaCrypto;
+  }
+
+  @Override
+  public boolean requiresSecureDecoderComponent(String mimeType) {
+    return mediaCrypto.requiresSecureDecoderComponent(mimeType);
+  }
+
+  @Override
+  public Exception getError() {
+    return error;
+  }
+
+}
@@ -0,0 +1,183 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Stores the key set ids of offline licenses by key id, together with the time the license
+ * expires.
+ * <p>
+ * Expired entries are evicted when they are looked up and when the cache is loaded. If the cache
+ * is full, the entry expiring first makes room for a new one.
+ */
+final class OfflineLicenseCache {
+
+  private static final String TAG = "OfflineLicenseCache";
+
+  private static final String FILE_NAME = "licenses";
+
+  private final File file;
+  private final int maxEntries;
+  private final Map<String, Entry> entries;
+
+  private boolean loaded;
+
+  public OfflineLicenseCache(File cacheDir, int maxEntries) {
+    this.file = new File(cacheDir, FILE_NAME);
+    this.maxEntries = maxEntries;
+    entries = new HashMap<>();
+  }
+
+  /**
+   * Returns the key set id of an unexpired license for a key id, or null.
+   */
+  public synchronized byte[] get(String keyId) {
+    maybeLoad();
+    Entry entry = entries.get(keyId);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.isExpired(System.currentTimeMillis())) {
+      entries.remove(keyId);
+      write();
+      return null;
+    }
+    return entry.keySetId;
+  }
+
+  /**
+   * Stores the key set id of a license for all the key ids it covers.
+   *
+   * @param expiryTimeMs The wall clock time the license expires at, or {@link Long#MAX_VALUE}.
+   */
+  public synchronized void put(Iterable<String> keyIds, byte[] keySetId, long expiryTimeMs) {
+    maybeLoad();
+    for (String keyId : keyIds) {
+      if (!entries.containsKey(keyId) && entries.size() >= maxEntries) {
+        evictFirstExpiring();
+      }
+      entries.put(keyId, new Entry(keySetId, expiryTimeMs));
+    }
+    write();
+  }
+
+  public synchronized void remove(String keyId) {
+    maybeLoad();
+    if (entries.remove(keyId) != null) {
+      write();
+    }
+  }
+
+  private void evictFirstExpiring() {
+    String firstKeyId = null;
+    long firstExpiryTimeMs = Long.MAX_VALUE;
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      if (firstKeyId == null || entry.getValue().expiryTimeMs < firstExpiryTimeMs) {
+        firstKeyId = entry.getKey();
+        firstExpiryTimeMs = entry.getValue().expiryTimeMs;
+      }
+    }
+    entries.remove(firstKeyId);
+  }
+
+  private void maybeLoad() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!file.exists()) {
+      return;
+    }
+    long nowMs = System.currentTimeMillis();
+    boolean evicted = false;
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new FileInputStream(file));
+      int entryCount = input.readInt();
+      for (int i = 0; i < entryCount; i++) {
+        String keyId = input.readUTF();
+        long expiryTimeMs = input.readLong();
+        byte[] keySetId = new byte[input.readInt()];
+        input.readFully(keySetId);
+        Entry entry = new Entry(keySetId, expiryTimeMs);
+        if (entry.isExpired(nowMs)) {
+          evicted = true;
+        } else {
+          entries.put(keyId, entry);
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read offline licenses", e);
+    } finally {
+      closeQuietly(input);
+    }
+    if (evicted) {
+      write();
+    }
+  }
+
+  private void write() {
+    File tempFile = new File(file.getPath() + ".tmp");
+    DataOutputStream output = null;
+    try {
+      file.getParentFile().mkdirs();
+      output = new DataOutputStream(new FileOutputStream(tempFile));
+      output.writeInt(entries.size());
+      Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Map.Entry<String, Entry> entry = iterator.next();
+        output.writeUTF(entry.getKey());
+        output.writeLong(entry.getValue().expiryTimeMs);
+        output.writeInt(entry.getValue().keySetId.length);
+        output.write(entry.getValue().keySetId);
+      }
+      output.close();
+      output = null;
+      if (!tempFile.renameTo(file)) {
+        throw new IOException("Failed to rename " + tempFile);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write offline licenses", e);
+      tempFile.delete();
+    } finally {
+      closeQuietly(output);
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Do nothing.
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    public final byte[] keySetId;
+    public final long expiryTimeMs;
+
+    public Entry(byte[] keySetId, long expiryTimeMs) {
+      this.keySetId = keySetId;
+      this.expiryTimeMs = expiryTimeMs;
+    }
+
+    public boolean isExpired(long nowMs) {
+      return nowMs >= expiryTimeMs;
+    }
+
+  }
+
+}
@@ -0,0 +1,400 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.media.MediaCodec.CryptoException;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregates the events of a {@link MediaPlayer} into quality of experience metrics of the current
+ * session: join time, rebuffering, bitrate, quality switches, dropped frames and download
+ * throughput.
+ * <p>
+ * Every player has a collector, see {@link MediaPlayer#getMetricsCollector()}. Sessions start with
+ * each prepare. Events arrive on the main thread and are counted without locking, so
+ * {@link #getSnapshot()} can be called from any thread, for example by an uploader. Snapshots can
+ * also be delivered periodically through {@link #setSnapshotListener}.
+ */
+public final class PlaybackMetricsCollector implements MediaPlayer.InfoListener,
+    MediaPlayer.InternalErrorListener {
+
+  /**
+   * A listener for periodic snapshots.
+   */
+  public interface SnapshotListener {
+    void onMetricsSnapshot(Snapshot snapshot);
+  }
+
+  /**
+   * The metrics of a session at one point in time.
+   */
+  public static final class Snapshot {
+
+    /**
+     * Time from prepare until playback first started, or -1 if it has not started yet.
+     */
+    public final long joinTimeMs;
+    /**
+     * Time spent playing.
+     */
+    public final long playTimeMs;
+    /**
+     * Number of times playback stalled because the buffer ran empty. Seeks are not counted.
+     */
+    public final int rebufferCount;
+    /**
+     * Time spent stalled.
+     */
+    public final long rebufferTimeMs;
+    /**
+     * Average video bitrate of the loaded media, weighted by media duration, or -1 if unknown.
+     */
+    public final int averageBitrate;
+    /**
+     * Number of video quality switches after the first format.
+     */
+    public final int switchCount;
+    /**
+     * Number of dropped video frames.
+     */
+    public final int droppedFrames;
+    /**
+     * Average download throughput of the media loads in bits per second, or -1 if unknown.
+     */
+    public final long throughputBps;
+    /**
+     * Number of load errors, including those that were retried successfully.
+     */
+    public final int loadErrorCount;
+    /**
+     * Number of audio underruns.
+     */
+    public final int audioUnderrunCount;
+
+    private Snapshot(long joinTimeMs, long playTimeMs, int rebufferCount, long rebufferTimeMs,
+        int averageBitrate, int switchCount, int droppedFrames, long throughputBps,
+        int loadErrorCount, int audioUnderrunCount) {
+      this.joinTimeMs = joinTimeMs;
+      this.playTimeMs = playTimeMs;
+      this.rebufferCount = rebufferCount;
+      this.rebufferTimeMs = rebufferTimeMs;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+      this.droppedFrames = droppedFrames;
+      this.throughputBps = throughputBps;
+      this.loadErrorCount = loadErrorCount;
+      this.audioUnderrunCount = audioUnderrunCount;
+    }
+
+    /**
+     * Stalled time as a fraction of the time playing or stalled.
+     */
+    public float getRebufferRatio() {
+      long totalTimeMs = playTimeMs + rebufferTimeMs;
+      return totalTimeMs == 0 ? 0 : (float) rebufferTimeMs / totalTimeMs;
+    }
+
+    public float getDroppedFramesPerMinute() {
+      return playTimeMs == 0 ? 0 : droppedFrames * 60000f / playTimeMs;
+    }
+
+    /**
+     * Returns the snapshot as a compact record of {@code key=value} pairs.
+     */
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "join=%d;play=%d;rebuf=%d;rebufMs=%d;rebufRatio=%.4f;bitrate=%d;switches=%d;"
+          + "dropped=%d;droppedPerMin=%.2f;throughput=%d;loadErrors=%d;underruns=%d",
+          joinTimeMs, playTimeMs, rebufferCount, rebufferTimeMs, getRebufferRatio(),
+          averageBitrate, switchCount, droppedFrames, getDroppedFramesPerMinute(), throughputBps,
+          loadErrorCount, audioUnderrunCount);
+    }
+
+  }
+
+  private static final int PHASE_IDLE = 0;
+  private static final int PHASE_JOINING = 1;
+  private static final int PHASE_PLAYING = 2;
+  private static final int PHASE_REBUFFERING = 3;
+  private static final int PHASE_PAUSED = 4;
+
+  private final Handler handler;
+  private final Runnable snapshotRunnable;
+
+  private final AtomicLong joinTimeMs;
+  private final AtomicLong playTimeMs;
+  private final AtomicLong rebufferCount;
+  private final AtomicLong rebufferTimeMs;
+  private final AtomicLong bitrateDurationProduct;
+  private final AtomicLong bitrateDurationMs;
+  private final AtomicLong switchCount;
+  private final AtomicLong droppedFrames;
+  private final AtomicLong bytesLoaded;
+  private final AtomicLong loadDurationMs;
+  private final AtomicLong loadErrorCount;
+  private final AtomicLong audioUnderrunCount;
+
+  // Written on the main thread only.
+  private volatile int phase;
+  private volatile long phaseStartMs;
+  private long prepareTimeMs;
+  private boolean seeking;
+  private String videoFormatId;
+
+  private SnapshotListener snapshotListener;
+  private long snapshotIntervalMs;
+
+  PlaybackMetricsCollector(Handler handler) {
+    this.handler = handler;
+    joinTimeMs = new AtomicLong(-1);
+    playTimeMs = new AtomicLong();
+    rebufferCount = new AtomicLong();
+    rebufferTimeMs = new AtomicLong();
+    bitrateDurationProduct = new AtomicLong();
+    bitrateDurationMs = new AtomicLong();
+    switchCount = new AtomicLong();
+    droppedFrames = new AtomicLong();
+    bytesLoaded = new AtomicLong();
+    loadDurationMs = new AtomicLong();
+    loadErrorCount = new AtomicLong();
+    audioUnderrunCount = new AtomicLong();
+    snapshotRunnable = new Runnable() {
+      @Override
+      public void run() {
+        if (snapshotListener != null) {
+          snapshotListener.onMetricsSnapshot(getSnapshot());
+          PlaybackMetricsCollector.this.handler.postDelayed(this, snapshotIntervalMs);
+        }
+      }
+    };
+  }
+
+  /**
+   * Delivers a snapshot of the session periodically on the main thread.
+   *
+   * @param listener The listener, or null to stop delivering snapshots.
+   * @param intervalMs The interval between snapshots.
+   */
+  public void setSnapshotListener(SnapshotListener listener, long intervalMs) {
+    handler.removeCallbacks(snapshotRunnable);
+    snapshotListener = listener;
+    snapshotIntervalMs = intervalMs;
+    if (listener != null) {
+      handler.postDelayed(snapshotRunnable, intervalMs);
+    }
+  }
+
+  /**
+   * Returns the metrics of the current session. May be called from any thread.
+   */
+  public Snapshot getSnapshot() {
+    int currentPhase = phase;
+    long currentPhaseMs = SystemClock.elapsedRealtime() - phaseStartMs;
+    long playTime = playTimeMs.get() + (currentPhase == PHASE_PLAYING ? currentPhaseMs : 0);
+    long rebufferTime = rebufferTimeMs.get()
+        + (currentPhase == PHASE_REBUFFERING ? currentPhaseMs : 0);
+    long bitrateDuration = bitrateDurationMs.get();
+    long loadDuration = loadDurationMs.get();
+    return new Snapshot(joinTimeMs.get(), playTime, (int) rebufferCount.get(), rebufferTime,
+        bitrateDuration == 0 ? -1 : (int) (bitrateDurationProduct.get() / bitrateDuration),
+        (int) switchCount.get(), (int) droppedFrames.get(),
+        loadDuration == 0 ? -1 : bytesLoaded.get() * 8000 / loadDuration,
+        (int) loadErrorCount.get(), (int) audioUnderrunCount.get());
+  }
+
+  /**
+   * Starts a new session.
+   */
+  void onPrepare() {
+    joinTimeMs.set(-1);
+    playTimeMs.set(0);
+    rebufferCount.set(0);
+    rebufferTimeMs.set(0);
+    bitrateDurationProduct.set(0);
+    bitrateDurationMs.set(0);
+    switchCount.set(0);
+    droppedFrames.set(0);
+    bytesLoaded.set(0);
+    loadDurationMs.set(0);
+    loadErrorCount.set(0);
+    audioUnderrunCount.set(0);
+    prepareTimeMs = SystemClock.elapsedRealtime();
+    seeking = false;
+    videoFormatId = null;
+    setPhase(PHASE_JOINING);
+  }
+
+  /**
+   * Restarts the join time of a session that was prepared without playing, once playback is
+   * requested. What was buffered before then does not count towards it.
+   */
+  void onPlayRequested() {
+    prepareTimeMs = SystemClock.elapsedRealtime();
+    joinTimeMs.set(-1);
+  }
+
+  /**
+   * Marks the following buffering as caused by a seek rather than a stall.
+   */
+  void onSeek() {
+    seeking = true;
+  }
+
+  /**
+   * Stops the session and the periodic snapshots.
+   */
+  void release() {
+    setPhase(PHASE_IDLE);
+    setSnapshotListener(null, 0);
+  }
+
+  void onStateChanged(boolean playWhenReady, int playbackState) {
+    long nowMs = SystemClock.elapsedRealtime();
+    if (phase == PHASE_IDLE) {
+      return;
+    }
+    if (playbackState == MediaPlayer.STATE_READY) {
+      seeking = false;
+      if (!playWhenReady) {
+        setPhase(PHASE_PAUSED);
+        return;
+      }
+      if (joinTimeMs.get() == -1) {
+        joinTimeMs.set(nowMs - prepareTimeMs);
+      }
+      setPhase(PHASE_PLAYING);
+    } else if (playbackState == MediaPlayer.STATE_BUFFERING) {
+      if (phase == PHASE_PLAYING && !seeking) {
+        rebufferCount.incrementAndGet();
+        setPhase(PHASE_REBUFFERING);
+      } else if (phase != PHASE_JOINING && phase != PHASE_REBUFFERING) {
+        setPhase(PHASE_PAUSED);
+      }
+    } else if (playbackState == MediaPlayer.STATE_ENDED
+        || playbackState == MediaPlayer.STATE_IDLE) {
+      setPhase(PHASE_PAUSED);
+    }
+  }
+
+  private void setPhase(int newPhase) {
+    long nowMs = SystemClock.elapsedRealtime();
+    long phaseMs = nowMs - phaseStartMs;
+    if (phase == PHASE_PLAYING) {
+      playTimeMs.addAndGet(phaseMs);
+    } else if (phase == PHASE_REBUFFERING) {
+      rebufferTimeMs.addAndGet(phaseMs);
+    }
+    phaseStartMs = nowMs;
+    phase = newPhase;
+  }
+
+  // MediaPlayer.InfoListener implementation.
+
+  @Override
+  public void onVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    if (videoFormatId != null && !Util.areEqual(videoFormatId, format.id)) {
+      switchCount.incrementAndGet();
+    }
+    videoFormatId = format.id;
+  }
+
+  @Override
+  public void onAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onDroppedFrames(int count, long elapsed) {
+    droppedFrames.addAndGet(count);
+  }
+
+  @Override
+  public void onBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+      long mediaStartTimeMs, long mediaEndTimeMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+      Format format, long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+      long loadDurationMs) {
+    this.bytesLoaded.addAndGet(bytesLoaded);
+    this.loadDurationMs.addAndGet(loadDurationMs);
+    long mediaDurationMs = mediaEndTimeMs - mediaStartTimeMs;
+    if (sourceId == TrackInfo.TYPE_VIDEO && format != null && format.bitrate > 0
+        && mediaDurationMs > 0) {
+      bitrateDurationProduct.addAndGet(format.bitrate * mediaDurationMs);
+      bitrateDurationMs.addAndGet(mediaDurationMs);
+    }
+  }
+
+  @Override
+  public void onDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+      long initializationDurationMs) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAvailableRangeChanged(TimeRange availableRange) {
+    // Do nothing.
+  }
+
+  // MediaPlayer.InternalErrorListener implementation.
+
+  @Override
+  public void onRendererInitializationError(Exception e) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioTrackInitializationError(AudioTrack.InitializationException e) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioTrackWriteError(AudioTrack.WriteException e) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onAudioTrackUnderrun(int bufferSize, long bufferSizeMs,
+      long elapsedSinceLastFeedMs) {
+    audioUnderrunCount.incrementAndGet();
+  }
+
+  @Override
+  public void onDecoderInitializationError(DecoderInitializationException e) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onCryptoError(CryptoException e) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadError(int sourceId, IOException e) {
+    loadErrorCount.incrementAndGet();
+  }
+
+  @Override
+  public void onDrmSessionManagerError(Exception e) {
+    // Do nothing.
+  }
+
+}
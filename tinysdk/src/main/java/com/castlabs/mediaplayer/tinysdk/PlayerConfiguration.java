@@ -4,16 +4,125 @@ import android.content.Context;
 
 public class PlayerConfiguration {
 
+    public static final int DEFAULT_LIVE_TARGET_LATENCY_MS = 30000;
+
     private String userAgent;
     private Context appContext;
+    private SegmentCache segmentCache;
+    private ManifestCache manifestCache;
+    private BufferPolicy bufferPolicy;
+    private AbrStrategy abrStrategy = AbrStrategy.THROUGHPUT;
+    private int segmentPrefetchCount;
+    private int liveTargetLatencyMs = DEFAULT_LIVE_TARGET_LATENCY_MS;
+    private boolean lowLatencyLive;
+    private SegmentIndexCache segmentIndexCache;
+    private DrmLicenseManager drmLicenseManager;
 
     public PlayerConfiguration (Context appContext, String userAgent) {
         this.userAgent = userAgent;
         this.appContext = appContext;
+        this.segmentIndexCache = new SegmentIndexCache(SegmentIndexCache.DEFAULT_MAX_BYTES);
+        DeviceCapabilities.preload(appContext);
     }
 
     public Context getAppContext() { return appContext; }
 
     public String getUserAgent() { return userAgent; }
 
+    /**
+     * Enables caching of DASH segments on disk. Disabled by default.
+     *
+     * @param segmentCache Cache shared by every player using this directory, or null to disable it.
+     */
+    public void setSegmentCache(SegmentCache segmentCache) { this.segmentCache = segmentCache; }
+
+    public SegmentCache getSegmentCache() { return segmentCache; }
+
+    /**
+     * Enables caching of DASH manifests in memory and on disk. Disabled by default.
+     *
+     * @param manifestCache Cache shared by every player using this directory, or null to disable it.
+     */
+    public void setManifestCache(ManifestCache manifestCache) { this.manifestCache = manifestCache; }
+
+    public ManifestCache getManifestCache() { return manifestCache; }
+
+    /**
+     * Sets the buffering policy. Defaults to the preset for the device, see
+     * {@link BufferPolicy#forDevice(Context)}.
+     */
+    public void setBufferPolicy(BufferPolicy bufferPolicy) { this.bufferPolicy = bufferPolicy; }
+
+    public BufferPolicy getBufferPolicy() {
+        if (bufferPolicy == null) {
+            bufferPolicy = BufferPolicy.forDevice(appContext);
+        }
+        return bufferPolicy;
+    }
+
+    /**
+     * Sets the adaptive bitrate algorithm for video. Defaults to {@link AbrStrategy#THROUGHPUT}.
+     * Streams may override it, see {@link Stream#setAbrStrategy(AbrStrategy)}.
+     */
+    public void setAbrStrategy(AbrStrategy abrStrategy) { this.abrStrategy = abrStrategy; }
+
+    public AbrStrategy getAbrStrategy() { return abrStrategy; }
+
+    /**
+     * Enables parallel loading of DASH segments for static manifests. Disabled by default.
+     *
+     * @param segmentPrefetchCount Number of segments requested ahead of the one being loaded, per
+     *     track, or 0 to disable prefetching.
+     */
+    public void setSegmentPrefetchCount(int segmentPrefetchCount) {
+        this.segmentPrefetchCount = segmentPrefetchCount;
+    }
+
+    public int getSegmentPrefetchCount() { return segmentPrefetchCount; }
+
+    /**
+     * Sets how far behind the live edge playback of live DASH and SmoothStreaming streams starts.
+     * Defaults to {@link #DEFAULT_LIVE_TARGET_LATENCY_MS}.
+     */
+    public void setLiveTargetLatencyMs(int liveTargetLatencyMs) {
+        this.liveTargetLatencyMs = liveTargetLatencyMs;
+    }
+
+    public int getLiveTargetLatencyMs() { return liveTargetLatencyMs; }
+
+    /**
+     * Enables low latency playback of live DASH streams. Segments announced through
+     * availabilityTimeOffset are loaded while they are produced and the playback speed is nudged
+     * between 0.95x and 1.05x to hold the target latency. Disabled by default.
+     */
+    public void setLowLatencyLive(boolean lowLatencyLive) { this.lowLatencyLive = lowLatencyLive; }
+
+    public boolean isLowLatencyLive() { return lowLatencyLive; }
+
+    /**
+     * Sets the in-memory cache for DASH initialization segments and segment indexes. Enabled by
+     * default with {@link SegmentIndexCache#DEFAULT_MAX_BYTES}.
+     *
+     * @param segmentIndexCache Cache shared by every player using this configuration, or null to
+     *     disable it.
+     */
+    public void setSegmentIndexCache(SegmentIndexCache segmentIndexCache) {
+        this.segmentIndexCache = segmentIndexCache;
+    }
+
+    public SegmentIndexCache getSegmentIndexCache() { return segmentIndexCache; }
+
+    /**
+     * Sets the manager acquiring the licenses of protected DASH streams. Its callback also performs
+     * the license requests of protected SmoothStreaming streams. Without one, protected DASH and
+     * SmoothStreaming streams fail to prepare.
+     *
+     * @param drmLicenseManager Manager shared by every player using this configuration, or null.
+     */
+    public void setDrmLicenseManager(DrmLicenseManager drmLicenseManager) {
+        this.drmLicenseManager = drmLicenseManager;
+    }
+
+    public DrmLicenseManager getDrmLicenseManager() { return drmLicenseManager; }
+
 }
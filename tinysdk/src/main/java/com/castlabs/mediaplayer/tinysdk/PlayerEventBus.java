@@ -0,0 +1,640 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.media.MediaCodec.CryptoException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+import com.google.android.exoplayer.MediaCodecTrackRenderer.DecoderInitializationException;
+import com.google.android.exoplayer.TimeRange;
+import com.google.android.exoplayer.audio.AudioTrack;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.text.Cue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers the events of a {@link MediaPlayer} to any number of subscribers per listener type.
+ * <p>
+ * Subscribers are called on the main thread by default. Subscribers doing slow work, such as
+ * analytics, can instead ask for delivery on a background thread shared by the bus, so that they
+ * do not delay rendering and UI updates. Events for them are carried by objects taken from a
+ * preallocated pool, with primitive arguments stored unboxed. Subscriber lists are copied on
+ * change, so dispatching does not allocate either.
+ */
+public final class PlayerEventBus implements Handler.Callback {
+
+  private static final int EVENT_VIDEO_FORMAT_ENABLED = 0;
+  private static final int EVENT_AUDIO_FORMAT_ENABLED = 1;
+  private static final int EVENT_DROPPED_FRAMES = 2;
+  private static final int EVENT_BANDWIDTH_SAMPLE = 3;
+  private static final int EVENT_LOAD_STARTED = 4;
+  private static final int EVENT_LOAD_COMPLETED = 5;
+  private static final int EVENT_DECODER_INITIALIZED = 6;
+  private static final int EVENT_AVAILABLE_RANGE_CHANGED = 7;
+  private static final int EVENT_RENDERER_INITIALIZATION_ERROR = 8;
+  private static final int EVENT_AUDIO_TRACK_INITIALIZATION_ERROR = 9;
+  private static final int EVENT_AUDIO_TRACK_WRITE_ERROR = 10;
+  private static final int EVENT_AUDIO_TRACK_UNDERRUN = 11;
+  private static final int EVENT_DECODER_INITIALIZATION_ERROR = 12;
+  private static final int EVENT_CRYPTO_ERROR = 13;
+  private static final int EVENT_LOAD_ERROR = 14;
+  private static final int EVENT_DRM_SESSION_MANAGER_ERROR = 15;
+  private static final int EVENT_CUES = 16;
+  private static final int EVENT_ID3_METADATA = 17;
+  private static final int EVENT_SEEK_COMPLETED = 18;
+  private static final int EVENT_STARTUP_TRACE = 19;
+
+  private static final int EVENT_POOL_SIZE = 64;
+
+  private final SubscriberList<MediaPlayer.InfoListener> infoSubscribers;
+  private final SubscriberList<MediaPlayer.InternalErrorListener> internalErrorSubscribers;
+  private final SubscriberList<MediaPlayer.CaptionListener> captionSubscribers;
+  private final SubscriberList<MediaPlayer.Id3MetadataListener> id3MetadataSubscribers;
+  private final SubscriberList<MediaPlayer.SeekListener> seekSubscribers;
+  private final SubscriberList<MediaPlayer.StartupTraceListener> startupTraceSubscribers;
+  private final Event[] eventPool;
+
+  private int eventPoolSize;
+  private HandlerThread asyncThread;
+  private Handler asyncHandler;
+
+  PlayerEventBus() {
+    infoSubscribers = new SubscriberList<>();
+    internalErrorSubscribers = new SubscriberList<>();
+    captionSubscribers = new SubscriberList<>();
+    id3MetadataSubscribers = new SubscriberList<>();
+    seekSubscribers = new SubscriberList<>();
+    startupTraceSubscribers = new SubscriberList<>();
+    eventPool = new Event[EVENT_POOL_SIZE];
+    for (int i = 0; i < EVENT_POOL_SIZE; i++) {
+      eventPool[i] = new Event();
+    }
+    eventPoolSize = EVENT_POOL_SIZE;
+  }
+
+  // Subscription. Subscribers passing async receive their events on a background thread.
+
+  public void addInfoListener(MediaPlayer.InfoListener listener) {
+    addInfoListener(listener, false);
+  }
+
+  public void addInfoListener(MediaPlayer.InfoListener listener, boolean async) {
+    infoSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeInfoListener(MediaPlayer.InfoListener listener) {
+    infoSubscribers.remove(listener);
+  }
+
+  public void addInternalErrorListener(MediaPlayer.InternalErrorListener listener) {
+    addInternalErrorListener(listener, false);
+  }
+
+  public void addInternalErrorListener(MediaPlayer.InternalErrorListener listener,
+      boolean async) {
+    internalErrorSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeInternalErrorListener(MediaPlayer.InternalErrorListener listener) {
+    internalErrorSubscribers.remove(listener);
+  }
+
+  public void addCaptionListener(MediaPlayer.CaptionListener listener) {
+    addCaptionListener(listener, false);
+  }
+
+  public void addCaptionListener(MediaPlayer.CaptionListener listener, boolean async) {
+    captionSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeCaptionListener(MediaPlayer.CaptionListener listener) {
+    captionSubscribers.remove(listener);
+  }
+
+  public void addMetadataListener(MediaPlayer.Id3MetadataListener listener) {
+    addMetadataListener(listener, false);
+  }
+
+  public void addMetadataListener(MediaPlayer.Id3MetadataListener listener, boolean async) {
+    id3MetadataSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeMetadataListener(MediaPlayer.Id3MetadataListener listener) {
+    id3MetadataSubscribers.remove(listener);
+  }
+
+  public void addSeekListener(MediaPlayer.SeekListener listener) {
+    addSeekListener(listener, false);
+  }
+
+  public void addSeekListener(MediaPlayer.SeekListener listener, boolean async) {
+    seekSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeSeekListener(MediaPlayer.SeekListener listener) {
+    seekSubscribers.remove(listener);
+  }
+
+  public void addStartupTraceListener(MediaPlayer.StartupTraceListener listener) {
+    addStartupTraceListener(listener, false);
+  }
+
+  public void addStartupTraceListener(MediaPlayer.StartupTraceListener listener,
+      boolean async) {
+    startupTraceSubscribers.add(listener, async);
+    maybeStartAsyncThread(async);
+  }
+
+  public void removeStartupTraceListener(MediaPlayer.StartupTraceListener listener) {
+    startupTraceSubscribers.remove(listener);
+  }
+
+  /**
+   * Removes all subscribers.
+   */
+  void clear() {
+    infoSubscribers.clear();
+    internalErrorSubscribers.clear();
+    captionSubscribers.clear();
+    id3MetadataSubscribers.clear();
+    seekSubscribers.clear();
+    startupTraceSubscribers.clear();
+  }
+
+  /**
+   * Removes all subscribers and stops the background thread. Events already queued for it are
+   * dropped.
+   */
+  synchronized void release() {
+    clear();
+    if (asyncThread != null) {
+      asyncThread.quit();
+      asyncThread = null;
+      asyncHandler = null;
+    }
+  }
+
+  // Dispatch, called on the main thread.
+
+  void dispatchVideoFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_VIDEO_FORMAT_ENABLED, subscriber).set(format)
+            .set(trigger, 0, 0).set(mediaTimeMs, 0, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onVideoFormatEnabled(format, trigger,
+            mediaTimeMs);
+      }
+    }
+  }
+
+  void dispatchAudioFormatEnabled(Format format, int trigger, long mediaTimeMs) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_AUDIO_FORMAT_ENABLED, subscriber).set(format)
+            .set(trigger, 0, 0).set(mediaTimeMs, 0, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onAudioFormatEnabled(format, trigger,
+            mediaTimeMs);
+      }
+    }
+  }
+
+  void dispatchDroppedFrames(int count, long elapsed) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_DROPPED_FRAMES, subscriber).set(count, 0, 0)
+            .set(elapsed, 0, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onDroppedFrames(count, elapsed);
+      }
+    }
+  }
+
+  void dispatchBandwidthSample(int elapsedMs, long bytes, long bitrateEstimate) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_BANDWIDTH_SAMPLE, subscriber).set(elapsedMs, 0, 0)
+            .set(bytes, bitrateEstimate, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onBandwidthSample(elapsedMs, bytes,
+            bitrateEstimate);
+      }
+    }
+  }
+
+  void dispatchLoadStarted(int sourceId, long length, int type, int trigger, Format format,
+      long mediaStartTimeMs, long mediaEndTimeMs) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_LOAD_STARTED, subscriber).set(format)
+            .set(sourceId, type, trigger).set(length, mediaStartTimeMs, mediaEndTimeMs, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onLoadStarted(sourceId, length, type,
+            trigger, format, mediaStartTimeMs, mediaEndTimeMs);
+      }
+    }
+  }
+
+  void dispatchLoadCompleted(int sourceId, long bytesLoaded, int type, int trigger,
+      Format format, long mediaStartTimeMs, long mediaEndTimeMs, long elapsedRealtimeMs,
+      long loadDurationMs) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_LOAD_COMPLETED, subscriber).set(format)
+            .set(sourceId, type, trigger).set(bytesLoaded, mediaStartTimeMs, mediaEndTimeMs,
+                elapsedRealtimeMs, loadDurationMs));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onLoadCompleted(sourceId, bytesLoaded,
+            type, trigger, format, mediaStartTimeMs, mediaEndTimeMs, elapsedRealtimeMs,
+            loadDurationMs);
+      }
+    }
+  }
+
+  void dispatchDecoderInitialized(String decoderName, long elapsedRealtimeMs,
+      long initializationDurationMs) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_DECODER_INITIALIZED, subscriber).set(decoderName)
+            .set(elapsedRealtimeMs, initializationDurationMs, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onDecoderInitialized(decoderName,
+            elapsedRealtimeMs, initializationDurationMs);
+      }
+    }
+  }
+
+  void dispatchAvailableRangeChanged(TimeRange availableRange) {
+    Subscriber[] subscribers = infoSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_AVAILABLE_RANGE_CHANGED, subscriber).set(availableRange));
+      } else {
+        ((MediaPlayer.InfoListener) subscriber.listener).onAvailableRangeChanged(availableRange);
+      }
+    }
+  }
+
+  void dispatchRendererInitializationError(Exception e) {
+    dispatchInternalError(EVENT_RENDERER_INITIALIZATION_ERROR, e);
+  }
+
+  void dispatchAudioTrackInitializationError(AudioTrack.InitializationException e) {
+    dispatchInternalError(EVENT_AUDIO_TRACK_INITIALIZATION_ERROR, e);
+  }
+
+  void dispatchAudioTrackWriteError(AudioTrack.WriteException e) {
+    dispatchInternalError(EVENT_AUDIO_TRACK_WRITE_ERROR, e);
+  }
+
+  void dispatchAudioTrackUnderrun(int bufferSize, long bufferSizeMs,
+      long elapsedSinceLastFeedMs) {
+    Subscriber[] subscribers = internalErrorSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_AUDIO_TRACK_UNDERRUN, subscriber).set(bufferSize, 0, 0)
+            .set(bufferSizeMs, elapsedSinceLastFeedMs, 0, 0, 0));
+      } else {
+        ((MediaPlayer.InternalErrorListener) subscriber.listener).onAudioTrackUnderrun(
+            bufferSize, bufferSizeMs, elapsedSinceLastFeedMs);
+      }
+    }
+  }
+
+  void dispatchDecoderInitializationError(DecoderInitializationException e) {
+    dispatchInternalError(EVENT_DECODER_INITIALIZATION_ERROR, e);
+  }
+
+  void dispatchCryptoError(CryptoException e) {
+    dispatchInternalError(EVENT_CRYPTO_ERROR, e);
+  }
+
+  void dispatchLoadError(int sourceId, IOException e) {
+    Subscriber[] subscribers = internalErrorSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_LOAD_ERROR, subscriber).set(e).set(sourceId, 0, 0));
+      } else {
+        ((MediaPlayer.InternalErrorListener) subscriber.listener).onLoadError(sourceId, e);
+      }
+    }
+  }
+
+  void dispatchDrmSessionManagerError(Exception e) {
+    dispatchInternalError(EVENT_DRM_SESSION_MANAGER_ERROR, e);
+  }
+
+  void dispatchCues(List<Cue> cues) {
+    Subscriber[] subscribers = captionSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_CUES, subscriber).set(cues));
+      } else {
+        ((MediaPlayer.CaptionListener) subscriber.listener).onCues(cues);
+      }
+    }
+  }
+
+  void dispatchId3Metadata(Map<String, Object> metadata) {
+    Subscriber[] subscribers = id3MetadataSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_ID3_METADATA, subscriber).set(metadata));
+      } else {
+        ((MediaPlayer.Id3MetadataListener) subscriber.listener).onId3Metadata(metadata);
+      }
+    }
+  }
+
+  void dispatchSeekCompleted(long positionMs, long seekLatencyMs) {
+    Subscriber[] subscribers = seekSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_SEEK_COMPLETED, subscriber)
+            .set(positionMs, seekLatencyMs, 0, 0, 0));
+      } else {
+        ((MediaPlayer.SeekListener) subscriber.listener).onSeekCompleted(positionMs,
+            seekLatencyMs);
+      }
+    }
+  }
+
+  void dispatchStartupTrace(StartupTrace trace) {
+    Subscriber[] subscribers = startupTraceSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(EVENT_STARTUP_TRACE, subscriber).set(trace));
+      } else {
+        ((MediaPlayer.StartupTraceListener) subscriber.listener).onStartupTrace(trace);
+      }
+    }
+  }
+
+  private void dispatchInternalError(int type, Exception e) {
+    Subscriber[] subscribers = internalErrorSubscribers.get();
+    for (int i = 0; i < subscribers.length; i++) {
+      Subscriber subscriber = subscribers[i];
+      if (subscriber.async) {
+        post(obtainEvent(type, subscriber).set(e));
+      } else {
+        deliver(type, subscriber.listener, e);
+      }
+    }
+  }
+
+  // Asynchronous delivery.
+
+  @Override
+  public boolean handleMessage(Message message) {
+    Event event = (Event) message.obj;
+    Object listener = event.subscriber.listener;
+    switch (event.type) {
+      case EVENT_VIDEO_FORMAT_ENABLED:
+        ((MediaPlayer.InfoListener) listener).onVideoFormatEnabled((Format) event.object0,
+            event.int0, event.long0);
+        break;
+      case EVENT_AUDIO_FORMAT_ENABLED:
+        ((MediaPlayer.InfoListener) listener).onAudioFormatEnabled((Format) event.object0,
+            event.int0, event.long0);
+        break;
+      case EVENT_DROPPED_FRAMES:
+        ((MediaPlayer.InfoListener) listener).onDroppedFrames(event.int0, event.long0);
+        break;
+      case EVENT_BANDWIDTH_SAMPLE:
+        ((MediaPlayer.InfoListener) listener).onBandwidthSample(event.int0, event.long0,
+            event.long1);
+        break;
+      case EVENT_LOAD_STARTED:
+        ((MediaPlayer.InfoListener) listener).onLoadStarted(event.int0, event.long0, event.int1,
+            event.int2, (Format) event.object0, event.long1, event.long2);
+        break;
+      case EVENT_LOAD_COMPLETED:
+        ((MediaPlayer.InfoListener) listener).onLoadCompleted(event.int0, event.long0,
+            event.int1, event.int2, (Format) event.object0, event.long1, event.long2,
+            event.long3, event.long4);
+        break;
+      case EVENT_DECODER_INITIALIZED:
+        ((MediaPlayer.InfoListener) listener).onDecoderInitialized((String) event.object0,
+            event.long0, event.long1);
+        break;
+      case EVENT_AVAILABLE_RANGE_CHANGED:
+        ((MediaPlayer.InfoListener) listener).onAvailableRangeChanged(
+            (TimeRange) event.object0);
+        break;
+      case EVENT_AUDIO_TRACK_UNDERRUN:
+        ((MediaPlayer.InternalErrorListener) listener).onAudioTrackUnderrun(event.int0,
+            event.long0, event.long1);
+        break;
+      case EVENT_LOAD_ERROR:
+        ((MediaPlayer.InternalErrorListener) listener).onLoadError(event.int0,
+            (IOException) event.object0);
+        break;
+      case EVENT_CUES:
+        @SuppressWarnings("unchecked")
+        List<Cue> cues = (List<Cue>) event.object0;
+        ((MediaPlayer.CaptionListener) listener).onCues(cues);
+        break;
+      case EVENT_ID3_METADATA:
+        @SuppressWarnings("unchecked")
+        Map<String, Object> metadata = (Map<String, Object>) event.object0;
+        ((MediaPlayer.Id3MetadataListener) listener).onId3Metadata(metadata);
+        break;
+      case EVENT_SEEK_COMPLETED:
+        ((MediaPlayer.SeekListener) listener).onSeekCompleted(event.long0, event.long1);
+        break;
+      case EVENT_STARTUP_TRACE:
+        ((MediaPlayer.StartupTraceListener) listener).onStartupTrace(
+            (StartupTrace) event.object0);
+        break;
+      default:
+        deliver(event.type, listener, (Exception) event.object0);
+        break;
+    }
+    recycleEvent(event);
+    return true;
+  }
+
+  private static void deliver(int type, Object listener, Exception e) {
+    MediaPlayer.InternalErrorListener errorListener = (MediaPlayer.InternalErrorListener) listener;
+    switch (type) {
+      case EVENT_RENDERER_INITIALIZATION_ERROR:
+        errorListener.onRendererInitializationError(e);
+        break;
+      case EVENT_AUDIO_TRACK_INITIALIZATION_ERROR:
+        errorListener.onAudioTrackInitializationError((AudioTrack.InitializationException) e);
+        break;
+      case EVENT_AUDIO_TRACK_WRITE_ERROR:
+        errorListener.onAudioTrackWriteError((AudioTrack.WriteException) e);
+        break;
+      case EVENT_DECODER_INITIALIZATION_ERROR:
+        errorListener.onDecoderInitializationError((DecoderInitializationException) e);
+        break;
+      case EVENT_CRYPTO_ERROR:
+        errorListener.onCryptoError((CryptoException) e);
+        break;
+      case EVENT_DRM_SESSION_MANAGER_ERROR:
+        errorListener.onDrmSessionManagerError(e);
+        break;
+      default:
+        throw new IllegalStateException("Unexpected event type: " + type);
+    }
+  }
+
+  private synchronized void maybeStartAsyncThread(boolean async) {
+    if (async && asyncThread == null) {
+      asyncThread = new HandlerThread("PlayerEventBus:Async");
+      asyncThread.start();
+      asyncHandler = new Handler(asyncThread.getLooper(), this);
+    }
+  }
+
+  private synchronized void post(Event event) {
+    if (asyncHandler == null) {
+      recycleEvent(event);
+      return;
+    }
+    Message.obtain(asyncHandler, 0, event).sendToTarget();
+  }
+
+  private synchronized Event obtainEvent(int type, Subscriber subscriber) {
+    // Allocate only if the background subscribers fall behind by more than the pool size.
+    Event event = eventPoolSize > 0 ? eventPool[--eventPoolSize] : new Event();
+    event.type = type;
+    event.subscriber = subscriber;
+    return event;
+  }
+
+  private synchronized void recycleEvent(Event event) {
+    event.subscriber = null;
+    event.object0 = null;
+    if (eventPoolSize < EVENT_POOL_SIZE) {
+      eventPool[eventPoolSize++] = event;
+    }
+  }
+
+  private static final class Subscriber {
+
+    public final Object listener;
+    public final boolean async;
+
+    public Subscriber(Object listener, boolean async) {
+      this.listener = listener;
+      this.async = async;
+    }
+
+  }
+
+  /**
+   * The subscribers of one listener type. The array is replaced on every change, so it can be
+   * iterated without locking or copying.
+   */
+  private static final class SubscriberList<T> {
+
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    private volatile Subscriber[] subscribers;
+
+    public SubscriberList() {
+      subscribers = EMPTY;
+    }
+
+    public Subscriber[] get() {
+      return subscribers;
+    }
+
+    public synchronized void add(T listener, boolean async) {
+      Subscriber[] newSubscribers = new Subscriber[subscribers.length + 1];
+      System.arraycopy(subscribers, 0, newSubscribers, 0, subscribers.length);
+      newSubscribers[subscribers.length] = new Subscriber(listener, async);
+      subscribers = newSubscribers;
+    }
+
+    public synchronized void remove(T listener) {
+      for (int i = 0; i < subscribers.length; i++) {
+        if (subscribers[i].listener == listener) {
+          Subscriber[] newSubscribers = new Subscriber[subscribers.length - 1];
+          System.arraycopy(subscribers, 0, newSubscribers, 0, i);
+          System.arraycopy(subscribers, i + 1, newSubscribers, i, subscribers.length - i - 1);
+          subscribers = newSubscribers;
+          return;
+        }
+      }
+    }
+
+    public synchronized void clear() {
+      subscribers = EMPTY;
+    }
+
+  }
+
+  /**
+   * The arguments of an event for a background subscriber.
+   */
+  private static final class Event {
+
+    public int type;
+    public Subscriber subscriber;
+    public int int0;
+    public int int1;
+    public int int2;
+    public long long0;
+    public long long1;
+    public long long2;
+    public long long3;
+    public long long4;
+    public Object object0;
+
+    public Event set(Object object0) {
+      this.object0 = object0;
+      return this;
+    }
+
+    public Event set(int int0, int int1, int int2) {
+      this.int0 = int0;
+      this.int1 = int1;
+      this.int2 = int2;
+      return this;
+    }
+
+    public Event set(long long0, long long1, long long2, long long3, long long4) {
+      this.long0 = long0;
+      this.long1 = long1;
+      this.long2 = long2;
+      this.long3 = long3;
+      this.long4 = long4;
+      return this;
+    }
+
+  }
+
+}
@@ -0,0 +1,84 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.annotation.TargetApi;
+import android.media.MediaCrypto;
+
+import com.google.android.exoplayer.drm.DrmInitData;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+
+/**
+ * A {@link DrmSessionManager} that can open its session before the renderers do.
+ * <p>
+ * Renderers open their session once they have read the PSSH box of an initialization segment.
+ * Opening it with the PSSH of the manifest instead lets the license request run in parallel with
+ * the first segment downloads. The first renderer to open the session takes over the reference
+ * held by the prefetch, so that the session is released when the renderers close it.
+ */
+@TargetApi(18)
+final class PrefetchingDrmSessionManager implements DrmSessionManager {
+
+  private final StreamingDrmSessionManager sessionManager;
+
+  private boolean prefetched;
+
+  public PrefetchingDrmSessionManager(StreamingDrmSessionManager sessionManager) {
+    this.sessionManager = sessionManager;
+  }
+
+  /**
+   * Opens the session and requests the license for the given initialization data.
+   */
+  public synchronized void prefetch(DrmInitData drmInitData) {
+    if (prefetched) {
+      return;
+    }
+    sessionManager.open(drmInitData);
+    prefetched = true;
+  }
+
+  /**
+   * Closes the session opened by {@link #prefetch}, unless a renderer took it over.
+   */
+  public synchronized void cancelPrefetch() {
+    if (prefetched) {
+      prefetched = false;
+      sessionManager.close();
+    }
+  }
+
+  @Override
+  public synchronized void open(DrmInitData drmInitData) {
+    if (prefetched) {
+      prefetched = false;
+      return;
+    }
+    sessionManager.open(drmInitData);
+  }
+
+  @Override
+  public synchronized void close() {
+    sessionManager.close();
+  }
+
+  @Override
+  public int getState() {
+    return sessionManager.getState();
+  }
+
+  @Override
+  public MediaCrypto getMediaCrypto() {
+    return sessionManager.getMediaCrypto();
+  }
+
+  @Override
+  public boolean requiresSecureDecoderComponent(String mimeType) {
+    return sessionManager.requiresSecureDecoderComponent(mimeType);
+  }
+
+  @Override
+  public Exception getError() {
+    return sessionManager.getError();
+  }
+
+}
@@ -0,0 +1,78 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.castlabs.mediaplayer.tinysdk.MediaPlayer.RendererBuilder;
+import com.castlabs.mediaplayer.tinysdk.Stream.SourceType;
+import com.google.android.exoplayer.upstream.Loader;
+import com.google.android.exoplayer.upstream.Loader.Loadable;
+
+import java.io.IOException;
+
+/**
+ * A {@link RendererBuilder} for streams whose type cannot be inferred from the URI. The stream is
+ * probed without blocking the caller and building is then delegated to the matching builder.
+ */
+class ProbingRendererBuilder implements RendererBuilder, Loader.Callback {
+
+  private final Stream stream;
+  private final PlayerConfiguration configuration;
+
+  private Loader loader;
+  private MediaPlayer player;
+  private RendererBuilder delegate;
+
+  ProbingRendererBuilder(Stream stream, PlayerConfiguration configuration) {
+    this.stream = stream;
+    this.configuration = configuration;
+  }
+
+  @Override
+  public void buildRenderers(MediaPlayer player) {
+    if (delegate != null) {
+      delegate.buildRenderers(player);
+      return;
+    }
+    this.player = player;
+    loader = new Loader("Loader:StreamTypeProbe");
+    loader.startLoading(player.getMainHandler().getLooper(),
+        new StreamTypeDetector.Probe(stream.getUri(), configuration.getUserAgent()), this);
+  }
+
+  @Override
+  public void cancel() {
+    releaseLoader();
+    player = null;
+    if (delegate != null) {
+      delegate.cancel();
+    }
+  }
+
+  // Loader.Callback implementation.
+
+  @Override
+  public void onLoadCompleted(Loadable loadable) {
+    releaseLoader();
+    SourceType type = ((StreamTypeDetector.Probe) loadable).getResult();
+    stream.setType(type);
+    delegate = RendererBuilderFactory.createRendererBuilder(stream, configuration);
+    delegate.buildRenderers(player);
+  }
+
+  @Override
+  public void onLoadCanceled(Loadable loadable) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onLoadError(Loadable loadable, IOException e) {
+    releaseLoader();
+    player.onRenderersError(e);
+  }
+
+  private void releaseLoader() {
+    if (loader != null) {
+      loader.release();
+      loader = null;
+    }
+  }
+
+}
@@ -0,0 +1,313 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.google.android.exoplayer.CodecCounters;
+import com.google.android.exoplayer.ExoPlayer;
+
+import java.util.Locale;
+
+/**
+ * Samples the rendering of the video decoder of a {@link MediaPlayer} in the background.
+ * <p>
+ * While started, the sampler polls the {@link CodecCounters} of the video renderer at a fixed
+ * interval and derives the rendered, dropped and skipped frames per second of the last interval.
+ * Every poll also notes whether playback is starved, that is waiting for data while it should
+ * play, and how far the buffer reaches ahead of the playback position. How late each output
+ * buffer was released compared to its presentation time is recorded by the video renderer as it
+ * happens. Distributions are kept in log-linear histograms, so percentiles are reported to
+ * within 6.25%.
+ */
+public final class RenderStatsSampler {
+
+  public static final int DEFAULT_INTERVAL_MS = 1000;
+
+  /**
+   * An immutable distribution of recorded values.
+   */
+  public static final class Distribution {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    Distribution(long[] counts, long count, long sum, long max) {
+      this.counts = counts;
+      this.count = count;
+      this.sum = sum;
+      this.max = max;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMax() {
+      return max;
+    }
+
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value below or at which a percentage of the recorded values lie.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The value, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(LatencyHistogram.getHighestValue(i), max);
+        }
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "n=%d,p50=%d,p90=%d,p99=%d,max=%d", count,
+          getPercentile(50), getPercentile(90), getPercentile(99), max);
+    }
+
+  }
+
+  /**
+   * The render statistics of a session at one point in time.
+   */
+  public static final class Snapshot {
+
+    /**
+     * Frames rendered per second in the last interval.
+     */
+    public final float renderedFramesPerSecond;
+    /**
+     * Frames dropped for being late per second in the last interval.
+     */
+    public final float droppedFramesPerSecond;
+    /**
+     * Frames skipped, for example after a seek, per second in the last interval.
+     */
+    public final float skippedFramesPerSecond;
+    /**
+     * Frames rendered since the session started.
+     */
+    public final long renderedFrames;
+    /**
+     * Frames dropped since the session started.
+     */
+    public final long droppedFrames;
+    /**
+     * Frames skipped since the session started.
+     */
+    public final long skippedFrames;
+    /**
+     * Number of polls since the session started.
+     */
+    public final int sampleCount;
+    /**
+     * Number of polls that found playback waiting for data while it should play.
+     */
+    public final int starvedSampleCount;
+    /**
+     * How late output buffers were released compared to their presentation time, in
+     * microseconds. Buffers released early count as 0.
+     */
+    public final Distribution outputLatencyUs;
+    /**
+     * How far the buffer reached ahead of the playback position at each poll, in milliseconds.
+     */
+    public final Distribution bufferAheadMs;
+
+    private Snapshot(float renderedFramesPerSecond, float droppedFramesPerSecond,
+        float skippedFramesPerSecond, long renderedFrames, long droppedFrames, long skippedFrames,
+        int sampleCount, int starvedSampleCount, Distribution outputLatencyUs,
+        Distribution bufferAheadMs) {
+      this.renderedFramesPerSecond = renderedFramesPerSecond;
+      this.droppedFramesPerSecond = droppedFramesPerSecond;
+      this.skippedFramesPerSecond = skippedFramesPerSecond;
+      this.renderedFrames = renderedFrames;
+      this.droppedFrames = droppedFrames;
+      this.skippedFrames = skippedFrames;
+      this.sampleCount = sampleCount;
+      this.starvedSampleCount = starvedSampleCount;
+      this.outputLatencyUs = outputLatencyUs;
+      this.bufferAheadMs = bufferAheadMs;
+    }
+
+    /**
+     * Returns the snapshot as a compact record of {@code key=value} pairs.
+     */
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "renderedFps=%.2f;droppedFps=%.2f;skippedFps=%.2f;rendered=%d;dropped=%d;skipped=%d;"
+          + "samples=%d;starved=%d;latencyUs=%s;bufferAheadMs=%s",
+          renderedFramesPerSecond, droppedFramesPerSecond, skippedFramesPerSecond,
+          renderedFrames, droppedFrames, skippedFrames, sampleCount, starvedSampleCount,
+          outputLatencyUs, bufferAheadMs);
+    }
+
+  }
+
+  private final ExoPlayer player;
+  private final LatencyHistogram outputLatencyUs;
+  private final LatencyHistogram bufferAheadMs;
+  private final Runnable pollRunnable;
+
+  private HandlerThread thread;
+  private Handler handler;
+  private long intervalMs;
+
+  // Guarded by this.
+  private CodecCounters codecCounters;
+  private long lastPollTimeMs;
+  private int lastRenderedCount;
+  private int lastDroppedCount;
+  private int lastSkippedCount;
+  private float renderedFramesPerSecond;
+  private float droppedFramesPerSecond;
+  private float skippedFramesPerSecond;
+  private long renderedFrames;
+  private long droppedFrames;
+  private long skippedFrames;
+  private int sampleCount;
+  private int starvedSampleCount;
+
+  RenderStatsSampler(ExoPlayer player) {
+    this.player = player;
+    outputLatencyUs = new LatencyHistogram();
+    bufferAheadMs = new LatencyHistogram();
+    pollRunnable = new Runnable() {
+      @Override
+      public void run() {
+        poll();
+        synchronized (RenderStatsSampler.this) {
+          if (handler != null) {
+            handler.postDelayed(this, intervalMs);
+          }
+        }
+      }
+    };
+  }
+
+  public void start() {
+    start(DEFAULT_INTERVAL_MS);
+  }
+
+  /**
+   * Starts polling on a background thread, or changes the interval if polling already.
+   */
+  public synchronized void start(long intervalMs) {
+    if (thread == null) {
+      thread = new HandlerThread("RenderStatsSampler");
+      thread.start();
+      handler = new Handler(thread.getLooper());
+    }
+    this.intervalMs = intervalMs;
+    lastPollTimeMs = SystemClock.elapsedRealtime();
+    handler.removeCallbacks(pollRunnable);
+    handler.postDelayed(pollRunnable, intervalMs);
+  }
+
+  /**
+   * Stops polling and the background thread. The statistics gathered so far are kept.
+   */
+  public synchronized void stop() {
+    if (thread != null) {
+      handler.removeCallbacks(pollRunnable);
+      thread.quit();
+      thread = null;
+      handler = null;
+    }
+  }
+
+  public synchronized boolean isStarted() {
+    return thread != null;
+  }
+
+  /**
+   * Returns the render statistics of the current session. May be called from any thread.
+   */
+  public synchronized Snapshot getSnapshot() {
+    return new Snapshot(renderedFramesPerSecond, droppedFramesPerSecond, skippedFramesPerSecond,
+        renderedFrames, droppedFrames, skippedFrames, sampleCount, starvedSampleCount,
+        outputLatencyUs.snapshot(), bufferAheadMs.snapshot());
+  }
+
+  /**
+   * Invoked by the video renderer on the playback thread for every output buffer it releases.
+   */
+  void onOutputBufferReleased(long lateUs) {
+    outputLatencyUs.record(lateUs);
+  }
+
+  /**
+   * Starts a session with the counters of a new video renderer, or null if it has none.
+   */
+  synchronized void onSessionStarted(CodecCounters codecCounters) {
+    reset();
+    this.codecCounters = codecCounters;
+  }
+
+  /**
+   * Drops the statistics of the current session.
+   */
+  synchronized void reset() {
+    codecCounters = null;
+    lastPollTimeMs = SystemClock.elapsedRealtime();
+    lastRenderedCount = 0;
+    lastDroppedCount = 0;
+    lastSkippedCount = 0;
+    renderedFramesPerSecond = 0;
+    droppedFramesPerSecond = 0;
+    skippedFramesPerSecond = 0;
+    renderedFrames = 0;
+    droppedFrames = 0;
+    skippedFrames = 0;
+    sampleCount = 0;
+    starvedSampleCount = 0;
+    outputLatencyUs.reset();
+    bufferAheadMs.reset();
+  }
+
+  private synchronized void poll() {
+    long nowMs = SystemClock.elapsedRealtime();
+    long elapsedMs = Math.max(1, nowMs - lastPollTimeMs);
+    lastPollTimeMs = nowMs;
+    if (codecCounters != null) {
+      codecCounters.ensureUpdated();
+      int renderedCount = codecCounters.renderedOutputBufferCount;
+      int droppedCount = codecCounters.droppedOutputBufferCount;
+      int skippedCount = codecCounters.skippedOutputBufferCount;
+      renderedFramesPerSecond = (renderedCount - lastRenderedCount) * 1000f / elapsedMs;
+      droppedFramesPerSecond = (droppedCount - lastDroppedCount) * 1000f / elapsedMs;
+      skippedFramesPerSecond = (skippedCount - lastSkippedCount) * 1000f / elapsedMs;
+      renderedFrames = renderedCount;
+      droppedFrames = droppedCount;
+      skippedFrames = skippedCount;
+      lastRenderedCount = renderedCount;
+      lastDroppedCount = droppedCount;
+      lastSkippedCount = skippedCount;
+    }
+    sampleCount++;
+    if (player.getPlayWhenReady() && player.getPlaybackState() == ExoPlayer.STATE_BUFFERING) {
+      starvedSampleCount++;
+    }
+    long bufferedPositionMs = player.getBufferedPosition();
+    if (bufferedPositionMs != ExoPlayer.UNKNOWN_TIME) {
+      bufferAheadMs.record(bufferedPositionMs - player.getCurrentPosition());
+    }
+  }
+
+}
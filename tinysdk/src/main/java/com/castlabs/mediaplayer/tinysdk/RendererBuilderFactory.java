@@ -1,23 +1,27 @@
 package com.castlabs.mediaplayer.tinysdk;
 
-import android.content.Context;
-
 import com.castlabs.mediaplayer.tinysdk.MediaPlayer.RendererBuilder;
 
 public class RendererBuilderFactory {
 
    static RendererBuilder createRendererBuilder (Stream playable, PlayerConfiguration playerConfiguration){
-       Context appContext = playerConfiguration.getAppContext();
-       String userAgent = playerConfiguration.getUserAgent();
+       AbrStrategy abrStrategy = playable.getAbrStrategy() != null
+               ? playable.getAbrStrategy() : playerConfiguration.getAbrStrategy();
         switch (playable.getType()) {
             case HLS:
-                return new SmoothStreamingRendererBuilder(appContext, userAgent, playable.toString(), null);
+                return new HLSRendererBuilder(playerConfiguration, playable.toString());
             case MPEG_DASH:
-                return new DashRendererBuilder(appContext, userAgent, playable.toString(), null);
+                return new DashRendererBuilder(playerConfiguration, playable.toString(), null, abrStrategy,
+                        playable.getOfflineContent());
             case SS:
-                return new HLSRendererBuilder(appContext, userAgent, playable.toString(), null);
+                return new SmoothStreamingRendererBuilder(playerConfiguration, playable.toString(), null,
+                        abrStrategy);
+            case OTHER:
+                return new ExtractorRendererBuilder(playerConfiguration, playable.getUri());
+            case UNKNOWN:
+                return new ProbingRendererBuilder(playable, playerConfiguration);
             default:
-                throw new IllegalStateException("Unsupported type: ");
+                throw new IllegalStateException("Unsupported type: " + playable.getType());
         }
     }
 
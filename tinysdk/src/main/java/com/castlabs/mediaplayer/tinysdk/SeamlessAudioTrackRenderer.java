@@ -0,0 +1,54 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.media.MediaCodec;
+import android.os.Handler;
+
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.SampleSource;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.drm.DrmSessionManager;
+import com.google.android.exoplayer.util.Util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link MediaCodecAudioTrackRenderer} that keeps its decoder across format changes that do not
+ * change the decoder configuration.
+ * <p>
+ * Every DASH period boundary is a format change, even if the period carries the same encoding. The
+ * base renderer releases and recreates the decoder on each one, which interrupts the audio.
+ */
+final class SeamlessAudioTrackRenderer extends MediaCodecAudioTrackRenderer {
+
+  public SeamlessAudioTrackRenderer(SampleSource source, DrmSessionManager drmSessionManager,
+      boolean playClearSamplesWithoutKeys, Handler eventHandler, EventListener eventListener,
+      AudioCapabilities audioCapabilities) {
+    super(source, drmSessionManager, playClearSamplesWithoutKeys, eventHandler, eventListener,
+        audioCapabilities);
+  }
+
+  @Override
+  protected boolean canReconfigureCodec(MediaCodec codec, boolean codecIsAdaptive,
+      MediaFormat oldFormat, MediaFormat newFormat) {
+    return Util.areEqual(oldFormat.mimeType, newFormat.mimeType)
+        && oldFormat.channelCount == newFormat.channelCount
+        && oldFormat.sampleRate == newFormat.sampleRate
+        && areEqual(oldFormat.initializationData, newFormat.initializationData);
+  }
+
+  private static boolean areEqual(List<byte[]> initializationData,
+      List<byte[]> otherInitializationData) {
+    if (initializationData.size() != otherInitializationData.size()) {
+      return false;
+    }
+    for (int i = 0; i < initializationData.size(); i++) {
+      if (!Arrays.equals(initializationData.get(i), otherInitializationData.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
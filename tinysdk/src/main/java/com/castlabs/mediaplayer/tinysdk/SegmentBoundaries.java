@@ -0,0 +1,70 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+
+/**
+ * Looks up the segment boundaries of a DASH manifest, where segments start with a keyframe.
+ * <p>
+ * Playback started at a boundary does not have to decode the frames between the preceding keyframe
+ * and the requested position first. Boundaries are taken from the first video representation,
+ * assuming segments are aligned across representations. Representations indexed in-band are not
+ * supported.
+ */
+final class SegmentBoundaries {
+
+  private final MediaPresentationDescription manifest;
+
+  public SegmentBoundaries(MediaPresentationDescription manifest) {
+    this.manifest = manifest;
+  }
+
+  /**
+   * Returns the segment boundary closest to a position.
+   *
+   * @param positionMs The position in milliseconds.
+   * @return The position of the boundary, or {@code positionMs} if it is unknown.
+   */
+  public long getNearestBoundaryMs(long positionMs) {
+    for (int i = manifest.getPeriodCount() - 1; i >= 0; i--) {
+      Period period = manifest.getPeriod(i);
+      if (period.startMs <= positionMs) {
+        return getNearestBoundaryMs(period, manifest.getPeriodDuration(i), positionMs);
+      }
+    }
+    return positionMs;
+  }
+
+  private static long getNearestBoundaryMs(Period period, long periodDurationMs,
+      long positionMs) {
+    DashSegmentIndex index = getVideoSegmentIndex(period);
+    if (index == null) {
+      return positionMs;
+    }
+    long periodDurationUs = periodDurationMs == -1 ? C.UNKNOWN_TIME_US : periodDurationMs * 1000;
+    long periodPositionUs = (positionMs - period.startMs) * 1000;
+    int segmentNum = index.getSegmentNum(periodPositionUs, periodDurationUs);
+    long segmentStartUs = index.getTimeUs(segmentNum);
+    long segmentEndUs = segmentStartUs + index.getDurationUs(segmentNum, periodDurationUs);
+    int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+    // The end of the last segment is the end of the period, where there is nothing to play.
+    boolean snapToEnd = segmentEndUs - periodPositionUs < periodPositionUs - segmentStartUs
+        && (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED || segmentNum < lastSegmentNum);
+    return period.startMs + (snapToEnd ? segmentEndUs : segmentStartUs) / 1000;
+  }
+
+  private static DashSegmentIndex getVideoSegmentIndex(Period period) {
+    for (int i = 0; i < period.adaptationSets.size(); i++) {
+      AdaptationSet adaptationSet = period.adaptationSets.get(i);
+      if (adaptationSet.type == AdaptationSet.TYPE_VIDEO
+          && !adaptationSet.representations.isEmpty()) {
+        return adaptationSet.representations.get(0).getIndex();
+      }
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,212 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.cache.Cache;
+import com.google.android.exoplayer.upstream.cache.CacheDataSource;
+import com.google.android.exoplayer.upstream.cache.CacheEvictor;
+import com.google.android.exoplayer.upstream.cache.CacheSpan;
+import com.google.android.exoplayer.upstream.cache.LeastRecentlyUsedCacheEvictor;
+import com.google.android.exoplayer.upstream.cache.SimpleCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A disk backed cache for media segments, bounded in bytes and evicting the least recently used
+ * segments first.
+ * <p>
+ * Segments are keyed by their URI and byte range. The {@link DataSpec#key} set by the chunk sources
+ * is the cache key of the whole representation, which segments addressed by URI templates or
+ * segment lists all share while starting at position 0, so it is replaced before a request reaches
+ * the cache. Only one instance may exist per cache directory, which is why the application
+ * creates it and hands it to each {@link PlayerConfiguration} that should use it.
+ */
+public final class SegmentCache {
+
+  private final Cache cache;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+  private final AtomicLong evictionCount;
+
+  /**
+   * @param cacheDir Directory where the segments are stored. It is dedicated to the cache.
+   * @param maxBytes Maximum size of the cache in bytes.
+   */
+  public SegmentCache(File cacheDir, long maxBytes) {
+    hitCount = new AtomicLong();
+    missCount = new AtomicLong();
+    evictionCount = new AtomicLong();
+    cache = new SimpleCache(cacheDir,
+        new CountingCacheEvictor(new LeastRecentlyUsedCacheEvictor(maxBytes)));
+  }
+
+  /**
+   * Number of segment requests that were fully served from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Number of segment requests that needed data from the network.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Number of cached spans removed to keep the cache below its maximum size.
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * Current size of the cached data in bytes.
+   */
+  public long getCacheSpace() {
+    return cache.getCacheSpace();
+  }
+
+  /**
+   * Wraps a {@link DataSource} so that reads are served from the cache when possible and data
+   * fetched from {@code upstream} is written to it.
+   *
+   * @param upstream The source for data that is not cached.
+   * @return The caching {@link DataSource}.
+   */
+  DataSource createDataSource(DataSource upstream) {
+    return new CountingCacheDataSource(upstream);
+  }
+
+  /**
+   * Returns the key under which a segment is cached.
+   *
+   * @param uri The URI of the segment.
+   * @param position The position of the segment in the resource.
+   * @param length The length of the segment, or {@link C#LENGTH_UNBOUNDED}.
+   */
+  static String getCacheKey(String uri, long position, long length) {
+    return uri + "@" + position + "+" + length;
+  }
+
+  /**
+   * Counts a request as a hit unless the {@link CacheDataSource} had to open its upstream while
+   * serving it.
+   */
+  private final class CountingCacheDataSource implements DataSource {
+
+    private final CacheDataSource cacheDataSource;
+
+    private boolean upstreamOpened;
+    private boolean dataRead;
+
+    public CountingCacheDataSource(final DataSource upstream) {
+      DataSource countingUpstream = new DataSource() {
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+          upstreamOpened = true;
+          return upstream.open(dataSpec);
+        }
+
+        @Override
+        public void close() throws IOException {
+          upstream.close();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+          return upstream.read(buffer, offset, readLength);
+        }
+      };
+      cacheDataSource = new CacheDataSource(cache, countingUpstream, false, true);
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      upstreamOpened = false;
+      dataRead = false;
+      return cacheDataSource.open(new DataSpec(dataSpec.uri, dataSpec.absoluteStreamPosition,
+          dataSpec.position, dataSpec.length,
+          getCacheKey(dataSpec.uri.toString(), dataSpec.absoluteStreamPosition, dataSpec.length),
+          dataSpec.flags));
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      int bytesRead = cacheDataSource.read(buffer, offset, readLength);
+      if (bytesRead > 0) {
+        dataRead = true;
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (dataRead) {
+        if (upstreamOpened) {
+          missCount.incrementAndGet();
+        } else {
+          hitCount.incrementAndGet();
+        }
+        dataRead = false;
+      }
+      cacheDataSource.close();
+    }
+
+  }
+
+  /**
+   * Forwards to another {@link CacheEvictor}, counting the spans it removes itself. Spans removed
+   * for other reasons, such as their file having gone missing, are not counted. The cache calls the
+   * evictor with its lock held, so the calls are serialized.
+   */
+  private final class CountingCacheEvictor implements CacheEvictor {
+
+    private final CacheEvictor evictor;
+
+    private boolean evicting;
+
+    public CountingCacheEvictor(CacheEvictor evictor) {
+      this.evictor = evictor;
+    }
+
+    @Override
+    public void onStartFile(Cache cache, String key, long position, long length) {
+      evicting = true;
+      try {
+        evictor.onStartFile(cache, key, position, length);
+      } finally {
+        evicting = false;
+      }
+    }
+
+    @Override
+    public void onSpanAdded(Cache cache, CacheSpan span) {
+      evicting = true;
+      try {
+        evictor.onSpanAdded(cache, span);
+      } finally {
+        evicting = false;
+      }
+    }
+
+    @Override
+    public void onSpanRemoved(Cache cache, CacheSpan span) {
+      if (evicting) {
+        evictionCount.incrementAndGet();
+      }
+      evictor.onSpanRemoved(cache, span);
+    }
+
+    @Override
+    public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+      evictor.onSpanTouched(cache, oldSpan, newSpan);
+    }
+
+  }
+
+}
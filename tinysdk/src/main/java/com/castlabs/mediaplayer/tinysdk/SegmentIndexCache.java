@@ -0,0 +1,194 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.util.LruCache;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory cache for the initialization segments and segment indexes of DASH
+ * representations.
+ * <p>
+ * The chunk source loads both once per representation and session before the first media segment
+ * can be read. Keeping them across sessions saves those requests when a stream is prepared again
+ * and when switching to a representation that was played before, which makes seeks and quality
+ * switches in long content start sooner. Only the requests the manifest declares as initialization
+ * or index ranges are cached. The instance is meant to be shared by every player of the
+ * application.
+ */
+public final class SegmentIndexCache {
+
+  public static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+  private final LruCache<String, byte[]> entries;
+  private final AtomicLong hitCount;
+  private final AtomicLong missCount;
+
+  /**
+   * @param maxBytes Maximum size of the cached data in bytes.
+   */
+  public SegmentIndexCache(int maxBytes) {
+    entries = new LruCache<String, byte[]>(maxBytes) {
+      @Override
+      protected int sizeOf(String key, byte[] value) {
+        return value.length;
+      }
+    };
+    hitCount = new AtomicLong();
+    missCount = new AtomicLong();
+  }
+
+  /**
+   * Number of initialization and index requests served from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Number of initialization and index requests that went to the network.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Wraps a {@link DataSource} so that the initialization and index requests of the manifest's
+   * representations are served from memory when possible.
+   *
+   * @param upstream The source for data that is not cached.
+   * @param manifest The manifest whose requests are cached.
+   * @return The caching {@link DataSource}.
+   */
+  DataSource createDataSource(DataSource upstream, MediaPresentationDescription manifest) {
+    return new IndexCachingDataSource(upstream, getIndexRequestKeys(manifest));
+  }
+
+  private static Set<String> getIndexRequestKeys(MediaPresentationDescription manifest) {
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      Period period = manifest.getPeriod(i);
+      for (int j = 0; j < period.adaptationSets.size(); j++) {
+        AdaptationSet adaptationSet = period.adaptationSets.get(j);
+        for (int k = 0; k < adaptationSet.representations.size(); k++) {
+          Representation representation = adaptationSet.representations.get(k);
+          RangedUri initializationUri = representation.getInitializationUri();
+          RangedUri indexUri = representation.getIndexUri();
+          addKey(keys, initializationUri);
+          addKey(keys, indexUri);
+          // The chunk source requests both at once if they are adjacent.
+          if (initializationUri != null && indexUri != null) {
+            addKey(keys, initializationUri.attemptMerge(indexUri));
+          }
+        }
+      }
+    }
+    return keys;
+  }
+
+  private static void addKey(Set<String> keys, RangedUri rangedUri) {
+    if (rangedUri != null) {
+      keys.add(getKey(rangedUri.getUri().toString(), rangedUri.start, rangedUri.length));
+    }
+  }
+
+  private static String getKey(String uri, long position, long length) {
+    return uri + "@" + position + "+" + length;
+  }
+
+  /**
+   * Serves cached requests from memory and stores complete responses to index requests.
+   */
+  private final class IndexCachingDataSource implements DataSource {
+
+    private final DataSource upstream;
+    private final Set<String> indexRequestKeys;
+
+    private String key;
+    private byte[] cachedData;
+    private int readPosition;
+    private ByteArrayOutputStream responseData;
+    private boolean upstreamOpened;
+    private long expectedLength;
+    private boolean endOfInput;
+
+    public IndexCachingDataSource(DataSource upstream, Set<String> indexRequestKeys) {
+      this.upstream = upstream;
+      this.indexRequestKeys = indexRequestKeys;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      String requestKey = getKey(dataSpec.uri.toString(), dataSpec.absoluteStreamPosition,
+          dataSpec.length);
+      if (indexRequestKeys.contains(requestKey)) {
+        cachedData = entries.get(requestKey);
+        if (cachedData != null) {
+          hitCount.incrementAndGet();
+          readPosition = 0;
+          return cachedData.length;
+        }
+        missCount.incrementAndGet();
+        key = requestKey;
+        responseData = new ByteArrayOutputStream();
+        endOfInput = false;
+      }
+      upstreamOpened = true;
+      expectedLength = upstream.open(dataSpec);
+      return expectedLength;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (cachedData != null) {
+        if (readPosition == cachedData.length) {
+          return C.RESULT_END_OF_INPUT;
+        }
+        int bytesToRead = Math.min(readLength, cachedData.length - readPosition);
+        System.arraycopy(cachedData, readPosition, buffer, offset, bytesToRead);
+        readPosition += bytesToRead;
+        return bytesToRead;
+      }
+      int bytesRead = upstream.read(buffer, offset, readLength);
+      if (responseData != null) {
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          endOfInput = true;
+        } else {
+          responseData.write(buffer, offset, bytesRead);
+        }
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      cachedData = null;
+      if (responseData != null) {
+        // Partial responses, for example of canceled loads, are not cached.
+        if (endOfInput || responseData.size() == expectedLength) {
+          entries.put(key, responseData.toByteArray());
+        }
+        responseData = null;
+        key = null;
+      }
+      if (upstreamOpened) {
+        upstreamOpened = false;
+        upstream.close();
+      }
+    }
+
+  }
+
+}
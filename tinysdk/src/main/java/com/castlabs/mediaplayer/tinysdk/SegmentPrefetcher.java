@@ -0,0 +1,540 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.util.SparseIntArray;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the segments following the one being read by a chunk source ahead of time, so that several
+ * requests are in flight per track instead of one.
+ * <p>
+ * A {@code ChunkSampleSource} only requests its next segment after the previous one has been
+ * loaded, which leaves most of the bandwidth of high latency links unused. The data sources created
+ * here recognize the segments of a static manifest, fetch the following ones in parallel into
+ * memory and serve them from there once the chunk source asks for them. Near the end of a period,
+ * the initialization segment and first segments of the same representation in the next period are
+ * fetched as well, so that the period transition does not wait for the network. Prefetching stops
+ * at the maximum buffered duration of the {@link BufferPolicy} and at a byte budget per track, to
+ * which requests still in flight count with their expected length. Pending requests are dropped
+ * when the chunk source asks for a segment other than the next one, which happens on seeks and
+ * quality switches, and all of them when the prefetcher is released at the end of the session.
+ * <p>
+ * All requests go through {@link java.net.HttpURLConnection}, whose keep-alive pool is shared by
+ * the whole process, so tracks loading from the same host reuse each other's connections.
+ */
+final class SegmentPrefetcher {
+
+  /**
+   * Creates the data sources used by prefetch requests.
+   */
+  interface DataSourceFactory {
+    DataSource createDataSource();
+  }
+
+  private static final int KEEP_ALIVE_SECONDS = 5;
+  private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+  private final MediaPresentationDescription manifest;
+  private final DataSourceFactory dataSourceFactory;
+  private final int maxRequestsPerTrack;
+  private final long maxPrefetchDurationUs;
+  private final ThreadPoolExecutor executor;
+  private final HashMap<Representation, RepresentationInfo> representationInfos;
+  private final HashSet<PrefetchTask> pendingTasks;
+
+  private boolean representationInfosBuilt;
+  private boolean released;
+
+  /**
+   * @param manifest A static manifest.
+   * @param dataSourceFactory Creates the data sources for prefetch requests.
+   * @param maxRequestsPerTrack The maximum number of prefetch requests in flight per track.
+   * @param maxPrefetchDurationMs The maximum duration of media prefetched ahead of the segment
+   *     being read.
+   */
+  public SegmentPrefetcher(MediaPresentationDescription manifest,
+      DataSourceFactory dataSourceFactory, int maxRequestsPerTrack, int maxPrefetchDurationMs) {
+    this.manifest = manifest;
+    this.dataSourceFactory = dataSourceFactory;
+    this.maxRequestsPerTrack = maxRequestsPerTrack;
+    this.maxPrefetchDurationUs = maxPrefetchDurationMs * 1000L;
+    representationInfos = new HashMap<>();
+    pendingTasks = new HashSet<>();
+    // Video and audio are prefetched at the same time. Idle threads are let go between requests.
+    int threadCount = maxRequestsPerTrack * 2;
+    executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Wraps the data source of a track's chunk source.
+   *
+   * @param upstream The source for segments that have not been prefetched.
+   * @param maxPrefetchBytes The maximum number of prefetched bytes held for the track.
+   * @return The prefetching {@link DataSource}.
+   */
+  public DataSource createDataSource(DataSource upstream, int maxPrefetchBytes) {
+    return new PrefetchingDataSource(upstream, maxPrefetchBytes);
+  }
+
+  /**
+   * Cancels all prefetch requests, drops the data loaded and not yet read, and stops the executor.
+   * The data sources keep working, without prefetching.
+   */
+  public void release() {
+    synchronized (this) {
+      released = true;
+      for (PrefetchTask task : new ArrayList<>(pendingTasks)) {
+        task.cancel();
+      }
+    }
+    executor.shutdownNow();
+  }
+
+  /**
+   * Queues a prefetch request, unless the prefetcher is released.
+   */
+  private synchronized boolean execute(PrefetchTask task) {
+    if (released) {
+      return false;
+    }
+    pendingTasks.add(task);
+    executor.execute(task);
+    return true;
+  }
+
+  /**
+   * Invoked when the data of a task is taken by its data source or the task is canceled.
+   */
+  private synchronized void onTaskDone(PrefetchTask task) {
+    pendingTasks.remove(task);
+  }
+
+  /**
+   * Finds the media segment requested by a {@link DataSpec}, or returns null if it is not a media
+   * segment of the manifest, such as an initialization segment.
+   */
+  private synchronized Segment findSegment(DataSpec dataSpec) {
+    if (!representationInfosBuilt) {
+      buildRepresentationInfos();
+      representationInfosBuilt = true;
+    }
+    int key = getLookupKey(dataSpec.uri.toString(), dataSpec.absoluteStreamPosition);
+    for (RepresentationInfo info : representationInfos.values()) {
+      int segmentNum = info.segmentLookup.get(key, -1);
+      if (segmentNum != -1) {
+        // Keys are hashes, so confirm the match.
+        RangedUri segmentUri = info.index.getSegmentUrl(segmentNum);
+        if (segmentUri.getUri().equals(dataSpec.uri)
+            && segmentUri.start == dataSpec.absoluteStreamPosition) {
+          return new Segment(info, segmentNum);
+        }
+      }
+    }
+    return null;
+  }
+
+  private void buildRepresentationInfos() {
+    for (int periodIndex = 0; periodIndex < manifest.getPeriodCount(); periodIndex++) {
+      Period period = manifest.getPeriod(periodIndex);
+      long periodDurationMs = manifest.getPeriodDuration(periodIndex);
+      long periodDurationUs = periodDurationMs == -1 ? C.UNKNOWN_TIME_US : periodDurationMs * 1000;
+      for (int i = 0; i < period.adaptationSets.size(); i++) {
+        AdaptationSet adaptationSet = period.adaptationSets.get(i);
+        for (int j = 0; j < adaptationSet.representations.size(); j++) {
+          Representation representation = adaptationSet.representations.get(j);
+          DashSegmentIndex index = representation.getIndex();
+          if (index == null) {
+            // Single segment representations are indexed in-band and can't be looked up here.
+            continue;
+          }
+          int lastSegmentNum = index.getLastSegmentNum(periodDurationUs);
+          if (lastSegmentNum == DashSegmentIndex.INDEX_UNBOUNDED) {
+            continue;
+          }
+          SparseIntArray segmentLookup = new SparseIntArray();
+          for (int segmentNum = index.getFirstSegmentNum(); segmentNum <= lastSegmentNum;
+              segmentNum++) {
+            RangedUri segmentUri = index.getSegmentUrl(segmentNum);
+            segmentLookup.put(getLookupKey(segmentUri.getUri().toString(), segmentUri.start),
+                segmentNum);
+          }
+          representationInfos.put(representation, new RepresentationInfo(periodIndex, i,
+              period.startMs * 1000, periodDurationUs, representation, lastSegmentNum,
+              segmentLookup));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the representation continuing the given one in the next period, or null if there is
+   * none. The chunk source matches representations across periods by adaptation set index and id.
+   */
+  private synchronized RepresentationInfo getNextPeriodRepresentation(RepresentationInfo info) {
+    if (info.periodIndex + 1 >= manifest.getPeriodCount()) {
+      return null;
+    }
+    Period nextPeriod = manifest.getPeriod(info.periodIndex + 1);
+    if (info.adaptationSetIndex >= nextPeriod.adaptationSets.size()) {
+      return null;
+    }
+    List<Representation> representations =
+        nextPeriod.adaptationSets.get(info.adaptationSetIndex).representations;
+    for (int i = 0; i < representations.size(); i++) {
+      Representation representation = representations.get(i);
+      if (representation.format.id.equals(info.representation.format.id)) {
+        return representationInfos.get(representation);
+      }
+    }
+    return null;
+  }
+
+  private static int getLookupKey(String uri, long start) {
+    return 31 * uri.hashCode() + (int) (start ^ (start >>> 32));
+  }
+
+  private static DataSpec buildDataSpec(RangedUri rangedUri, Representation representation) {
+    return new DataSpec(rangedUri.getUri(), rangedUri.start, rangedUri.length,
+        representation.getCacheKey());
+  }
+
+  private static final class RepresentationInfo {
+
+    public final int periodIndex;
+    public final int adaptationSetIndex;
+    public final long periodStartUs;
+    public final long periodDurationUs;
+    public final Representation representation;
+    public final DashSegmentIndex index;
+    public final int lastSegmentNum;
+    public final SparseIntArray segmentLookup;
+
+    public RepresentationInfo(int periodIndex, int adaptationSetIndex, long periodStartUs,
+        long periodDurationUs, Representation representation, int lastSegmentNum,
+        SparseIntArray segmentLookup) {
+      this.periodIndex = periodIndex;
+      this.adaptationSetIndex = adaptationSetIndex;
+      this.periodStartUs = periodStartUs;
+      this.periodDurationUs = periodDurationUs;
+      this.representation = representation;
+      this.index = representation.getIndex();
+      this.lastSegmentNum = lastSegmentNum;
+      this.segmentLookup = segmentLookup;
+    }
+
+    /**
+     * Returns the start time of a segment in presentation time, across periods.
+     */
+    public long getSegmentStartUs(int segmentNum) {
+      return periodStartUs + index.getTimeUs(segmentNum);
+    }
+
+  }
+
+  private static final class Segment {
+
+    public final RepresentationInfo info;
+    public final int segmentNum;
+
+    public Segment(RepresentationInfo info, int segmentNum) {
+      this.info = info;
+      this.segmentNum = segmentNum;
+    }
+
+  }
+
+  /**
+   * Loads a single segment into memory.
+   */
+  private final class PrefetchTask implements Runnable {
+
+    public final DataSpec dataSpec;
+    public final RepresentationInfo info;
+    /**
+     * The media segment loaded by the task. For an initialization segment, the media segment
+     * preceding the first one of the representation.
+     */
+    public final int segmentNum;
+
+    private final CountDownLatch loadCondition;
+
+    private volatile boolean canceled;
+    private volatile byte[] data;
+    private volatile int length;
+    private volatile long expectedLength;
+
+    public PrefetchTask(DataSpec dataSpec, RepresentationInfo info, int segmentNum) {
+      this.dataSpec = dataSpec;
+      this.info = info;
+      this.segmentNum = segmentNum;
+      loadCondition = new CountDownLatch(1);
+      expectedLength = dataSpec.length;
+    }
+
+    public boolean matches(DataSpec request) {
+      return dataSpec.uri.equals(request.uri)
+          && dataSpec.absoluteStreamPosition == request.absoluteStreamPosition;
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!canceled) {
+          load();
+        }
+      } catch (IOException e) {
+        // The chunk source requests the segment again and gets the error reported from there.
+      } finally {
+        loadCondition.countDown();
+      }
+    }
+
+    private void load() throws IOException {
+      DataSource dataSource = dataSourceFactory.createDataSource();
+      try {
+        long expectedLength = dataSource.open(dataSpec);
+        this.expectedLength = expectedLength;
+        byte[] buffer = new byte[expectedLength != C.LENGTH_UNBOUNDED
+            ? (int) expectedLength : READ_BUFFER_SIZE];
+        int bytesLoaded = 0;
+        int bytesRead = 0;
+        while (!canceled && bytesRead != C.RESULT_END_OF_INPUT) {
+          if (bytesLoaded == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+          bytesRead = dataSource.read(buffer, bytesLoaded, buffer.length - bytesLoaded);
+          if (bytesRead != C.RESULT_END_OF_INPUT) {
+            bytesLoaded += bytesRead;
+          }
+        }
+        if (!canceled) {
+          length = bytesLoaded;
+          data = buffer;
+          if (canceled) {
+            // Canceled while the data was being published.
+            data = null;
+          }
+        }
+      } finally {
+        dataSource.close();
+      }
+    }
+
+    public void cancel() {
+      canceled = true;
+      data = null;
+      if (executor.remove(this)) {
+        // The task will not run, so release anyone waiting for it.
+        loadCondition.countDown();
+      }
+      onTaskDone(this);
+    }
+
+    /**
+     * Returns the number of bytes the task holds in memory or is expected to once it is loaded.
+     * The length of a segment whose size is not known up front is estimated from its bitrate.
+     */
+    public long getBudgetedLength() {
+      if (data != null) {
+        return length;
+      }
+      if (loadCondition.getCount() == 0) {
+        // Failed or canceled.
+        return 0;
+      }
+      if (expectedLength != C.LENGTH_UNBOUNDED) {
+        return expectedLength;
+      }
+      if (segmentNum < info.index.getFirstSegmentNum()) {
+        // An initialization segment, which is small.
+        return 0;
+      }
+      long durationUs = info.index.getDurationUs(segmentNum, info.periodDurationUs);
+      return (long) info.representation.format.bitrate * durationUs / 8000000;
+    }
+
+    /**
+     * Blocks until the task has finished.
+     *
+     * @return The loaded data, or null if the task failed.
+     */
+    public byte[] blockUntilLoaded() throws InterruptedIOException {
+      try {
+        loadCondition.await();
+      } catch (InterruptedException e) {
+        // The loader interrupts its thread when the load is canceled.
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+      return data;
+    }
+
+  }
+
+  /**
+   * Serves segments from the prefetch requests when possible, from upstream otherwise.
+   * <p>
+   * Used by a single loader thread, like the data source it wraps.
+   */
+  private final class PrefetchingDataSource implements DataSource {
+
+    private final DataSource upstream;
+    private final int maxPrefetchBytes;
+    private final ArrayDeque<PrefetchTask> prefetchTasks;
+
+    private boolean upstreamOpened;
+    private byte[] data;
+    private int dataLength;
+    private int readPosition;
+
+    public PrefetchingDataSource(DataSource upstream, int maxPrefetchBytes) {
+      this.upstream = upstream;
+      this.maxPrefetchBytes = maxPrefetchBytes;
+      prefetchTasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      Segment segment = findSegment(dataSpec);
+      // A media segment that was not prefetched means a seek or a quality switch, after which the
+      // speculative requests are no longer needed. Other requests, such as initialization
+      // segments, leave them alone.
+      PrefetchTask prefetchTask = takePrefetchTask(dataSpec, segment != null);
+      if (segment != null) {
+        schedulePrefetchTasks(segment);
+      }
+
+      byte[] prefetchedData = null;
+      if (prefetchTask != null) {
+        prefetchedData = prefetchTask.blockUntilLoaded();
+        onTaskDone(prefetchTask);
+      }
+      if (prefetchedData != null) {
+        data = prefetchedData;
+        dataLength = prefetchTask.length;
+        readPosition = 0;
+        return dataLength;
+      }
+      upstreamOpened = true;
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (upstreamOpened) {
+        return upstream.read(buffer, offset, readLength);
+      }
+      if (readPosition == dataLength) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesToRead = Math.min(readLength, dataLength - readPosition);
+      System.arraycopy(data, readPosition, buffer, offset, bytesToRead);
+      readPosition += bytesToRead;
+      return bytesToRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+      data = null;
+      if (upstreamOpened) {
+        upstreamOpened = false;
+        upstream.close();
+      }
+    }
+
+    private PrefetchTask takePrefetchTask(DataSpec dataSpec, boolean cancelSkippedTasks) {
+      PrefetchTask match = null;
+      for (PrefetchTask task : prefetchTasks) {
+        if (task.matches(dataSpec)) {
+          match = task;
+          break;
+        }
+      }
+      if (match == null) {
+        if (cancelSkippedTasks) {
+          cancelPrefetchTasks();
+        }
+        return null;
+      }
+      if (cancelSkippedTasks) {
+        PrefetchTask task;
+        while ((task = prefetchTasks.pollFirst()) != match) {
+          task.cancel();
+        }
+      } else {
+        prefetchTasks.remove(match);
+      }
+      return match;
+    }
+
+    private void schedulePrefetchTasks(Segment segment) {
+      long prefetchEndUs = segment.info.getSegmentStartUs(segment.segmentNum)
+          + maxPrefetchDurationUs;
+      long prefetchedBytes = 0;
+      for (PrefetchTask task : prefetchTasks) {
+        prefetchedBytes += task.getBudgetedLength();
+      }
+      PrefetchTask lastTask = prefetchTasks.peekLast();
+      RepresentationInfo info = lastTask != null ? lastTask.info : segment.info;
+      int segmentNum = lastTask != null ? lastTask.segmentNum : segment.segmentNum;
+      while (prefetchTasks.size() < maxRequestsPerTrack && prefetchedBytes < maxPrefetchBytes) {
+        DataSpec dataSpec;
+        if (segmentNum < info.lastSegmentNum) {
+          segmentNum++;
+          if (info.getSegmentStartUs(segmentNum) >= prefetchEndUs) {
+            break;
+          }
+          dataSpec = buildDataSpec(info.index.getSegmentUrl(segmentNum), info.representation);
+        } else {
+          info = getNextPeriodRepresentation(info);
+          if (info == null || info.periodStartUs >= prefetchEndUs) {
+            break;
+          }
+          segmentNum = info.index.getFirstSegmentNum() - 1;
+          RangedUri initializationUri = info.representation.getInitializationUri();
+          if (initializationUri == null) {
+            continue;
+          }
+          dataSpec = buildDataSpec(initializationUri, info.representation);
+        }
+        PrefetchTask task = new PrefetchTask(dataSpec, info, segmentNum);
+        if (!execute(task)) {
+          break;
+        }
+        prefetchTasks.addLast(task);
+        prefetchedBytes += task.getBudgetedLength();
+      }
+    }
+
+    private void cancelPrefetchTasks() {
+      while (!prefetchTasks.isEmpty()) {
+        prefetchTasks.pollFirst().cancel();
+      }
+    }
+
+  }
+
+}
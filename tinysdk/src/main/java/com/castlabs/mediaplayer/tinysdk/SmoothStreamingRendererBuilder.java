@@ -1,26 +1,198 @@
 package com.castlabs.mediaplayer.tinysdk;
 
 import android.content.Context;
+import android.os.Handler;
 
 import com.castlabs.mediaplayer.tinysdk.MediaPlayer.RendererBuilder;
+import com.google.android.exoplayer.LoadControl;
+import com.google.android.exoplayer.MediaCodecAudioTrackRenderer;
+import com.google.android.exoplayer.TrackRenderer;
+import com.google.android.exoplayer.audio.AudioCapabilities;
+import com.google.android.exoplayer.chunk.ChunkSampleSource;
+import com.google.android.exoplayer.chunk.ChunkSource;
+import com.google.android.exoplayer.drm.DrmSessionManager;
 import com.google.android.exoplayer.drm.MediaDrmCallback;
+import com.google.android.exoplayer.drm.StreamingDrmSessionManager;
+import com.google.android.exoplayer.drm.UnsupportedDrmException;
+import com.google.android.exoplayer.smoothstreaming.DefaultSmoothStreamingTrackSelector;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingChunkSource;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifestParser;
+import com.google.android.exoplayer.text.TextTrackRenderer;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DefaultAllocator;
+import com.google.android.exoplayer.upstream.DefaultUriDataSource;
+import com.google.android.exoplayer.util.ManifestFetcher;
+import com.google.android.exoplayer.util.Util;
+
+import java.io.IOException;
+import java.util.Locale;
 
 /**
  * A {@link RendererBuilder} for SS.
  */
 public class SmoothStreamingRendererBuilder implements RendererBuilder {
 
-    SmoothStreamingRendererBuilder(Context context, String userAgent, String url,
-                              MediaDrmCallback drmCallback) {
+  private static final int BUFFER_SEGMENT_SIZE = 64 * 1024;
+
+  private final PlayerConfiguration configuration;
+  private final String url;
+  private final MediaDrmCallback drmCallback;
+  private final AbrStrategy abrStrategy;
+
+  private AsyncRendererBuilder currentAsyncBuilder;
+
+  SmoothStreamingRendererBuilder(PlayerConfiguration configuration, String url,
+      MediaDrmCallback drmCallback, AbrStrategy abrStrategy) {
+    this.configuration = configuration;
+    // Publishing points are usually given as the .ism path, the manifest lives below it.
+    this.url = url.toLowerCase(Locale.US).endsWith("/manifest") ? url : url + "/Manifest";
+    this.drmCallback = drmCallback;
+    this.abrStrategy = abrStrategy;
+  }
+
+  @Override
+  public void buildRenderers(MediaPlayer player) {
+    currentAsyncBuilder = new AsyncRendererBuilder(configuration, url, drmCallback, abrStrategy,
+        player);
+    currentAsyncBuilder.init();
+  }
+
+  @Override
+  public void cancel() {
+    if (currentAsyncBuilder != null) {
+      currentAsyncBuilder.cancel();
+      currentAsyncBuilder = null;
+    }
+  }
+
+  private static final class AsyncRendererBuilder
+      implements ManifestFetcher.ManifestCallback<SmoothStreamingManifest> {
+
+    private final Context context;
+    private final String userAgent;
+    private final BufferPolicy bufferPolicy;
+    private final int liveEdgeLatencyMs;
+    private final AbrStrategy abrStrategy;
+    private final MediaDrmCallback drmCallback;
+    private final MediaPlayer player;
+    private final ManifestFetcher<SmoothStreamingManifest> manifestFetcher;
+
+    private boolean canceled;
+
+    public AsyncRendererBuilder(PlayerConfiguration configuration, String url,
+        MediaDrmCallback drmCallback, AbrStrategy abrStrategy, MediaPlayer player) {
+      this.context = configuration.getAppContext();
+      this.userAgent = configuration.getUserAgent();
+      this.bufferPolicy = configuration.getBufferPolicy();
+      this.liveEdgeLatencyMs = configuration.getLiveTargetLatencyMs();
+      this.abrStrategy = abrStrategy;
+      // PlayReady requests go through the callback of the license manager unless the stream has
+      // one of its own.
+      DrmLicenseManager drmLicenseManager = configuration.getDrmLicenseManager();
+      this.drmCallback = drmCallback != null || drmLicenseManager == null ? drmCallback
+          : drmLicenseManager.getCallback();
+      this.player = player;
+      SmoothStreamingManifestParser parser = new SmoothStreamingManifestParser();
+      manifestFetcher = new ManifestFetcher<>(url, new DefaultUriDataSource(context, userAgent),
+          parser);
+    }
+
+    public void init() {
+      // Loading and parsing happen on the fetcher's loader thread, which keeps large manifests
+      // with many quality levels off the main looper.
+      manifestFetcher.singleLoad(player.getMainHandler().getLooper(), this);
+    }
+
+    public void cancel() {
+      canceled = true;
     }
 
     @Override
-    public void buildRenderers(MediaPlayer player) {
+    public void onSingleManifestError(IOException e) {
+      if (canceled) {
+        return;
+      }
+
+      player.onRenderersError(e);
     }
 
     @Override
-    public void cancel() {
+    public void onSingleManifest(SmoothStreamingManifest manifest) {
+      if (canceled) {
+        return;
+      }
+
+      player.onStartupPhase(StartupTrace.PHASE_MANIFEST_LOADED);
+      Handler mainHandler = player.getMainHandler();
+      // A single load control is shared by the video, audio and text sample sources so that they
+      // draw from the same allocator.
+      LoadControl loadControl = bufferPolicy.createLoadControl(context,
+          new DefaultAllocator(BUFFER_SEGMENT_SIZE));
+      BandwidthEstimator bandwidthMeter = new BandwidthEstimator(context, mainHandler, player);
+
+      // Check drm support if necessary.
+      DrmSessionManager drmSessionManager = null;
+      if (manifest.protectionElement != null) {
+        if (Util.SDK_INT < 18 || drmCallback == null) {
+          player.onRenderersError(
+              new UnsupportedDrmException(UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME));
+          return;
+        }
+        try {
+          drmSessionManager = new StreamingDrmSessionManager(manifest.protectionElement.uuid,
+              player.getPlaybackLooper(), drmCallback, null, mainHandler, player);
+        } catch (UnsupportedDrmException e) {
+          player.onRenderersError(e);
+          return;
+        }
+      }
+
+      // The chunk sources share manifestFetcher. For live manifests they request refreshes
+      // through it, which keeps the sliding window up to date.
 
+      // Build the video renderer.
+      DataSource videoDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      ChunkSource videoChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
+          new VideoTrackSelector(DeviceCapabilities.getInstance(context), false),
+          videoDataSource, abrStrategy.createFormatEvaluator(bandwidthMeter),
+          liveEdgeLatencyMs);
+      ChunkSampleSource videoSampleSource = new ChunkSampleSource(videoChunkSource, loadControl,
+          bufferPolicy.getVideoBufferSize(), mainHandler, player,
+          TrackInfo.TYPE_VIDEO);
+      TrackRenderer videoRenderer = new InstrumentedVideoTrackRenderer(context, videoSampleSource,
+          drmSessionManager, mainHandler, player);
+
+      // Build the audio renderer.
+      DataSource audioDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      ChunkSource audioChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
+          DefaultSmoothStreamingTrackSelector.newAudioInstance(), audioDataSource, null,
+          liveEdgeLatencyMs);
+      ChunkSampleSource audioSampleSource = new ChunkSampleSource(audioChunkSource, loadControl,
+          bufferPolicy.getAudioBufferSize(), mainHandler, player,
+          TrackInfo.TYPE_AUDIO);
+      TrackRenderer audioRenderer = new MediaCodecAudioTrackRenderer(audioSampleSource,
+          drmSessionManager, true, mainHandler, player, AudioCapabilities.getCapabilities(context));
+
+      // Build the text renderer.
+      DataSource textDataSource = new DefaultUriDataSource(context, bandwidthMeter, userAgent);
+      ChunkSource textChunkSource = new SmoothStreamingChunkSource(manifestFetcher,
+          DefaultSmoothStreamingTrackSelector.newTextInstance(), textDataSource, null,
+          liveEdgeLatencyMs);
+      ChunkSampleSource textSampleSource = new ChunkSampleSource(textChunkSource, loadControl,
+          bufferPolicy.getTextBufferSize(), mainHandler, player,
+          TrackInfo.TYPE_TEXT);
+      TrackRenderer textRenderer = new TextTrackRenderer(textSampleSource, player,
+          mainHandler.getLooper());
+
+      // Invoke the callback.
+      TrackRenderer[] renderers = new TrackRenderer[MediaPlayer.RENDERER_COUNT];
+      renderers[TrackInfo.TYPE_VIDEO] = videoRenderer;
+      renderers[TrackInfo.TYPE_AUDIO] = audioRenderer;
+      renderers[TrackInfo.TYPE_TEXT] = textRenderer;
+      player.onRenderers(renderers, bandwidthMeter);
     }
-}
 
+  }
+
+}
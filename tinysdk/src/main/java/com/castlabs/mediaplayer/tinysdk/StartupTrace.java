@@ -0,0 +1,164 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import java.util.Arrays;
+
+/**
+ * The timeline of one startup of a {@link MediaPlayer}, from prepare to the first rendered frame.
+ * <p>
+ * Each phase is recorded the first time it is reached, as {@link android.os.SystemClock}
+ * elapsed realtime. Phases a stream does not go through, such as DRM key loading for clear
+ * content, are not recorded. A trace is finished when the first frame is rendered, when an audio
+ * only stream is ready, when startup fails or when the player is prepared again before either.
+ * For a player prewarmed by a {@link MediaPlayerPool}, the trace starts when
+ * {@link MediaPlayer#prepare()} starts playback, and phases reached before are recorded at that
+ * time. Finished traces are delivered to the {@link MediaPlayer.StartupTraceListener} and kept by
+ * {@link MediaPlayer#getStartupTraces()}.
+ */
+public final class StartupTrace {
+
+  /**
+   * {@link MediaPlayer#prepare()} was called.
+   */
+  public static final int PHASE_PREPARE = 0;
+  /**
+   * The manifest or playlist was loaded and parsed.
+   */
+  public static final int PHASE_MANIFEST_LOADED = 1;
+  /**
+   * The clock of a live DASH stream was synchronized through its UtcTiming element.
+   */
+  public static final int PHASE_CLOCK_SYNCHRONIZED = 2;
+  /**
+   * The renderers were built and handed to the player.
+   */
+  public static final int PHASE_RENDERERS_BUILT = 3;
+  /**
+   * The DRM keys were loaded.
+   */
+  public static final int PHASE_DRM_KEYS_LOADED = 4;
+  /**
+   * The first decoder was initialized.
+   */
+  public static final int PHASE_DECODER_INITIALIZED = 5;
+  /**
+   * Enough media was buffered to start playback.
+   */
+  public static final int PHASE_READY = 6;
+  /**
+   * The first video frame was rendered.
+   */
+  public static final int PHASE_FIRST_FRAME = 7;
+
+  private static final int PHASE_COUNT = 8;
+  private static final String[] PHASE_NAMES = {"prepare", "manifest", "clock", "renderers", "drm",
+      "decoder", "ready", "firstFrame"};
+
+  /**
+   * Returned by {@link #getTimestampMs} and {@link #getPhaseTimeMs} for phases not reached.
+   */
+  public static final long NOT_REACHED = -1;
+
+  private final String streamUri;
+  private final long[] timestampsMs;
+
+  private boolean finished;
+  private boolean failed;
+
+  StartupTrace(String streamUri, long prepareTimestampMs) {
+    this.streamUri = streamUri;
+    timestampsMs = new long[PHASE_COUNT];
+    Arrays.fill(timestampsMs, NOT_REACHED);
+    timestampsMs[PHASE_PREPARE] = prepareTimestampMs;
+  }
+
+  /**
+   * Records a phase, unless it was reached already or the trace is finished.
+   *
+   * @return Whether the phase was recorded.
+   */
+  boolean mark(int phase, long timestampMs) {
+    if (finished || timestampsMs[phase] != NOT_REACHED) {
+      return false;
+    }
+    timestampsMs[phase] = timestampMs;
+    return true;
+  }
+
+  /**
+   * Moves the prepare phase to a later time. Phases reached before are recorded at that time.
+   */
+  void rebase(long prepareTimestampMs) {
+    for (int i = 0; i < PHASE_COUNT; i++) {
+      if (timestampsMs[i] != NOT_REACHED && timestampsMs[i] < prepareTimestampMs) {
+        timestampsMs[i] = prepareTimestampMs;
+      }
+    }
+    timestampsMs[PHASE_PREPARE] = prepareTimestampMs;
+  }
+
+  void finish(boolean failed) {
+    this.finished = true;
+    this.failed = failed;
+  }
+
+  boolean isFinished() {
+    return finished;
+  }
+
+  public String getStreamUri() {
+    return streamUri;
+  }
+
+  /**
+   * Returns whether startup failed or was abandoned by preparing again.
+   */
+  public boolean isFailed() {
+    return failed;
+  }
+
+  /**
+   * Returns the elapsed realtime at which a phase was reached, or {@link #NOT_REACHED}.
+   */
+  public long getTimestampMs(int phase) {
+    return timestampsMs[phase];
+  }
+
+  /**
+   * Returns the time from prepare until a phase was reached, or {@link #NOT_REACHED}.
+   */
+  public long getPhaseTimeMs(int phase) {
+    return timestampsMs[phase] == NOT_REACHED ? NOT_REACHED
+        : timestampsMs[phase] - timestampsMs[PHASE_PREPARE];
+  }
+
+  /**
+   * Returns the time from prepare until the first frame, or until ready for streams without
+   * video, or {@link #NOT_REACHED}.
+   */
+  public long getStartupTimeMs() {
+    long firstFrameTimeMs = getPhaseTimeMs(PHASE_FIRST_FRAME);
+    return firstFrameTimeMs != NOT_REACHED ? firstFrameTimeMs : getPhaseTimeMs(PHASE_READY);
+  }
+
+  /**
+   * Returns the reached phases with their times since prepare, for example
+   * {@code manifest=120;renderers=135;decoder=210;ready=640;firstFrame=660}.
+   */
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = PHASE_PREPARE + 1; i < PHASE_COUNT; i++) {
+      if (timestampsMs[i] != NOT_REACHED) {
+        if (builder.length() > 0) {
+          builder.append(';');
+        }
+        builder.append(PHASE_NAMES[i]).append('=').append(getPhaseTimeMs(i));
+      }
+    }
+    if (failed) {
+      builder.append(builder.length() > 0 ? ";failed" : "failed");
+    }
+    return builder.toString();
+  }
+
+}
@@ -8,26 +8,72 @@ public class Stream {
         MPEG_DASH,
         HLS,
         SS,
-        OTHER
+        OTHER,
+        UNKNOWN
     }
 
     private SourceType type;
     private Uri uri;
+    private AbrStrategy abrStrategy;
+    private OfflineContent offlineContent;
 
+    /**
+     * Creates a stream whose type is inferred from the URI. If the URI is ambiguous the type is
+     * {@link SourceType#UNKNOWN} and the stream is probed when the player is prepared.
+     *
+     * @param uri Location of the stream.
+     */
     public Stream(Uri uri) {
+        this(uri, StreamTypeDetector.infer(uri));
+    }
+
+    /**
+     * Creates a stream of a known type. No inference or probing is performed.
+     *
+     * @param uri Location of the stream.
+     * @param type Type of the stream.
+     */
+    public Stream(Uri uri, SourceType type) {
         this.uri = uri;
-        // TODO Try to infer type from extension or requesting asset
-        this.type = SourceType.MPEG_DASH;
+        this.type = type;
     }
 
     SourceType getType () {
         return type;
     }
 
+    void setType(SourceType type) {
+        this.type = type;
+    }
+
     Uri getUri() {
         return uri;
     }
 
+    /**
+     * Overrides the adaptive bitrate algorithm of {@link PlayerConfiguration} for this stream.
+     *
+     * @param abrStrategy The strategy, or null to use the one of the configuration.
+     */
+    public void setAbrStrategy(AbrStrategy abrStrategy) {
+        this.abrStrategy = abrStrategy;
+    }
+
+    AbrStrategy getAbrStrategy() {
+        return abrStrategy;
+    }
+
+    void setOfflineContent(OfflineContent offlineContent) {
+        this.offlineContent = offlineContent;
+    }
+
+    /**
+     * Returns the downloaded content the stream is played from, or null if it is streamed.
+     */
+    OfflineContent getOfflineContent() {
+        return offlineContent;
+    }
+
     public String toString() {
         return uri.toString();
     }
@@ -0,0 +1,278 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.castlabs.mediaplayer.tinysdk.Stream.SourceType;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.upstream.DataSpec;
+import com.google.android.exoplayer.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer.upstream.HttpDataSource;
+import com.google.android.exoplayer.upstream.Loader.Loadable;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Infers the {@link SourceType} of a {@link Stream}.
+ * <p>
+ * The type is inferred from the URI alone whenever possible. Ambiguous http(s) URIs are resolved
+ * by a {@link Probe} that reads the Content-Type and the first bytes of the resource, or as many as
+ * it takes to get past the preamble of an XML document. Probe results
+ * are kept in a bounded LRU cache keyed by host and path so repeated plays do not probe again.
+ */
+final class StreamTypeDetector {
+
+  private static final int PROBE_CACHE_SIZE = 32;
+  private static final int PROBE_LENGTH = 1024;
+  private static final int MAX_PROBE_LENGTH = 64 * 1024;
+
+  private static final LruCache<String, SourceType> probeCache =
+      new LruCache<>(PROBE_CACHE_SIZE);
+
+  private StreamTypeDetector() {}
+
+  /**
+   * Infers the type of a stream from its URI and, failing that, from earlier probes.
+   *
+   * @param uri The stream URI.
+   * @return The inferred type, or {@link SourceType#UNKNOWN} if the stream has to be probed.
+   */
+  static SourceType infer(Uri uri) {
+    SourceType type = inferFromUri(uri);
+    if (type != SourceType.UNKNOWN) {
+      return type;
+    }
+    SourceType cachedType = probeCache.get(getCacheKey(uri));
+    return cachedType != null ? cachedType : SourceType.UNKNOWN;
+  }
+
+  private static SourceType inferFromUri(Uri uri) {
+    return inferFromUri(uri.getScheme(), uri.getPath(),
+        uri.isOpaque() ? null : uri.getQueryParameter("format"));
+  }
+
+  /**
+   * Infers the type of a stream from the parts of its URI.
+   *
+   * @param scheme The scheme, or null.
+   * @param path The path, or null.
+   * @param format The value of the {@code format} query parameter, or null.
+   */
+  static SourceType inferFromUri(String scheme, String path, String format) {
+    path = path == null ? "" : path.toLowerCase(Locale.US);
+    if (path.endsWith(".mpd")) {
+      return SourceType.MPEG_DASH;
+    } else if (path.endsWith(".m3u8")) {
+      return SourceType.HLS;
+    } else if (path.endsWith(".ism") || path.endsWith(".isml") || path.contains(".ism/")
+        || path.contains(".isml/")) {
+      return SourceType.SS;
+    }
+
+    // Packagers such as Unified Streaming select the output format through a query parameter.
+    if (format != null) {
+      format = format.toLowerCase(Locale.US);
+      if (format.startsWith("mpd")) {
+        return SourceType.MPEG_DASH;
+      } else if (format.startsWith("m3u8")) {
+        return SourceType.HLS;
+      }
+    }
+
+    if (scheme != null && !scheme.startsWith("http")) {
+      // Local files, assets and content providers are never adaptive manifests without an
+      // extension, and cannot be probed over HTTP anyway.
+      return SourceType.OTHER;
+    }
+    if (path.endsWith(".mp4") || path.endsWith(".m4v") || path.endsWith(".m4a")
+        || path.endsWith(".webm") || path.endsWith(".mkv") || path.endsWith(".mp3")
+        || path.endsWith(".aac") || path.endsWith(".ts") || path.endsWith(".ogg")) {
+      return SourceType.OTHER;
+    }
+    return SourceType.UNKNOWN;
+  }
+
+  static SourceType inferFromContentType(String contentType) {
+    if (contentType == null) {
+      return SourceType.UNKNOWN;
+    }
+    contentType = contentType.toLowerCase(Locale.US);
+    if (contentType.startsWith("application/dash+xml")) {
+      return SourceType.MPEG_DASH;
+    } else if (contentType.startsWith("application/vnd.apple.mpegurl")
+        || contentType.startsWith("application/x-mpegurl")
+        || contentType.startsWith("audio/mpegurl")
+        || contentType.startsWith("audio/x-mpegurl")) {
+      return SourceType.HLS;
+    } else if (contentType.startsWith("application/vnd.ms-sstr+xml")) {
+      return SourceType.SS;
+    } else if (contentType.startsWith("video/") || contentType.startsWith("audio/")) {
+      return SourceType.OTHER;
+    }
+    return SourceType.UNKNOWN;
+  }
+
+  /**
+   * Infers the type of a stream from its first bytes. XML declarations, processing instructions,
+   * comments and document type declarations before the root element are skipped.
+   *
+   * @return The inferred type, or {@link SourceType#UNKNOWN} if the bytes end before the root
+   *     element of an XML document.
+   */
+  static SourceType inferFromContent(byte[] data, int length) {
+    String content = new String(data, 0, length, Charset.forName("UTF-8"));
+    int position = skipWhitespace(content, content.startsWith("\uFEFF") ? 1 : 0);
+    if (content.startsWith("#EXTM3U", position)) {
+      return SourceType.HLS;
+    }
+    while (position < content.length()) {
+      if (content.charAt(position) != '<') {
+        return SourceType.OTHER;
+      }
+      String end;
+      if (content.startsWith("<?", position)) {
+        end = "?>";
+      } else if (content.startsWith("<!--", position)) {
+        end = "-->";
+      } else if (content.startsWith("<!", position)) {
+        end = ">";
+      } else {
+        return inferFromRootElement(content, position + 1);
+      }
+      int endIndex = content.indexOf(end, position);
+      if (endIndex == -1) {
+        return SourceType.UNKNOWN;
+      }
+      position = skipWhitespace(content, endIndex + end.length());
+    }
+    return SourceType.UNKNOWN;
+  }
+
+  private static SourceType inferFromRootElement(String content, int nameStart) {
+    int nameEnd = nameStart;
+    while (nameEnd < content.length() && content.charAt(nameEnd) != '>'
+        && content.charAt(nameEnd) != '/' && !Character.isWhitespace(content.charAt(nameEnd))) {
+      nameEnd++;
+    }
+    if (nameEnd == content.length()) {
+      return SourceType.UNKNOWN;
+    }
+    String name = content.substring(nameStart, nameEnd);
+    // Ignore a namespace prefix.
+    name = name.substring(name.indexOf(':') + 1);
+    if (name.equals("MPD")) {
+      return SourceType.MPEG_DASH;
+    } else if (name.equals("SmoothStreamingMedia")) {
+      return SourceType.SS;
+    }
+    return SourceType.OTHER;
+  }
+
+  private static int skipWhitespace(String content, int position) {
+    while (position < content.length() && Character.isWhitespace(content.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static String getCacheKey(Uri uri) {
+    return uri.getHost() + uri.getPath();
+  }
+
+  /**
+   * A {@link Loadable} that requests the first bytes of a stream to find out its type.
+   */
+  static final class Probe implements Loadable {
+
+    private final Uri uri;
+    private final String userAgent;
+
+    private volatile boolean loadCanceled;
+    private volatile SourceType result;
+
+    Probe(Uri uri, String userAgent) {
+      this.uri = uri;
+      this.userAgent = userAgent;
+    }
+
+    /**
+     * Returns the detected type. Only valid once the load has completed.
+     */
+    SourceType getResult() {
+      return result;
+    }
+
+    @Override
+    public void cancelLoad() {
+      loadCanceled = true;
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return loadCanceled;
+    }
+
+    @Override
+    public void load() throws IOException, InterruptedException {
+      HttpDataSource dataSource = new DefaultHttpDataSource(userAgent, null);
+      SourceType type;
+      try {
+        // A range request rather than HEAD: many CDNs answer HEAD requests for manifests with a
+        // generic Content-Type, and the body is needed as a fallback anyway.
+        dataSource.open(new DataSpec(uri, 0, MAX_PROBE_LENGTH, null));
+        type = inferFromContentType(getContentType(dataSource.getResponseHeaders()));
+        byte[] data = new byte[PROBE_LENGTH];
+        int length = 0;
+        int bytesRead = 0;
+        while (type == SourceType.UNKNOWN && bytesRead != C.RESULT_END_OF_INPUT
+            && !loadCanceled) {
+          if (length == data.length) {
+            // Only an XML preamble so far, read on until the root element.
+            if (length == MAX_PROBE_LENGTH) {
+              break;
+            }
+            data = Arrays.copyOf(data, Math.min(length * 2, MAX_PROBE_LENGTH));
+          }
+          bytesRead = dataSource.read(data, length, data.length - length);
+          if (bytesRead != C.RESULT_END_OF_INPUT) {
+            length += bytesRead;
+          }
+          if (length == data.length || bytesRead == C.RESULT_END_OF_INPUT) {
+            type = inferFromContent(data, length);
+          }
+        }
+      } finally {
+        dataSource.close();
+      }
+
+      if (loadCanceled) {
+        return;
+      }
+      if (type == SourceType.UNKNOWN) {
+        type = SourceType.OTHER;
+      }
+      probeCache.put(getCacheKey(uri), type);
+      result = type;
+    }
+
+    private static String getContentType(Map<String, List<String>> headers) {
+      if (headers == null) {
+        return null;
+      }
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        if ("Content-Type".equalsIgnoreCase(header.getKey()) && header.getValue() != null
+            && !header.getValue().isEmpty()) {
+          return header.getValue().get(0);
+        }
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,94 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tracks a group of tasks on a shared executor, so that a following group can be queued once they
+ * are all done without blocking a thread of the executor while waiting.
+ */
+final class TaskGroup {
+
+  private final Executor executor;
+
+  private int pendingTaskCount;
+  private Runnable idleAction;
+
+  public TaskGroup(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Queues a task of this group on the executor.
+   */
+  public void execute(Runnable task) {
+    synchronized (this) {
+      pendingTaskCount++;
+    }
+    submit(task);
+  }
+
+  /**
+   * Queues a task of this group on the executor once every task of a previous group is done. The
+   * task is pending from now on, so a group following this one waits for it too.
+   *
+   * @param previous The group to wait for, or null to queue the task immediately.
+   */
+  public void executeAfter(TaskGroup previous, final Runnable task) {
+    synchronized (this) {
+      pendingTaskCount++;
+    }
+    Runnable submission = new Runnable() {
+      @Override
+      public void run() {
+        submit(task);
+      }
+    };
+    if (previous == null || !previous.setIdleAction(submission)) {
+      submission.run();
+    }
+  }
+
+  /**
+   * Sets the action to run once this group is idle. Returns false if it is idle already.
+   */
+  private synchronized boolean setIdleAction(Runnable action) {
+    if (pendingTaskCount == 0) {
+      return false;
+    }
+    idleAction = action;
+    return true;
+  }
+
+  private void submit(final Runnable task) {
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            onTaskDone();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The executor was shut down.
+      onTaskDone();
+    }
+  }
+
+  private void onTaskDone() {
+    Runnable action;
+    synchronized (this) {
+      pendingTaskCount--;
+      if (pendingTaskCount > 0 || idleAction == null) {
+        return;
+      }
+      action = idleAction;
+      idleAction = null;
+    }
+    action.run();
+  }
+
+}
@@ -0,0 +1,484 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.dash.DashSegmentIndex;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.dash.mpd.RangedUri;
+import com.google.android.exoplayer.dash.mpd.Representation;
+import com.google.android.exoplayer.upstream.DataSource;
+import com.google.android.exoplayer.upstream.DataSpec;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Provides preview thumbnails for scrubbing, read from the thumbnail adaptation sets of a DASH
+ * manifest.
+ * <p>
+ * Thumbnail representations carry one image per segment. The image is a grid of thumbnails that
+ * evenly divide the segment duration, as declared by the {@code http://dashif.org/thumbnail_tile}
+ * property. Images are loaded and decoded on a background executor, cut into thumbnails scaled to
+ * the requested size and kept in an LRU cache, so that all thumbnails of an image are available
+ * after a single request. The images next to the one being scrubbed are prefetched. Tile images
+ * and thumbnails that fall out of the cache are pooled and decoded into again, which avoids
+ * garbage collection pauses while scrubbing.
+ * <p>
+ * A thumbnail returned by {@link #getThumbnail} or passed to the {@link Listener} belongs to the
+ * caller from then on. It is never pooled, so it does not change while it is displayed, and it is
+ * left to the garbage collector once it falls out of the cache. All methods must be called on the
+ * thread of the handler passed to the constructor.
+ */
+public final class ThumbnailProvider {
+
+  /**
+   * A listener for thumbnails that were not cached when requested.
+   */
+  public interface Listener {
+    /**
+     * Invoked when a thumbnail previously requested through {@link #getThumbnail} is available.
+     */
+    void onThumbnailAvailable(long positionMs, Bitmap thumbnail);
+  }
+
+  private static final String TAG = "ThumbnailProvider";
+
+  private static final int PREFETCH_TILE_COUNT = 2;
+  private static final int DECODER_THREAD_COUNT = 2;
+  private static final int MAX_CACHE_BYTES = 8 * 1024 * 1024;
+  private static final int MAX_POOL_BYTES = 4 * 1024 * 1024;
+  private static final int READ_BUFFER_SIZE = 32 * 1024;
+  private static final long NO_REQUESTED_POSITION = -1;
+
+  private static final Map<Representation, int[]> TILE_LAYOUTS = new WeakHashMap<>();
+
+  private final MediaPresentationDescription manifest;
+  private final SegmentPrefetcher.DataSourceFactory dataSourceFactory;
+  private final Handler handler;
+  private final ExecutorService executor;
+  private final LruCache<String, Bitmap> cache;
+  private final BitmapPool bitmapPool;
+  private final Set<String> pendingTiles;
+  private final Set<Bitmap> handedOutThumbnails;
+  private final Paint paint;
+
+  private Listener listener;
+  private long requestedPositionMs;
+  private boolean released;
+
+  /**
+   * Declares the grid of a thumbnail representation, as parsed from the manifest.
+   */
+  static void setTileLayout(Representation representation, int columns, int rows) {
+    synchronized (TILE_LAYOUTS) {
+      TILE_LAYOUTS.put(representation, new int[] {columns, rows});
+    }
+  }
+
+  private static int[] getTileLayout(Representation representation) {
+    synchronized (TILE_LAYOUTS) {
+      int[] layout = TILE_LAYOUTS.get(representation);
+      return layout != null ? layout : new int[] {1, 1};
+    }
+  }
+
+  /**
+   * Returns whether a manifest has thumbnails this class can provide.
+   */
+  static boolean hasThumbnails(MediaPresentationDescription manifest) {
+    for (int i = 0; i < manifest.getPeriodCount(); i++) {
+      if (!getThumbnailRepresentations(manifest.getPeriod(i)).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  ThumbnailProvider(MediaPresentationDescription manifest,
+      SegmentPrefetcher.DataSourceFactory dataSourceFactory, Handler handler) {
+    this.manifest = manifest;
+    this.dataSourceFactory = dataSourceFactory;
+    this.handler = handler;
+    executor = Executors.newFixedThreadPool(DECODER_THREAD_COUNT);
+    bitmapPool = new BitmapPool(MAX_POOL_BYTES);
+    handedOutThumbnails = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    cache = new LruCache<String, Bitmap>(MAX_CACHE_BYTES) {
+      @Override
+      protected int sizeOf(String key, Bitmap value) {
+        return value.getRowBytes() * value.getHeight();
+      }
+
+      @Override
+      protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+          Bitmap newValue) {
+        // Thumbnails handed out to the caller may still be displayed, so only the others are
+        // drawn over again.
+        if (!handedOutThumbnails.remove(oldValue)) {
+          bitmapPool.put(oldValue);
+        }
+      }
+    };
+    pendingTiles = new HashSet<>();
+    paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    requestedPositionMs = NO_REQUESTED_POSITION;
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the thumbnail for a position if it is cached. Otherwise loads it and reports it to the
+   * {@link Listener}. Thumbnails around the position are prefetched in both cases.
+   *
+   * @param positionMs The playback position in milliseconds.
+   * @param width The width of the view showing the thumbnail. The thumbnail is scaled to fit.
+   * @param height The height of the view showing the thumbnail.
+   * @return The thumbnail, or null if it is not cached or the position has no thumbnail.
+   */
+  public Bitmap getThumbnail(long positionMs, int width, int height) {
+    TilePosition position = released ? null : getTilePosition(positionMs, width);
+    if (position == null) {
+      return null;
+    }
+    Bitmap thumbnail = cache.get(getThumbnailKey(position, position.cell, width, height));
+    if (thumbnail == null) {
+      requestedPositionMs = positionMs;
+    } else {
+      handedOutThumbnails.add(thumbnail);
+    }
+    for (int i = 0; i <= PREFETCH_TILE_COUNT; i++) {
+      maybeLoadTile(position, i, width, height);
+      if (i != 0) {
+        maybeLoadTile(position, -i, width, height);
+      }
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Stops loading and frees the cached bitmaps.
+   */
+  public void release() {
+    released = true;
+    executor.shutdownNow();
+    cache.evictAll();
+    bitmapPool.clear();
+    handedOutThumbnails.clear();
+  }
+
+  private void maybeLoadTile(TilePosition position, int offset, final int width,
+      final int height) {
+    final int segmentNum = position.segmentNum + offset;
+    DashSegmentIndex index = position.representation.getIndex();
+    int lastSegmentNum = index.getLastSegmentNum(position.periodDurationUs);
+    if (segmentNum < index.getFirstSegmentNum()
+        || (lastSegmentNum != DashSegmentIndex.INDEX_UNBOUNDED && segmentNum > lastSegmentNum)) {
+      return;
+    }
+    final TilePosition tile = new TilePosition(position.periodIndex, position.representation,
+        position.periodDurationUs, segmentNum, 0);
+    final String tileKey = getThumbnailKey(tile, -1, width, height);
+    if (pendingTiles.contains(tileKey)
+        || cache.get(getThumbnailKey(tile, 0, width, height)) != null) {
+      return;
+    }
+    pendingTiles.add(tileKey);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<Bitmap> thumbnails = loadTile(tile, width, height);
+        handler.post(new Runnable() {
+          @Override
+          public void run() {
+            onTileLoaded(tile, tileKey, thumbnails, width, height);
+          }
+        });
+      }
+    });
+  }
+
+  private void onTileLoaded(TilePosition tile, String tileKey, List<Bitmap> thumbnails, int width,
+      int height) {
+    pendingTiles.remove(tileKey);
+    if (released || thumbnails == null) {
+      return;
+    }
+    for (int i = 0; i < thumbnails.size(); i++) {
+      cache.put(getThumbnailKey(tile, i, width, height), thumbnails.get(i));
+    }
+    if (requestedPositionMs != NO_REQUESTED_POSITION && listener != null) {
+      TilePosition requested = getTilePosition(requestedPositionMs, width);
+      if (requested != null && requested.representation == tile.representation
+          && requested.segmentNum == tile.segmentNum && requested.cell < thumbnails.size()) {
+        long positionMs = requestedPositionMs;
+        requestedPositionMs = NO_REQUESTED_POSITION;
+        Bitmap thumbnail = thumbnails.get(requested.cell);
+        handedOutThumbnails.add(thumbnail);
+        listener.onThumbnailAvailable(positionMs, thumbnail);
+      }
+    }
+  }
+
+  /**
+   * Loads, decodes and cuts a tile image. Runs on the executor.
+   */
+  private List<Bitmap> loadTile(TilePosition tile, int width, int height) {
+    byte[] data;
+    try {
+      data = loadTileData(tile);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to load thumbnail tile " + tile.segmentNum, e);
+      return null;
+    }
+    int[] layout = getTileLayout(tile.representation);
+    int columns = layout[0];
+    int rows = layout[1];
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+    int cellWidth = options.outWidth / columns;
+    int cellHeight = options.outHeight / rows;
+    // Decode at the smallest power of two reduction that still covers the requested size.
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = 1;
+    while (cellWidth / (options.inSampleSize * 2) >= width
+        && cellHeight / (options.inSampleSize * 2) >= height) {
+      options.inSampleSize *= 2;
+    }
+    options.inMutable = true;
+    options.inBitmap = bitmapPool.get(options.outWidth / options.inSampleSize,
+        options.outHeight / options.inSampleSize);
+    Bitmap image;
+    try {
+      image = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    } catch (IllegalArgumentException e) {
+      // The pooled bitmap could not be reused for this image.
+      options.inBitmap = null;
+      image = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+    if (image == null) {
+      return null;
+    }
+
+    int sourceCellWidth = image.getWidth() / columns;
+    int sourceCellHeight = image.getHeight() / rows;
+    float scale = Math.min(1f, Math.min((float) width / sourceCellWidth,
+        (float) height / sourceCellHeight));
+    int thumbnailWidth = Math.max(1, Math.round(sourceCellWidth * scale));
+    int thumbnailHeight = Math.max(1, Math.round(sourceCellHeight * scale));
+    List<Bitmap> thumbnails = new ArrayList<>(columns * rows);
+    Rect source = new Rect();
+    Rect destination = new Rect(0, 0, thumbnailWidth, thumbnailHeight);
+    for (int row = 0; row < rows; row++) {
+      for (int column = 0; column < columns; column++) {
+        Bitmap thumbnail = bitmapPool.get(thumbnailWidth, thumbnailHeight);
+        if (thumbnail == null) {
+          thumbnail = Bitmap.createBitmap(thumbnailWidth, thumbnailHeight, Bitmap.Config.RGB_565);
+        }
+        source.set(column * sourceCellWidth, row * sourceCellHeight,
+            (column + 1) * sourceCellWidth, (row + 1) * sourceCellHeight);
+        new Canvas(thumbnail).drawBitmap(image, source, destination, paint);
+        thumbnails.add(thumbnail);
+      }
+    }
+    bitmapPool.put(image);
+    return thumbnails;
+  }
+
+  private byte[] loadTileData(TilePosition tile) throws IOException {
+    RangedUri uri = tile.representation.getIndex().getSegmentUrl(tile.segmentNum);
+    DataSource dataSource = dataSourceFactory.createDataSource();
+    try {
+      long length = dataSource.open(new DataSpec(uri.getUri(), uri.start, uri.length,
+          tile.representation.getCacheKey()));
+      byte[] data = new byte[length != C.LENGTH_UNBOUNDED ? (int) length : READ_BUFFER_SIZE];
+      int bytesLoaded = 0;
+      int bytesRead;
+      while ((bytesRead = dataSource.read(data, bytesLoaded, data.length - bytesLoaded))
+          != C.RESULT_END_OF_INPUT) {
+        bytesLoaded += bytesRead;
+        if (bytesLoaded == data.length) {
+          data = Arrays.copyOf(data, data.length * 2);
+        }
+      }
+      return bytesLoaded == data.length ? data : Arrays.copyOf(data, bytesLoaded);
+    } finally {
+      dataSource.close();
+    }
+  }
+
+  /**
+   * Finds the image and grid cell showing a position, in the thumbnail representation best
+   * matching the requested width.
+   */
+  private TilePosition getTilePosition(long positionMs, int width) {
+    for (int i = manifest.getPeriodCount() - 1; i >= 0; i--) {
+      Period period = manifest.getPeriod(i);
+      if (period.startMs > positionMs) {
+        continue;
+      }
+      Representation representation = selectRepresentation(getThumbnailRepresentations(period),
+          width);
+      if (representation == null) {
+        return null;
+      }
+      long periodDurationMs = manifest.getPeriodDuration(i);
+      long periodDurationUs = periodDurationMs == -1 ? C.UNKNOWN_TIME_US : periodDurationMs * 1000;
+      DashSegmentIndex index = representation.getIndex();
+      long periodPositionUs = (positionMs - period.startMs) * 1000;
+      int segmentNum = index.getSegmentNum(periodPositionUs, periodDurationUs);
+      long segmentStartUs = index.getTimeUs(segmentNum);
+      long segmentDurationUs = index.getDurationUs(segmentNum, periodDurationUs);
+      int[] layout = getTileLayout(representation);
+      int cellCount = layout[0] * layout[1];
+      int cell = segmentDurationUs <= 0 ? 0
+          : (int) ((periodPositionUs - segmentStartUs) * cellCount / segmentDurationUs);
+      return new TilePosition(i, representation, periodDurationUs, segmentNum,
+          Math.max(0, Math.min(cellCount - 1, cell)));
+    }
+    return null;
+  }
+
+  /**
+   * Picks the smallest representation whose thumbnails are at least as wide as requested, or the
+   * largest one.
+   */
+  private static Representation selectRepresentation(List<Representation> representations,
+      int width) {
+    Representation selected = null;
+    int selectedWidth = 0;
+    for (int i = 0; i < representations.size(); i++) {
+      Representation representation = representations.get(i);
+      int thumbnailWidth = representation.format.width / getTileLayout(representation)[0];
+      boolean selectedTooSmall = selectedWidth < width;
+      if (selected == null || (selectedTooSmall && thumbnailWidth > selectedWidth)
+          || (!selectedTooSmall && thumbnailWidth >= width && thumbnailWidth < selectedWidth)) {
+        selected = representation;
+        selectedWidth = thumbnailWidth;
+      }
+    }
+    return selected;
+  }
+
+  private static List<Representation> getThumbnailRepresentations(Period period) {
+    List<Representation> thumbnailRepresentations = new ArrayList<>();
+    for (int i = 0; i < period.adaptationSets.size(); i++) {
+      AdaptationSet adaptationSet = period.adaptationSets.get(i);
+      for (int j = 0; j < adaptationSet.representations.size(); j++) {
+        Representation representation = adaptationSet.representations.get(j);
+        String mimeType = representation.format.mimeType;
+        if (mimeType != null && mimeType.startsWith("image/")
+            && representation.getIndex() != null) {
+          thumbnailRepresentations.add(representation);
+        }
+      }
+    }
+    return thumbnailRepresentations;
+  }
+
+  private static String getThumbnailKey(TilePosition tile, int cell, int width, int height) {
+    return tile.periodIndex + ":" + tile.representation.format.id + ":" + tile.segmentNum + ":"
+        + cell + ":" + width + "x" + height;
+  }
+
+  private static final class TilePosition {
+
+    public final int periodIndex;
+    public final Representation representation;
+    public final long periodDurationUs;
+    public final int segmentNum;
+    public final int cell;
+
+    public TilePosition(int periodIndex, Representation representation, long periodDurationUs,
+        int segmentNum, int cell) {
+      this.periodIndex = periodIndex;
+      this.representation = representation;
+      this.periodDurationUs = periodDurationUs;
+      this.segmentNum = segmentNum;
+      this.cell = cell;
+    }
+
+  }
+
+  /**
+   * Keeps unused bitmaps by size for decoding into, bounded in bytes.
+   */
+  private static final class BitmapPool {
+
+    private final int maxBytes;
+    private final HashMap<Long, ArrayDeque<Bitmap>> bitmaps;
+
+    private int size;
+
+    public BitmapPool(int maxBytes) {
+      this.maxBytes = maxBytes;
+      bitmaps = new HashMap<>();
+    }
+
+    public synchronized Bitmap get(int width, int height) {
+      ArrayDeque<Bitmap> pooled = bitmaps.get(getKey(width, height));
+      Bitmap bitmap = pooled != null ? pooled.pollFirst() : null;
+      if (bitmap != null) {
+        size -= getSize(bitmap);
+      }
+      return bitmap;
+    }
+
+    public synchronized void put(Bitmap bitmap) {
+      int bitmapSize = getSize(bitmap);
+      if (!bitmap.isMutable() || size + bitmapSize > maxBytes) {
+        return;
+      }
+      Long key = getKey(bitmap.getWidth(), bitmap.getHeight());
+      ArrayDeque<Bitmap> pooled = bitmaps.get(key);
+      if (pooled == null) {
+        pooled = new ArrayDeque<>();
+        bitmaps.put(key, pooled);
+      }
+      pooled.addLast(bitmap);
+      size += bitmapSize;
+    }
+
+    public synchronized void clear() {
+      bitmaps.clear();
+      size = 0;
+    }
+
+    private static Long getKey(int width, int height) {
+      return ((long) width << 32) | height;
+    }
+
+    private static int getSize(Bitmap bitmap) {
+      return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+  }
+
+}
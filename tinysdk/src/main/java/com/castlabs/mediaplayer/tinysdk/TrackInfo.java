@@ -22,6 +22,11 @@ public class TrackInfo {
 
     public String getMimeType() { return format.mimeType; };
 
+    /**
+     * Returns the id of the track in the stream, such as the id of a DASH representation.
+     */
+    public String getId() { return format.trackId; };
+
     public int getHeight() { return format.height; };
 
     public int getWidth() { return format.width; };
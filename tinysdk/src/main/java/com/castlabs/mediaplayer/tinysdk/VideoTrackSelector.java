@@ -0,0 +1,71 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import com.google.android.exoplayer.dash.DashTrackSelector;
+import com.google.android.exoplayer.dash.mpd.AdaptationSet;
+import com.google.android.exoplayer.dash.mpd.MediaPresentationDescription;
+import com.google.android.exoplayer.dash.mpd.Period;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingManifest.StreamElement;
+import com.google.android.exoplayer.smoothstreaming.SmoothStreamingTrackSelector;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Selects the video tracks of DASH and SmoothStreaming streams like the default track selectors,
+ * but checks the formats against the {@link DeviceCapabilities} snapshot instead of querying the
+ * decoders.
+ */
+final class VideoTrackSelector implements DashTrackSelector, SmoothStreamingTrackSelector {
+
+  private final DeviceCapabilities capabilities;
+  private final boolean filterProtectedHdContent;
+
+  /**
+   * @param filterProtectedHdContent Whether to drop HD formats of protected content.
+   */
+  public VideoTrackSelector(DeviceCapabilities capabilities, boolean filterProtectedHdContent) {
+    this.capabilities = capabilities;
+    this.filterProtectedHdContent = filterProtectedHdContent;
+  }
+
+  @Override
+  public void selectTracks(MediaPresentationDescription manifest, int periodIndex,
+      DashTrackSelector.Output output) throws IOException {
+    Period period = manifest.getPeriod(periodIndex);
+    for (int i = 0; i < period.adaptationSets.size(); i++) {
+      AdaptationSet adaptationSet = period.adaptationSets.get(i);
+      if (adaptationSet.type != AdaptationSet.TYPE_VIDEO) {
+        continue;
+      }
+      int[] representations = capabilities.selectVideoFormats(adaptationSet.representations,
+          filterProtectedHdContent && adaptationSet.hasContentProtection());
+      if (representations.length > 1) {
+        output.adaptiveTrack(manifest, periodIndex, i, representations);
+      }
+      for (int representation : representations) {
+        output.fixedTrack(manifest, periodIndex, i, representation);
+      }
+    }
+  }
+
+  @Override
+  public void selectTracks(SmoothStreamingManifest manifest,
+      SmoothStreamingTrackSelector.Output output) throws IOException {
+    for (int i = 0; i < manifest.streamElements.length; i++) {
+      StreamElement element = manifest.streamElements[i];
+      if (element.type != StreamElement.TYPE_VIDEO) {
+        continue;
+      }
+      int[] tracks = capabilities.selectVideoFormats(Arrays.asList(element.tracks),
+          filterProtectedHdContent && manifest.protectionElement != null);
+      if (tracks.length > 1) {
+        output.adaptiveTrack(manifest, i, tracks);
+      }
+      for (int track : tracks) {
+        output.fixedTrack(manifest, i, track);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,137 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class DrmLicenseManagerTest {
+
+  private static final byte[] WIDEVINE_SYSTEM_ID = new byte[] {
+      (byte) 0xED, (byte) 0xEF, (byte) 0x8B, (byte) 0xA9, 0x79, (byte) 0xD6, 0x4A, (byte) 0xCE,
+      (byte) 0xA3, (byte) 0xC8, 0x27, (byte) 0xDC, (byte) 0xD5, 0x1D, 0x21, (byte) 0xED};
+
+  private static final byte[] KEY_ID_1 = createKeyId(0x01);
+  private static final byte[] KEY_ID_2 = createKeyId(0x02);
+  private static final byte[] KEY_ID_3 = createKeyId(0xA0);
+
+  @Test
+  public void parseVersion0() {
+    // algorithm = AESCTR, key_id, provider = "castlabs".
+    byte[] data = concat(new byte[] {0x08, 0x01}, keyIdField(KEY_ID_1),
+        new byte[] {0x1A, 0x08, 'c', 'a', 's', 't', 'l', 'a', 'b', 's'});
+    List<String> keyIds = new ArrayList<>();
+
+    assertArrayEquals(data, DrmLicenseManager.parsePssh(createPssh(0, null, data), keyIds));
+    assertEquals(Arrays.asList("01010101010101010101010101010101"), keyIds);
+  }
+
+  @Test
+  public void parseVersion0WithSeveralKeyIds() {
+    byte[] data = concat(keyIdField(KEY_ID_1), keyIdField(KEY_ID_3));
+    List<String> keyIds = new ArrayList<>();
+
+    assertArrayEquals(data, DrmLicenseManager.parsePssh(createPssh(0, null, data), keyIds));
+    assertEquals(Arrays.asList("01010101010101010101010101010101",
+        "a0a0a0a0a0a0a0a0a0a0a0a0a0a0a0a0"), keyIds);
+  }
+
+  @Test
+  public void parseVersion1() {
+    // The key ids of the header take precedence over those of the Widevine data.
+    byte[] data = keyIdField(KEY_ID_3);
+    List<String> keyIds = new ArrayList<>();
+
+    byte[] pssh = createPssh(1, new byte[][] {KEY_ID_1, KEY_ID_2}, data);
+    assertArrayEquals(data, DrmLicenseManager.parsePssh(pssh, keyIds));
+    assertEquals(Arrays.asList("01010101010101010101010101010101",
+        "02020202020202020202020202020202"), keyIds);
+  }
+
+  @Test
+  public void parseVersion1WithoutKeyIds() {
+    byte[] data = keyIdField(KEY_ID_3);
+    List<String> keyIds = new ArrayList<>();
+
+    assertArrayEquals(data,
+        DrmLicenseManager.parsePssh(createPssh(1, new byte[0][], data), keyIds));
+    assertEquals(Arrays.asList("a0a0a0a0a0a0a0a0a0a0a0a0a0a0a0a0"), keyIds);
+  }
+
+  @Test
+  public void parseMalformedWidevineData() {
+    // The second field claims more bytes than remain.
+    byte[] data = concat(keyIdField(KEY_ID_1), new byte[] {0x12, 0x20, 0x00});
+    List<String> keyIds = new ArrayList<>();
+
+    assertArrayEquals(data, DrmLicenseManager.parsePssh(createPssh(0, null, data), keyIds));
+    assertEquals(Arrays.asList("01010101010101010101010101010101"), keyIds);
+  }
+
+  @Test
+  public void parseMalformedBox() {
+    byte[] pssh = createPssh(0, null, keyIdField(KEY_ID_1));
+    List<String> keyIds = new ArrayList<>();
+
+    assertNull(DrmLicenseManager.parsePssh(Arrays.copyOf(pssh, 31), keyIds));
+    // Size that does not match the box.
+    assertNull(DrmLicenseManager.parsePssh(Arrays.copyOf(pssh, pssh.length - 1), keyIds));
+    // Type other than pssh.
+    byte[] wrongType = pssh.clone();
+    wrongType[4] = 'x';
+    assertNull(DrmLicenseManager.parsePssh(wrongType, keyIds));
+    // Data size beyond the end of the box.
+    byte[] wrongDataSize = pssh.clone();
+    wrongDataSize[31]++;
+    assertNull(DrmLicenseManager.parsePssh(wrongDataSize, keyIds));
+    assertTrue(keyIds.isEmpty());
+  }
+
+  private static byte[] createPssh(int version, byte[][] keyIds, byte[] data) {
+    int size = 32 + data.length + (version == 1 ? 4 + keyIds.length * 16 : 0);
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(size);
+    buffer.putInt(0x70737368);
+    buffer.putInt(version << 24);
+    buffer.put(WIDEVINE_SYSTEM_ID);
+    if (version == 1) {
+      buffer.putInt(keyIds.length);
+      for (byte[] keyId : keyIds) {
+        buffer.put(keyId);
+      }
+    }
+    buffer.putInt(data.length);
+    buffer.put(data);
+    return buffer.array();
+  }
+
+  private static byte[] keyIdField(byte[] keyId) {
+    return concat(new byte[] {0x12, 0x10}, keyId);
+  }
+
+  private static byte[] createKeyId(int value) {
+    byte[] keyId = new byte[16];
+    Arrays.fill(keyId, (byte) value);
+    return keyId;
+  }
+
+  private static byte[] concat(byte[]... arrays) {
+    int length = 0;
+    for (byte[] array : arrays) {
+      length += array.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (byte[] array : arrays) {
+      buffer.put(array);
+    }
+    return buffer.array();
+  }
+
+}
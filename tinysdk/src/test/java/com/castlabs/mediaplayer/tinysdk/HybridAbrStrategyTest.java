@@ -0,0 +1,144 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.android.exoplayer.chunk.Chunk;
+import com.google.android.exoplayer.chunk.Format;
+import com.google.android.exoplayer.chunk.FormatEvaluator.Evaluation;
+import com.google.android.exoplayer.upstream.BandwidthMeter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public final class HybridAbrStrategyTest {
+
+  private static final Format FORMAT_4000 = createFormat("4000", 4000000);
+  private static final Format FORMAT_2000 = createFormat("2000", 2000000);
+  private static final Format FORMAT_1000 = createFormat("1000", 1000000);
+  private static final Format FORMAT_500 = createFormat("500", 500000);
+  private static final Format[] FORMATS =
+      new Format[] {FORMAT_4000, FORMAT_2000, FORMAT_1000, FORMAT_500};
+
+  private FakeBandwidthMeter bandwidthMeter;
+  private HybridAbrStrategy.HybridEvaluator evaluator;
+  private Evaluation evaluation;
+
+  @Before
+  public void setUp() {
+    bandwidthMeter = new FakeBandwidthMeter();
+    evaluator = (HybridAbrStrategy.HybridEvaluator)
+        new HybridAbrStrategy().createFormatEvaluator(bandwidthMeter);
+    evaluator.enable();
+    evaluation = new Evaluation();
+  }
+
+  @Test
+  public void initialFormatWithoutEstimate() {
+    evaluator.evaluate(0, FORMATS, evaluation);
+    assertEquals(FORMAT_500, evaluation.format);
+    assertEquals(Chunk.TRIGGER_INITIAL, evaluation.trigger);
+  }
+
+  @Test
+  public void fastRampFollowsEstimate() {
+    evaluator.evaluate(0, FORMATS, evaluation);
+    bandwidthMeter.bitrateEstimate = 3000000;
+    evaluator.evaluate(2000000, FORMATS, evaluation);
+    assertEquals(FORMAT_2000, evaluation.format);
+    assertEquals(Chunk.TRIGGER_ADAPTIVE, evaluation.trigger);
+  }
+
+  @Test
+  public void increaseWaitsForBuffer() {
+    // Leaves the fast ramp at the lowest format.
+    evaluator.evaluate(9000000, FORMATS, evaluation);
+    assertEquals(FORMAT_500, evaluation.format);
+
+    bandwidthMeter.bitrateEstimate = 6000000;
+    evaluator.evaluate(9000000, FORMATS, evaluation);
+    assertEquals(FORMAT_500, evaluation.format);
+
+    // The buffer allows the 2000 format only, however high the estimate.
+    evaluator.evaluate(12000000, FORMATS, evaluation);
+    assertEquals(FORMAT_2000, evaluation.format);
+
+    evaluator.evaluate(29000000, FORMATS, evaluation);
+    assertEquals(FORMAT_4000, evaluation.format);
+  }
+
+  @Test
+  public void increaseLimitedByEstimate() {
+    bandwidthMeter.bitrateEstimate = 1500000;
+    evaluator.evaluate(9000000, FORMATS, evaluation);
+    assertEquals(FORMAT_1000, evaluation.format);
+
+    evaluator.evaluate(29000000, FORMATS, evaluation);
+    assertEquals(FORMAT_1000, evaluation.format);
+  }
+
+  @Test
+  public void decreaseWithSmallBuffer() {
+    bandwidthMeter.bitrateEstimate = 6000000;
+    evaluator.evaluate(9000000, FORMATS, evaluation);
+    assertEquals(FORMAT_4000, evaluation.format);
+
+    bandwidthMeter.bitrateEstimate = 1500000;
+    evaluator.evaluate(20000000, FORMATS, evaluation);
+    assertEquals(FORMAT_1000, evaluation.format);
+    assertEquals(Chunk.TRIGGER_ADAPTIVE, evaluation.trigger);
+  }
+
+  @Test
+  public void largeBufferRidesOutDecrease() {
+    bandwidthMeter.bitrateEstimate = 6000000;
+    evaluator.evaluate(9000000, FORMATS, evaluation);
+    assertEquals(FORMAT_4000, evaluation.format);
+
+    bandwidthMeter.bitrateEstimate = 1500000;
+    evaluator.evaluate(28000000, FORMATS, evaluation);
+    assertEquals(FORMAT_4000, evaluation.format);
+  }
+
+  @Test
+  public void bufferFormatBoundaries() {
+    assertEquals(FORMAT_500, evaluator.determineBufferFormat(FORMATS, 0));
+    assertEquals(FORMAT_500, evaluator.determineBufferFormat(FORMATS, 600000));
+    assertEquals(FORMAT_1000, evaluator.determineBufferFormat(FORMATS, 700000));
+    assertEquals(FORMAT_1000, evaluator.determineBufferFormat(FORMATS, 7900000));
+    assertEquals(FORMAT_2000, evaluator.determineBufferFormat(FORMATS, 8100000));
+    assertEquals(FORMAT_2000, evaluator.determineBufferFormat(FORMATS, 15300000));
+    assertEquals(FORMAT_4000, evaluator.determineBufferFormat(FORMATS, 15400000));
+    assertEquals(FORMAT_4000, evaluator.determineBufferFormat(FORMATS, 30000000));
+  }
+
+  private static Format createFormat(String id, int bitrate) {
+    return new Format(id, "video/mp4", 1280, 720, 25, -1, -1, bitrate);
+  }
+
+  private static final class FakeBandwidthMeter implements BandwidthMeter {
+
+    public long bitrateEstimate = NO_ESTIMATE;
+
+    @Override
+    public long getBitrateEstimate() {
+      return bitrateEstimate;
+    }
+
+    @Override
+    public void onTransferStart() {
+      // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(int bytes) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onTransferEnd() {
+      // Do nothing.
+    }
+
+  }
+
+}
@@ -0,0 +1,97 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public final class LatencyHistogramTest {
+
+  @Test
+  public void smallValuesHaveABucketEach() {
+    for (int value = 0; value < 16; value++) {
+      assertEquals(value, LatencyHistogram.getIndex(value));
+      assertEquals(value, LatencyHistogram.getHighestValue(value));
+    }
+  }
+
+  @Test
+  public void bucketBoundaries() {
+    assertEquals(16, LatencyHistogram.getIndex(16));
+    assertEquals(31, LatencyHistogram.getIndex(31));
+    // From 32 on, buckets are two values wide.
+    assertEquals(32, LatencyHistogram.getIndex(32));
+    assertEquals(32, LatencyHistogram.getIndex(33));
+    assertEquals(33, LatencyHistogram.getIndex(34));
+    assertEquals(33, LatencyHistogram.getHighestValue(32));
+    // And from 64 on, four values wide.
+    assertEquals(48, LatencyHistogram.getIndex(64));
+    assertEquals(48, LatencyHistogram.getIndex(67));
+    assertEquals(49, LatencyHistogram.getIndex(68));
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    int lastIndex = LatencyHistogram.getIndex(LatencyHistogram.MAX_VALUE);
+    assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.getHighestValue(lastIndex));
+    for (int index = 0; index < lastIndex; index++) {
+      long highestValue = LatencyHistogram.getHighestValue(index);
+      assertEquals(index, LatencyHistogram.getIndex(highestValue));
+      assertEquals(index + 1, LatencyHistogram.getIndex(highestValue + 1));
+    }
+  }
+
+  @Test
+  public void bucketsAreWithinRelativeError() {
+    int lastIndex = LatencyHistogram.getIndex(LatencyHistogram.MAX_VALUE);
+    for (int index = 1; index <= lastIndex; index++) {
+      long lowestValue = LatencyHistogram.getHighestValue(index - 1) + 1;
+      long width = LatencyHistogram.getHighestValue(index) - lowestValue + 1;
+      assertTrue(width * 16 <= Math.max(16, lowestValue));
+    }
+  }
+
+  @Test
+  public void recordClampsValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(LatencyHistogram.MAX_VALUE + 1000);
+
+    RenderStatsSampler.Distribution distribution = histogram.snapshot();
+    assertEquals(2, distribution.getCount());
+    assertEquals(LatencyHistogram.MAX_VALUE, distribution.getMax());
+    assertEquals(0, distribution.getPercentile(50));
+    assertEquals(LatencyHistogram.MAX_VALUE, distribution.getPercentile(100));
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    RenderStatsSampler.Distribution distribution = histogram.snapshot();
+    assertEquals(100, distribution.getCount());
+    assertEquals(50.5, distribution.getMean(), 0);
+    // Reported as the highest value of their bucket, but never above the maximum.
+    assertEquals(10, distribution.getPercentile(10));
+    assertEquals(51, distribution.getPercentile(50));
+    assertEquals(91, distribution.getPercentile(90));
+    assertEquals(99, distribution.getPercentile(99));
+    assertEquals(100, distribution.getPercentile(100));
+  }
+
+  @Test
+  public void reset() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1000);
+    histogram.reset();
+
+    RenderStatsSampler.Distribution distribution = histogram.snapshot();
+    assertEquals(0, distribution.getCount());
+    assertEquals(0, distribution.getMax());
+    assertEquals(0, distribution.getPercentile(50));
+  }
+
+}
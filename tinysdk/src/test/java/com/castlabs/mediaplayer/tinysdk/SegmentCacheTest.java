@@ -0,0 +1,37 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.android.exoplayer.C;
+
+import org.junit.Test;
+
+public final class SegmentCacheTest {
+
+  @Test
+  public void templateSegmentsDoNotAlias() {
+    // Segments of a SegmentTemplate representation share its cache key and all start at 0.
+    String firstKey = SegmentCache.getCacheKey("http://cdn/video/720p/segment-1.m4s", 0,
+        C.LENGTH_UNBOUNDED);
+    String secondKey = SegmentCache.getCacheKey("http://cdn/video/720p/segment-2.m4s", 0,
+        C.LENGTH_UNBOUNDED);
+    assertFalse(firstKey.equals(secondKey));
+  }
+
+  @Test
+  public void rangesOfOneFileDoNotAlias() {
+    String uri = "http://cdn/video/720p.mp4";
+    assertFalse(SegmentCache.getCacheKey(uri, 0, 1000)
+        .equals(SegmentCache.getCacheKey(uri, 1000, 1000)));
+    assertFalse(SegmentCache.getCacheKey(uri, 0, 1000)
+        .equals(SegmentCache.getCacheKey(uri, 0, 2000)));
+  }
+
+  @Test
+  public void sameSegmentSharesKey() {
+    String uri = "http://cdn/video/720p/segment-1.m4s?token=1";
+    assertEquals(SegmentCache.getCacheKey(uri, 0, 1000), SegmentCache.getCacheKey(uri, 0, 1000));
+  }
+
+}
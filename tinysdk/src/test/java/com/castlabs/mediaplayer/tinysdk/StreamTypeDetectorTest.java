@@ -0,0 +1,108 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertEquals;
+
+import com.castlabs.mediaplayer.tinysdk.Stream.SourceType;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public final class StreamTypeDetectorTest {
+
+  @Test
+  public void inferFromUri_extension() {
+    assertEquals(SourceType.MPEG_DASH,
+        StreamTypeDetector.inferFromUri("https", "/content/Manifest.MPD", null));
+    assertEquals(SourceType.HLS,
+        StreamTypeDetector.inferFromUri("https", "/content/master.m3u8", null));
+    assertEquals(SourceType.SS,
+        StreamTypeDetector.inferFromUri("https", "/content/video.ism/Manifest", null));
+    assertEquals(SourceType.SS, StreamTypeDetector.inferFromUri("https", "/live.isml", null));
+    assertEquals(SourceType.OTHER, StreamTypeDetector.inferFromUri("https", "/video.mp4", null));
+  }
+
+  @Test
+  public void inferFromUri_formatParameter() {
+    assertEquals(SourceType.MPEG_DASH,
+        StreamTypeDetector.inferFromUri("http", "/content/video", "mpd-time-csf"));
+    assertEquals(SourceType.HLS, StreamTypeDetector.inferFromUri("http", "/content/video", "M3U8"));
+    assertEquals(SourceType.UNKNOWN,
+        StreamTypeDetector.inferFromUri("http", "/content/video", "json"));
+  }
+
+  @Test
+  public void inferFromUri_localWithoutExtension() {
+    assertEquals(SourceType.OTHER, StreamTypeDetector.inferFromUri("file", "/sdcard/video", null));
+    assertEquals(SourceType.OTHER, StreamTypeDetector.inferFromUri("content", null, null));
+  }
+
+  @Test
+  public void inferFromUri_ambiguousHttp() {
+    assertEquals(SourceType.UNKNOWN, StreamTypeDetector.inferFromUri("https", "/play/42", null));
+    assertEquals(SourceType.UNKNOWN, StreamTypeDetector.inferFromUri(null, null, null));
+  }
+
+  @Test
+  public void inferFromContentType() {
+    assertEquals(SourceType.MPEG_DASH,
+        StreamTypeDetector.inferFromContentType("application/dash+xml; charset=UTF-8"));
+    assertEquals(SourceType.HLS,
+        StreamTypeDetector.inferFromContentType("application/vnd.apple.mpegURL"));
+    assertEquals(SourceType.SS,
+        StreamTypeDetector.inferFromContentType("application/vnd.ms-sstr+xml"));
+    assertEquals(SourceType.OTHER, StreamTypeDetector.inferFromContentType("video/mp4"));
+    assertEquals(SourceType.UNKNOWN, StreamTypeDetector.inferFromContentType("text/xml"));
+    assertEquals(SourceType.UNKNOWN, StreamTypeDetector.inferFromContentType(null));
+  }
+
+  @Test
+  public void inferFromContent_playlist() {
+    assertEquals(SourceType.HLS, inferFromContent("\uFEFF#EXTM3U\n#EXT-X-VERSION:3\n"));
+    assertEquals(SourceType.HLS, inferFromContent("\r\n#EXTM3U\n"));
+  }
+
+  @Test
+  public void inferFromContent_rootElement() {
+    assertEquals(SourceType.MPEG_DASH, inferFromContent(
+        "<?xml version=\"1.0\"?>\n<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\">"));
+    assertEquals(SourceType.MPEG_DASH, inferFromContent("<dash:MPD>"));
+    assertEquals(SourceType.SS, inferFromContent(
+        "<?xml version=\"1.0\"?><SmoothStreamingMedia MajorVersion=\"2\">"));
+    assertEquals(SourceType.OTHER, inferFromContent("<?xml version=\"1.0\"?><html>"));
+  }
+
+  @Test
+  public void inferFromContent_longPreamble() {
+    StringBuilder builder = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    builder.append("<!-- Generated by a packager.\n");
+    for (int i = 0; i < 100; i++) {
+      builder.append("     Copyright notice line that pads the preamble of the manifest.\n");
+    }
+    builder.append("-->\n<!DOCTYPE MPD>\n<?xml-stylesheet href=\"mpd.xsl\"?>\n");
+    builder.append("<MPD xmlns=\"urn:mpeg:dash:schema:mpd:2011\" type=\"static\">");
+    byte[] data = builder.toString().getBytes(Charset.forName("UTF-8"));
+
+    // The first kilobyte ends in the comment, so more data is needed.
+    assertEquals(SourceType.UNKNOWN, StreamTypeDetector.inferFromContent(data, 1024));
+    assertEquals(SourceType.MPEG_DASH, StreamTypeDetector.inferFromContent(data, data.length));
+  }
+
+  @Test
+  public void inferFromContent_truncatedRootElement() {
+    assertEquals(SourceType.UNKNOWN, inferFromContent("<?xml version=\"1.0\"?><MP"));
+    assertEquals(SourceType.UNKNOWN, inferFromContent(""));
+  }
+
+  @Test
+  public void inferFromContent_binary() {
+    byte[] data = new byte[] {0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+    assertEquals(SourceType.OTHER, StreamTypeDetector.inferFromContent(data, data.length));
+  }
+
+  private static SourceType inferFromContent(String content) {
+    byte[] data = content.getBytes(Charset.forName("UTF-8"));
+    return StreamTypeDetector.inferFromContent(data, data.length);
+  }
+
+}
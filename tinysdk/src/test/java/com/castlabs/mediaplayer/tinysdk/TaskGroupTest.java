@@ -0,0 +1,122 @@
+package com.castlabs.mediaplayer.tinysdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public final class TaskGroupTest {
+
+  private ExecutorService executor;
+  private List<String> events;
+
+  @Before
+  public void setUp() {
+    // A single worker, as with DownloadManager's maxParallelDownloads = 1.
+    executor = Executors.newFixedThreadPool(1);
+    events = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void startFollowedByRemoveOnSingleWorker() throws InterruptedException {
+    final TaskGroup download = new TaskGroup(executor);
+    download.executeAfter(null, new Runnable() {
+      @Override
+      public void run() {
+        // Like a download run, the first task queues the segment tasks behind it.
+        for (int i = 0; i < 3; i++) {
+          final String event = "segment" + i;
+          download.execute(new Runnable() {
+            @Override
+            public void run() {
+              events.add(event);
+            }
+          });
+        }
+        events.add("start");
+      }
+    });
+    TaskGroup removal = new TaskGroup(executor);
+    final CountDownLatch removed = new CountDownLatch(1);
+    removal.executeAfter(download, new Runnable() {
+      @Override
+      public void run() {
+        events.add("remove");
+        removed.countDown();
+      }
+    });
+
+    assertTrue(removed.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("start", "segment0", "segment1", "segment2", "remove"), events);
+  }
+
+  @Test
+  public void chainedGroupsRunInOrder() throws InterruptedException {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    TaskGroup first = new TaskGroup(executor);
+    first.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        events.add("first");
+      }
+    });
+    // The second group is still waiting for the first when the third is chained to it.
+    TaskGroup second = new TaskGroup(executor);
+    second.executeAfter(first, new Runnable() {
+      @Override
+      public void run() {
+        events.add("second");
+      }
+    });
+    TaskGroup third = new TaskGroup(executor);
+    final CountDownLatch done = new CountDownLatch(1);
+    third.executeAfter(second, new Runnable() {
+      @Override
+      public void run() {
+        events.add("third");
+        done.countDown();
+      }
+    });
+    blocked.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(Arrays.asList("first", "second", "third"), events);
+  }
+
+  @Test
+  public void idleGroupDoesNotDelay() throws InterruptedException {
+    TaskGroup idle = new TaskGroup(executor);
+    TaskGroup next = new TaskGroup(executor);
+    final CountDownLatch done = new CountDownLatch(1);
+    next.executeAfter(idle, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+  }
+
+}